@@ -2,6 +2,8 @@ package ir.classifiers;
 
 import java.util.*;
 
+import ir.vsr.*;
+
 /**
  * An object to hold the result of training a NaiveBayes classifier.
  * Stores the class priors and the counts of features in each class.
@@ -17,9 +19,15 @@ public class BayesResult {
 
   /**
    * Stores the counts for each feature: an entry in the hashTable stores
-   * the array of class counts for a feature
+   * the array of class counts for a feature, keyed by the term id of its token
+   */
+  protected TermMap<double[]> featureTable;
+
+  /**
+   * Stores the same log probabilities as featureTable as one dense array per
+   * class, indexed by the term id of the feature, with 0 for other tokens
    */
-  protected Hashtable<String, double[]> featureTable;
+  protected double[][] classLogProbs;
 
   /**
    * Sets the class priors
@@ -38,14 +46,28 @@ public class BayesResult {
   /**
    * Sets the feature hash
    */
-  public void setFeatureTable(Hashtable<String, double[]> table) {
+  public void setFeatureTable(TermMap<double[]> table) {
     featureTable = table;
   }
 
   /**
    * Returns the feature hash
    */
-  public Hashtable<String, double[]> getFeatureTable() {
+  public TermMap<double[]> getFeatureTable() {
     return (featureTable);
   }
+
+  /**
+   * Sets the dense log probabilities of the features in each class
+   */
+  public void setClassLogProbs(double[][] logProbs) {
+    classLogProbs = logProbs;
+  }
+
+  /**
+   * Returns the dense log probabilities of the features in each class
+   */
+  public double[][] getClassLogProbs() {
+    return (classLogProbs);
+  }
 }
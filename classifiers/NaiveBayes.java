@@ -127,6 +127,7 @@ public class NaiveBayes extends Classifier {
     trainResult.setClassPriors(calculatePriors(trainExamples));
     //calculate counts of feature for each class
     trainResult.setFeatureTable(conditionalProbs(trainExamples));
+    trainResult.setClassLogProbs(classLogProbs(trainResult.getFeatureTable()));
     if (debug) {
       displayProbs(trainResult.getClassPriors(), trainResult.getFeatureTable());
     }
@@ -191,9 +192,10 @@ public class NaiveBayes extends Classifier {
    *
    * @param trainExamples The training examples from which counts will be estimated
    */
-  protected Hashtable<String, double[]> conditionalProbs(List<Example> trainExamples) {
-    // Initialize hashtable giving conditional prob of each class given a feature
-    Hashtable<String, double[]> featureHash = new Hashtable<String, double[]>();
+  protected TermMap<double[]> conditionalProbs(List<Example> trainExamples) {
+    // Initialize hashtable giving conditional prob of each class given a feature,
+    // keyed by the term id of the feature's token
+    TermMap<double[]> featureHash = new TermMap<double[]>();
     double[] totalCounts = new double[numCategories]; // stores total count of all features in each category
 
     for (int i = 0; i < numCategories; i++)
@@ -202,24 +204,22 @@ public class NaiveBayes extends Classifier {
     for (Example currentExample : trainExamples) {
       if (debug) {
         System.out.println("\nExample: " + currentExample);
-        System.out.println("Number of tokens: " + currentExample.getHashMapVector().hashMap.size());
+        System.out.println("Number of tokens: " + currentExample.getHashMapVector().size());
       }
-      for (Map.Entry<String, Weight> entry : currentExample.getHashMapVector().entrySet()) {
-        // An entry in the HashMap maps a token to a Weight
-        String token = entry.getKey();
-        // The count for the token is in the value of the Weight value
-        int count = (int) entry.getValue().getValue();
-        double[] countArray; // stores counts for current feature
+      HashMapVector vector = currentExample.getHashMapVector();
+      for (int i = 0; i < vector.size(); i++) {
+        int termId = vector.termId(i);
+        // The count for the token is its weight in the vector
+        int count = (int) vector.weight(i);
         if (debug)
-          System.out.println("Counts of token: " + token);
-        if (!featureHash.containsKey(token)) {
+          System.out.println("Counts of token: " + vector.term(i));
+        // retrieve existing array from hashtable
+        double[] countArray = featureHash.get(termId); // stores counts for current feature
+        if (countArray == null) {
           countArray = new double[numCategories]; //create a new array
           for (int m = 0; m < numCategories; m++)
             countArray[m] = 0.0; //init to 0
-          featureHash.put(token, countArray); //add to hashtable
-        } else {
-          // retrieve existing array from hashtable
-          countArray = featureHash.get(token);
+          featureHash.put(termId, countArray); //add to hashtable
         }
         countArray[currentExample.getCategory()] += count;
         totalCounts[currentExample.getCategory()] += count;
@@ -235,9 +235,8 @@ public class NaiveBayes extends Classifier {
     if (debug) {
       System.out.println("\nLog Probs before multiplying priors...\n");
     }
-    for (Map.Entry<String, double[]> entry : featureHash.entrySet()) {
-      String token = entry.getKey();
-      double[] countArray = entry.getValue();
+    for (int termId : featureHash.termIds()) {
+      double[] countArray = featureHash.get(termId);
       for (int j = 0; j < numCategories; j++) {
         if (isLaplace) //Laplace smoothing
           countArray[j] = (countArray[j] + 1) / (totalCounts[j] + numFeatures);
@@ -250,7 +249,7 @@ public class NaiveBayes extends Classifier {
         countArray[j] = Math.log(countArray[j]); //take log of probability
       }
       if (debug) {
-        System.out.println("Log probs of " + token);
+        System.out.println("Log probs of " + TermDictionary.global.term(termId));
         for (int k = 0; k < countArray.length; k++)
           System.out.print(countArray[k] + " ");
         System.out.println();
@@ -259,6 +258,28 @@ public class NaiveBayes extends Classifier {
     return (featureHash);
   }
 
+  /**
+   * Lays out the log probs of the features as a dense array for each category,
+   * indexed by the term id of the feature, with 0 for tokens that are not features
+   * so that unknown tokens are ignored.  The log prob of an example in a category
+   * is then a sparse dot product of its vector with the category's array.
+   *
+   * @param featureHash Feature hashtable after training
+   */
+  protected double[][] classLogProbs(TermMap<double[]> featureHash) {
+    int[] termIds = featureHash.termIds();
+    int numTerms = 0;
+    for (int termId : termIds)
+      numTerms = Math.max(numTerms, termId + 1);
+    double[][] logProbs = new double[numCategories][numTerms];
+    for (int termId : termIds) {
+      double[] countArray = featureHash.get(termId);
+      for (int k = 0; k < numCategories; k++)
+        logProbs[k][termId] = countArray[k];
+    }
+    return logProbs;
+  }
+
   /**
    * Calculates the prob of the testExample being generated by each category
    *
@@ -268,18 +289,12 @@ public class NaiveBayes extends Classifier {
   protected double[] calculateProbs(Example testExample) {
     //set initial probabilities to the prior probs
     double[] probs = trainResult.getClassPriors().clone();
-    Hashtable<String, double[]> hashTable = trainResult.getFeatureTable();
-    for (Map.Entry<String, Weight> entry : testExample.getHashMapVector().entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The count for the token is in the value of the Weight
-      int count = (int) entry.getValue().getValue();
-      if (hashTable.containsKey(token)) {//ignore unknowns
-        double[] countArray = hashTable.get(token); // stores the category array for one token
-        for (int k = 0; k < numCategories; k++)
-          probs[k] += count * countArray[k];//multiplying the probs == adding the logs
-      }
-    }
+    double[][] logProbs = trainResult.getClassLogProbs();
+    HashMapVector vector = testExample.getHashMapVector();
+    // Weighting the log prob of each token by its count and adding them up is
+    // multiplying the probs, and tokens that are not features add nothing
+    for (int k = 0; k < numCategories; k++)
+      probs[k] += vector.dot(logProbs[k]);
     return probs;
   }
 
@@ -289,11 +304,11 @@ public class NaiveBayes extends Classifier {
    * @param classPriors Prior probs
    * @param featureHash Feature hashtable after training
    */
-  protected void displayProbs(double[] classPriors, Hashtable<String, double[]> featureHash) {
+  protected void displayProbs(double[] classPriors, TermMap<double[]> featureHash) {
     System.out.println("\nAfter multiplying priors...");
-    for (Map.Entry<String, double[]> entry : featureHash.entrySet()) {
-      String token = entry.getKey();
-      double[] probs = entry.getValue();
+    for (int termId : featureHash.termIds()) {
+      String token = TermDictionary.global.term(termId);
+      double[] probs = featureHash.get(termId);
       System.out.print("\nFeature: " + token + ", Probs: ");
       for (int num = 0; num < probs.length; num++) {
         //double posterior = classPriors[num]+probs[num];
@@ -123,39 +123,43 @@ public class Experiment {
 
   /**
    * Process each query in the queryFile and store evaluated results
-   * in rpResults
+   * in rpResults.  The queries are all read first and run as a batch
+   * (see InvertedIndex.retrieveBatch), so the postings of tokens common to
+   * several queries are only read once.
    */
   void processQueries() throws IOException {
     BufferedReader in = new BufferedReader(new FileReader(queryFile));
-    while (processQuery(in)) ;
+    ArrayList<String> queries = new ArrayList<String>();
+    ArrayList<ArrayList<String>> correctRetrievals = new ArrayList<ArrayList<String>>();
+    while (readQuery(in, queries, correctRetrievals)) ;
     in.close();
+    // Process the queries and get the ranked retrievals for each
+    List<HashMapVector> queryVectors = new ArrayList<HashMapVector>();
+    for (String query : queries)
+      queryVectors.add(new TextStringDocument(query, index.stem, true).hashMapVector());
+    List<Retrieval[]> allRetrievals = index.retrieveBatch(queryVectors);
+    for (int i = 0; i < queries.size(); i++)
+      processQuery(queries.get(i), allRetrievals.get(i), correctRetrievals.get(i));
     // System.out.println("\n" + rpResults);
   }
 
   /**
-   * Process the next query read from the query file reader and evaluate
-   * results compared to known relevant docs also read from the query file.
+   * Read the next query and its known relevant docs from the query file reader,
+   * adding them to the given lists.
    *
    * @return true if query successfully read, else false if no more queries
    * in query file
    */
-  boolean processQuery(BufferedReader in) throws IOException {
+  boolean readQuery(BufferedReader in, ArrayList<String> queries,
+                    ArrayList<ArrayList<String>> correctRetrievals) throws IOException {
     String query = in.readLine();   // get the query
     if (query == null) return false;  // return false if end of file
-    System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query);
-
-    // Process the query and get the ranked retrievals
-    Retrieval[] retrievals = index.retrieve(query);
-    System.out.println("Returned " + retrievals.length + " documents.");
+    queries.add(query);
 
     // Read the known relevant docs from query file and parse them
     // into an ArrayList of String's of relevant file names.
     String line = in.readLine();
-    ArrayList<String> correctRetrievals = MoreString.segment(line, ' ');
-    System.out.println(correctRetrievals.size() + " truly relevant documents.");
-
-    // Generate Recall/Precision points and save in rpResults
-    rpResults.add(evalRetrievals(retrievals, correctRetrievals));
+    correctRetrievals.add(MoreString.segment(line, ' '));
 
     // Read the blank line delimiter between queries in the query file
     line = in.readLine();
@@ -166,6 +170,19 @@ public class Experiment {
     return true;
   }
 
+  /**
+   * Evaluate the ranked retrievals for a query compared to its known relevant
+   * docs and save the results in rpResults.
+   */
+  void processQuery(String query, Retrieval[] retrievals, ArrayList<String> correctRetrievals) {
+    System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query);
+    System.out.println("Returned " + retrievals.length + " documents.");
+    System.out.println(correctRetrievals.size() + " truly relevant documents.");
+
+    // Generate Recall/Precision points and save in rpResults
+    rpResults.add(evalRetrievals(retrievals, correctRetrievals));
+  }
+
   /**
    * Compare retrieved docs to relevant docs and compute recall/precision
    * points.  Goes down ranked retrievals in order, stopping at each
@@ -275,8 +292,9 @@ public class Experiment {
    * data for the recall precision curve is stored in this file and a
    * gnuplot file for the graph is the same name with a ".gplot" extension.
    * OPTIONs can be
-   * "-html" to specify HTML files whose HTML tags should be removed, and
-   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-html" to specify HTML files whose HTML tags should be removed,
+   * "-stem" to specify tokens should be stemmed with Porter stemmer, and
+   * "-index FILE" to load the index from FILE if it exists, else to index DIR and save the index to FILE.
    */
   public static void main(String[] args) throws IOException {
     // Parse the arguments into a directory name and optional flag
@@ -285,6 +303,7 @@ public class Experiment {
     String outFile = args[args.length - 1];
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false;
+    File indexFile = null;
     for (int i = 0; i < args.length - 3; i++) {
       String flag = args[i];
       if (flag.equals("-html"))
@@ -293,12 +312,23 @@ public class Experiment {
       else if (flag.equals("-stem"))
         // Stem tokens with Porter stemmer
         stem = true;
+      else if (flag.equals("-index"))
+        // Load or save the index in the given file
+        indexFile = new File(args[++i]);
       else {
         throw new IllegalArgumentException("Unknown flag: " + flag);
       }
     }
-    Experiment exper = new Experiment(new File(corpusDir), new File(queryFile),
-        new File(outFile), docType, stem);
+    Experiment exper = null;
+    if (indexFile != null && indexFile.exists())
+      // Use the previously saved index instead of reindexing the corpus
+      exper = new Experiment(InvertedIndex.load(indexFile), new File(queryFile), new File(outFile));
+    else {
+      exper = new Experiment(new File(corpusDir), new File(queryFile),
+          new File(outFile), docType, stem);
+      if (indexFile != null)
+        exper.index.save(indexFile);
+    }
     exper.makeRpCurve();
   }
 }
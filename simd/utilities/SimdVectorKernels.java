@@ -0,0 +1,112 @@
+package ir.utilities;
+
+import jdk.incubator.vector.*;
+
+/**
+ * VectorKernels that use the incubating Vector API, processing as many
+ * doubles at a time as the processor's widest SIMD registers hold.  Sparse
+ * dot products gather the dense values at several indices at once.  Each
+ * kernel finishes the elements left over after the last whole register with a
+ * scalar loop.
+ * <p/>
+ * This class is optional and lives in its own source directory, simd, apart
+ * from the rest of the tree, since compiling and using it requires
+ * --add-modules jdk.incubator.vector.  It is compiled separately, after the
+ * rest of the tree, only when the SIMD kernels are wanted (see README.txt);
+ * without it VectorKernels uses its scalar loops.
+ *
+ * @author Ray Mooney
+ */
+public class SimdVectorKernels extends VectorKernels {
+
+  /**
+   * The widest vector shape of doubles the processor supports
+   */
+  protected static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  /**
+   * The vector shape for gathers, which is at most 256 bits since C2 in JDK 17
+   * has been seen to crash compiling 512-bit gathers of doubles
+   */
+  protected static final VectorSpecies<Double> GATHER_SPECIES =
+      SPECIES.vectorBitSize() > 256 ? DoubleVector.SPECIES_256 : SPECIES;
+
+  /**
+   * Return a description of the kernels
+   */
+  public String name() {
+    return "SIMD (" + SPECIES.length() + " doubles)";
+  }
+
+  /**
+   * Return the dot product of the first length elements of x and y
+   */
+  public double dot(double[] x, double[] y, int length) {
+    DoubleVector sum = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+      sum = DoubleVector.fromArray(SPECIES, x, i).fma(DoubleVector.fromArray(SPECIES, y, i), sum);
+    double result = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++)
+      result += x[i] * y[i];
+    return result;
+  }
+
+  /**
+   * Return the sum of the squares of the first length elements of x
+   */
+  public double sumOfSquares(double[] x, int length) {
+    DoubleVector sum = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+      DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+      sum = v.fma(v, sum);
+    }
+    double result = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++)
+      result += x[i] * x[i];
+    return result;
+  }
+
+  /**
+   * Set the first length elements of sum to those of x plus those of y
+   */
+  public void add(double[] x, double[] y, double[] sum, int length) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+      DoubleVector.fromArray(SPECIES, x, i).add(DoubleVector.fromArray(SPECIES, y, i)).intoArray(sum, i);
+    for (; i < length; i++)
+      sum[i] = x[i] + y[i];
+  }
+
+  /**
+   * Add factor times the first length elements of x to those of y
+   */
+  public void addScaled(double[] x, double factor, double[] y, int length) {
+    DoubleVector scale = DoubleVector.broadcast(SPECIES, factor);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+      DoubleVector.fromArray(SPECIES, x, i).fma(scale, DoubleVector.fromArray(SPECIES, y, i)).intoArray(y, i);
+    for (; i < length; i++)
+      y[i] += factor * x[i];
+  }
+
+  /**
+   * Return the dot product of the sparse vector with values[i] at index
+   * indices[i], for i < length, and the dense vector, gathering the dense
+   * values a register at a time.  Every index must be within the dense vector.
+   */
+  public double sparseDot(int[] indices, double[] values, int length, double[] dense) {
+    DoubleVector sum = DoubleVector.zero(GATHER_SPECIES);
+    int i = 0;
+    for (int bound = GATHER_SPECIES.loopBound(length); i < bound; i += GATHER_SPECIES.length()) {
+      DoubleVector gathered = DoubleVector.fromArray(GATHER_SPECIES, dense, 0, indices, i);
+      sum = DoubleVector.fromArray(GATHER_SPECIES, values, i).fma(gathered, sum);
+    }
+    double result = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++)
+      result += values[i] * dense[indices[i]];
+    return result;
+  }
+
+}
@@ -0,0 +1,146 @@
+package ir.utilities;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A histogram of latencies in nanoseconds that any number of threads can record
+ * into without locking, for reporting percentiles of response times.  Values
+ * below 16 have a bucket each; above that, every power of 2 is split into 16
+ * buckets, so a percentile is reported to within about 6% while the whole
+ * range of longs fits in 1024 counters.
+ *
+ * @author Ray Mooney
+ */
+public class LatencyHistogram {
+
+  /**
+   * The number of bits of a value, after its leading one, that pick its bucket
+   */
+  protected static final int SUB_BUCKET_BITS = 4;
+
+  /**
+   * The number of buckets in each power of 2
+   */
+  protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * The number of values recorded in each bucket
+   */
+  protected final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+  /**
+   * The number of values recorded
+   */
+  protected final AtomicLong count = new AtomicLong();
+
+  /**
+   * The sum of the values recorded
+   */
+  protected final AtomicLong sum = new AtomicLong();
+
+  /**
+   * The largest value recorded
+   */
+  protected final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a latency in nanoseconds.  Negative values are recorded as 0.
+   */
+  public void record(long nanos) {
+    if (nanos < 0)
+      nanos = 0;
+    counts.incrementAndGet(bucket(nanos));
+    count.incrementAndGet();
+    sum.addAndGet(nanos);
+    long oldMax = max.get();
+    while (nanos > oldMax && !max.compareAndSet(oldMax, nanos))
+      oldMax = max.get();
+  }
+
+  /**
+   * Return the bucket of a non-negative value
+   */
+  protected static int bucket(long value) {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | subBucket;
+  }
+
+  /**
+   * Return the smallest value in a bucket
+   */
+  protected static long lowestValue(int bucket) {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+    return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  /**
+   * Return the number of values recorded
+   */
+  public long count() {
+    return count.get();
+  }
+
+  /**
+   * Return the mean of the values recorded, or 0 if there are none
+   */
+  public double mean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * Return the largest value recorded
+   */
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * Return the given percentile, from 0 to 100, of the values recorded: the
+   * largest value of the bucket holding it, but no more than the largest value
+   * recorded.  Returns 0 if no values have been recorded.
+   */
+  public long percentile(double percent) {
+    long n = count.get();
+    if (n == 0)
+      return 0;
+    // The rank of the value at the percentile, counting from 1
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length(); bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= rank)
+        return Math.min(max.get(), lowestValue(bucket + 1) - 1);
+    }
+    return max.get();
+  }
+
+  /**
+   * Forget all the values recorded
+   */
+  public void clear() {
+    for (int bucket = 0; bucket < counts.length(); bucket++)
+      counts.set(bucket, 0);
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * Return the count, mean, usual percentiles and maximum, in milliseconds
+   */
+  public String toString() {
+    return "count " + count() + ", mean " + MoreMath.roundTo(mean() / 1e6, 3) +
+        " ms, p50 " + MoreMath.roundTo(percentile(50) / 1e6, 3) +
+        " ms, p90 " + MoreMath.roundTo(percentile(90) / 1e6, 3) +
+        " ms, p99 " + MoreMath.roundTo(percentile(99) / 1e6, 3) +
+        " ms, p99.9 " + MoreMath.roundTo(percentile(99.9) / 1e6, 3) +
+        " ms, max " + MoreMath.roundTo(max() / 1e6, 3) + " ms";
+  }
+
+}
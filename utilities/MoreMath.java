@@ -45,8 +45,7 @@ public class MoreMath {
       throw new IllegalArgumentException("Tried to add vectors of unequal length");
     }
     double[] sum = new double[x.length];
-    for (int i = 0; i < x.length; i++)
-      sum[i] = x[i] + y[i];
+    VectorKernels.kernels.add(x, y, sum, x.length);
     return sum;
   }
 
@@ -91,12 +90,11 @@ public class MoreMath {
     out.print("]");
   }
 
+  /**
+   * Return the Euclidian length (sqrt of sum of squares) of a vector
+   */
   public static double vectorLength(double[] values) {
-    double sumSquares = 0;
-    for (double value: values) {
-      sumSquares = sumSquares + Math.pow(value, 2);
-    }
-    return Math.sqrt(sumSquares);
+    return Math.sqrt(VectorKernels.kernels.sumOfSquares(values, values.length));
   }
 
   public static double vectorOneNorm(double[] values) {
@@ -12,59 +12,119 @@ import java.io.*;
 
 */
 
-class NewString {
-  public String str;
-
-  NewString() {
-    str = "";
-  }
-}
-
 /**
  * The Porter stemmer for reducing words to their base stem form.
+ * The word is stemmed in place in an array of characters, each step
+ * returning the new length of the word, so that stemming a token
+ * creates no objects.  Since no step ever makes the word longer than
+ * it was, a token can be stemmed in the buffer it was read into.
+ * A Porter has no state, so one stemmer can be shared by threads.
  *
  * @author Fotis Lazarinis
  */
 
 public class Porter {
 
-  private String Clean(String str) {
-    int last = str.length();
+  private static final char[] SSES = "sses".toCharArray();
+  private static final char[] IES = "ies".toCharArray();
+  private static final char[] EED = "eed".toCharArray();
+  private static final char[] ED = "ed".toCharArray();
+  private static final char[] ING = "ing".toCharArray();
+  private static final char[] AT = "at".toCharArray();
+  private static final char[] BL = "bl".toCharArray();
+  private static final char[] IZ = "iz".toCharArray();
+  private static final char[] Y = "y".toCharArray();
+
+  private static final char[][][] step2Suffixes = toChars(new String[][]{{"ational", "ate"},
+      {"tional", "tion"},
+      {"enci", "ence"},
+      {"anci", "ance"},
+      {"izer", "ize"},
+      {"iser", "ize"},
+      {"abli", "able"},
+      {"alli", "al"},
+      {"entli", "ent"},
+      {"eli", "e"},
+      {"ousli", "ous"},
+      {"ization", "ize"},
+      {"isation", "ize"},
+      {"ation", "ate"},
+      {"ator", "ate"},
+      {"alism", "al"},
+      {"iveness", "ive"},
+      {"fulness", "ful"},
+      {"ousness", "ous"},
+      {"aliti", "al"},
+      {"iviti", "ive"},
+      {"biliti", "ble"}});
+
+  private static final char[][][] step3Suffixes = toChars(new String[][]{{"icate", "ic"},
+      {"ative", ""},
+      {"alize", "al"},
+      {"alise", "al"},
+      {"iciti", "ic"},
+      {"ical", "ic"},
+      {"ful", ""},
+      {"ness", ""}});
+
+  private static final char[][] step4Suffixes = toChars(new String[]{"al", "ance", "ence", "er", "ic", "able",
+      "ible", "ant", "ement", "ment", "ent", "sion", "tion", "ou", "ism", "ate", "iti", "ous", "ive", "ize", "ise"});
+
+  private static final char[][] prefixes = toChars(new String[]{"kilo", "micro", "milli", "intra", "ultra",
+      "mega", "nano", "pico", "pseudo"});
+
+  private static char[][] toChars(String[] strings) {
+    char[][] chars = new char[strings.length][];
+    for (int i = 0; i < strings.length; i++)
+      chars[i] = strings[i].toCharArray();
+    return chars;
+  }
+
+  private static char[][][] toChars(String[][] strings) {
+    char[][][] chars = new char[strings.length][][];
+    for (int i = 0; i < strings.length; i++)
+      chars[i] = toChars(strings[i]);
+    return chars;
+  }
 
-    Character ch = new Character(str.charAt(0));
-    String temp = "";
+  /**
+   * Remove the characters that are not letters or digits.
+   */
+  private int clean(char[] word, int length) {
+    int last = 0;
 
-    for (int i = 0; i < last; i++) {
-      if (ch.isLetterOrDigit(str.charAt(i)))
-        temp += str.charAt(i);
+    for (int i = 0; i < length; i++) {
+      if (Character.isLetterOrDigit(word[i]))
+        word[last++] = word[i];
     }
 
-    return temp;
+    return last;
   } //clean
 
-  private boolean hasSuffix(String word, String suffix, NewString stem) {
+  /**
+   * True if the word is longer than the suffix and ends with it, in which
+   * case its stem is its first length - suffix.length characters.
+   */
+  private boolean hasSuffix(char[] word, int length, char[] suffix) {
 
-    String tmp = "";
+    int suffixLength = suffix.length;
 
-    if (word.length() <= suffix.length())
+    if (length <= suffixLength)
       return false;
-    if (suffix.length() > 1)
-      if (word.charAt(word.length() - 2) != suffix.charAt(suffix.length() - 2))
-        return false;
-
-    stem.str = "";
 
-    for (int i = 0; i < word.length() - suffix.length(); i++)
-      stem.str += word.charAt(i);
-    tmp = stem.str;
+    for (int i = 1; i <= suffixLength; i++)
+      if (word[length - i] != suffix[suffixLength - i])
+        return false;
 
-    for (int i = 0; i < suffix.length(); i++)
-      tmp += suffix.charAt(i);
+    return true;
+  }
 
-    if (tmp.compareTo(word) == 0)
-      return true;
-    else
-      return false;
+  /**
+   * Replace the end of the word after its stem, returning the new length.
+   */
+  private int replace(char[] word, int stemLength, char[] replacement) {
+    System.arraycopy(replacement, 0, word, stemLength, replacement.length);
+    return stemLength + replacement.length;
   }
 
   private boolean vowel(char ch, char prev) {
@@ -95,28 +155,27 @@ public class Porter {
     }
   }
 
-  private int measure(String stem) {
+  private int measure(char[] stem, int length) {
 
     int i = 0, count = 0;
-    int length = stem.length();
 
     while (i < length) {
       for (; i < length; i++) {
         if (i > 0) {
-          if (vowel(stem.charAt(i), stem.charAt(i - 1)))
+          if (vowel(stem[i], stem[i - 1]))
             break;
         } else {
-          if (vowel(stem.charAt(i), 'a'))
+          if (vowel(stem[i], 'a'))
             break;
         }
       }
 
       for (i++; i < length; i++) {
         if (i > 0) {
-          if (!vowel(stem.charAt(i), stem.charAt(i - 1)))
+          if (!vowel(stem[i], stem[i - 1]))
             break;
         } else {
-          if (!vowel(stem.charAt(i), '?'))
+          if (!vowel(stem[i], '?'))
             break;
         }
       }
@@ -129,37 +188,36 @@ public class Porter {
     return (count);
   }
 
-  private boolean containsVowel(String word) {
+  private boolean containsVowel(char[] word, int length) {
 
-    for (int i = 0; i < word.length(); i++)
+    for (int i = 0; i < length; i++)
       if (i > 0) {
-        if (vowel(word.charAt(i), word.charAt(i - 1)))
+        if (vowel(word[i], word[i - 1]))
           return true;
       } else {
-        if (vowel(word.charAt(0), 'a'))
+        if (vowel(word[0], 'a'))
           return true;
       }
 
     return false;
   }
 
-  private boolean cvc(String str) {
-    int length = str.length();
+  private boolean cvc(char[] str, int length) {
 
     if (length < 3)
       return false;
 
-    if ((!vowel(str.charAt(length - 1), str.charAt(length - 2)))
-        && (str.charAt(length - 1) != 'w') && (str.charAt(length - 1) != 'x') && (str.charAt(length - 1) != 'y')
-        && (vowel(str.charAt(length - 2), str.charAt(length - 3)))) {
+    if ((!vowel(str[length - 1], str[length - 2]))
+        && (str[length - 1] != 'w') && (str[length - 1] != 'x') && (str[length - 1] != 'y')
+        && (vowel(str[length - 2], str[length - 3]))) {
 
       if (length == 3) {
-        if (!vowel(str.charAt(0), '?'))
+        if (!vowel(str[0], '?'))
           return true;
         else
           return false;
       } else {
-        if (!vowel(str.charAt(length - 3), str.charAt(length - 4)))
+        if (!vowel(str[length - 3], str[length - 4]))
           return true;
         else
           return false;
@@ -169,239 +227,174 @@ public class Porter {
     return false;
   }
 
-  private String step1(String str) {
-
-    NewString stem = new NewString();
+  private int step1(char[] str, int length) {
 
-    if (str.charAt(str.length() - 1) == 's') {
-      if ((hasSuffix(str, "sses", stem)) || (hasSuffix(str, "ies", stem))) {
-        String tmp = "";
-        for (int i = 0; i < str.length() - 2; i++)
-          tmp += str.charAt(i);
-        str = tmp;
+    if (str[length - 1] == 's') {
+      if ((hasSuffix(str, length, SSES)) || (hasSuffix(str, length, IES))) {
+        length = length - 2;
       } else {
-        if ((str.length() == 1) && (str.charAt(str.length() - 1) == 's')) {
-          str = "";
-          return str;
-        }
-        if (str.charAt(str.length() - 2) != 's') {
-          String tmp = "";
-          for (int i = 0; i < str.length() - 1; i++)
-            tmp += str.charAt(i);
-          str = tmp;
-        }
+        if (length == 1)
+          return 0;
+        if (str[length - 2] != 's')
+          length--;
       }
     }
 
-    if (hasSuffix(str, "eed", stem)) {
-      if (measure(stem.str) > 0) {
-        String tmp = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          tmp += str.charAt(i);
-        str = tmp;
-      }
+    if (hasSuffix(str, length, EED)) {
+      if (measure(str, length - EED.length) > 0)
+        length--;
     } else {
-      if ((hasSuffix(str, "ed", stem)) || (hasSuffix(str, "ing", stem))) {
-        if (containsVowel(stem.str)) {
-
-          String tmp = "";
-          for (int i = 0; i < stem.str.length(); i++)
-            tmp += str.charAt(i);
-          str = tmp;
-          if (str.length() == 1)
-            return str;
-
-          if ((hasSuffix(str, "at", stem)) || (hasSuffix(str, "bl", stem)) || (hasSuffix(str, "iz", stem))) {
-            str += "e";
-
-          } else {
-            int length = str.length();
-            if ((str.charAt(length - 1) == str.charAt(length - 2))
-                && (str.charAt(length - 1) != 'l') && (str.charAt(length - 1) != 's') && (str.charAt(length - 1) != 'z')) {
-
-              tmp = "";
-              for (int i = 0; i < str.length() - 1; i++)
-                tmp += str.charAt(i);
-              str = tmp;
-            } else if (measure(str) == 1) {
-              if (cvc(str))
-                str += "e";
-            }
+      int stemLength = -1;
+      if (hasSuffix(str, length, ED))
+        stemLength = length - ED.length;
+      else if (hasSuffix(str, length, ING))
+        stemLength = length - ING.length;
+      if (stemLength >= 0 && containsVowel(str, stemLength)) {
+
+        length = stemLength;
+        if (length == 1)
+          return length;
+
+        if ((hasSuffix(str, length, AT)) || (hasSuffix(str, length, BL)) || (hasSuffix(str, length, IZ))) {
+          str[length++] = 'e';
+
+        } else {
+          char last = str[length - 1];
+          if ((last == str[length - 2]) && (last != 'l') && (last != 's') && (last != 'z')) {
+            length--;
+          } else if (measure(str, length) == 1) {
+            if (cvc(str, length))
+              str[length++] = 'e';
           }
         }
       }
     }
 
-    if (hasSuffix(str, "y", stem))
-      if (containsVowel(stem.str)) {
-        String tmp = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          tmp += str.charAt(i);
-        str = tmp + "i";
-      }
-    return str;
+    if (hasSuffix(str, length, Y))
+      if (containsVowel(str, length - Y.length))
+        str[length - 1] = 'i';
+    return length;
   }
 
-  private String step2(String str) {
-
-    String[][] suffixes = {{"ational", "ate"},
-        {"tional", "tion"},
-        {"enci", "ence"},
-        {"anci", "ance"},
-        {"izer", "ize"},
-        {"iser", "ize"},
-        {"abli", "able"},
-        {"alli", "al"},
-        {"entli", "ent"},
-        {"eli", "e"},
-        {"ousli", "ous"},
-        {"ization", "ize"},
-        {"isation", "ize"},
-        {"ation", "ate"},
-        {"ator", "ate"},
-        {"alism", "al"},
-        {"iveness", "ive"},
-        {"fulness", "ful"},
-        {"ousness", "ous"},
-        {"aliti", "al"},
-        {"iviti", "ive"},
-        {"biliti", "ble"}};
-    NewString stem = new NewString();
-
-
-    for (int index = 0; index < suffixes.length; index++) {
-      if (hasSuffix(str, suffixes[index][0], stem)) {
-        if (measure(stem.str) > 0) {
-          str = stem.str + suffixes[index][1];
-          return str;
-        }
+  private int step2(char[] str, int length) {
+
+    for (int index = 0; index < step2Suffixes.length; index++) {
+      char[] suffix = step2Suffixes[index][0];
+      if (hasSuffix(str, length, suffix)) {
+        if (measure(str, length - suffix.length) > 0)
+          return replace(str, length - suffix.length, step2Suffixes[index][1]);
       }
     }
 
-    return str;
+    return length;
   }
 
-  private String step3(String str) {
-
-    String[][] suffixes = {{"icate", "ic"},
-        {"ative", ""},
-        {"alize", "al"},
-        {"alise", "al"},
-        {"iciti", "ic"},
-        {"ical", "ic"},
-        {"ful", ""},
-        {"ness", ""}};
-    NewString stem = new NewString();
-
-    for (int index = 0; index < suffixes.length; index++) {
-      if (hasSuffix(str, suffixes[index][0], stem))
-        if (measure(stem.str) > 0) {
-          str = stem.str + suffixes[index][1];
-          return str;
-        }
+  private int step3(char[] str, int length) {
+
+    for (int index = 0; index < step3Suffixes.length; index++) {
+      char[] suffix = step3Suffixes[index][0];
+      if (hasSuffix(str, length, suffix))
+        if (measure(str, length - suffix.length) > 0)
+          return replace(str, length - suffix.length, step3Suffixes[index][1]);
     }
-    return str;
+    return length;
   }
 
-  private String step4(String str) {
+  private int step4(char[] str, int length) {
 
-    String[] suffixes = {"al", "ance", "ence", "er", "ic", "able", "ible", "ant", "ement", "ment", "ent", "sion", "tion",
-        "ou", "ism", "ate", "iti", "ous", "ive", "ize", "ise"};
+    for (int index = 0; index < step4Suffixes.length; index++) {
+      char[] suffix = step4Suffixes[index];
+      if (hasSuffix(str, length, suffix)) {
 
-    NewString stem = new NewString();
-
-    for (int index = 0; index < suffixes.length; index++) {
-      if (hasSuffix(str, suffixes[index], stem)) {
-
-        if (measure(stem.str) > 1) {
-          str = stem.str;
-          return str;
-        }
+        if (measure(str, length - suffix.length) > 1)
+          return length - suffix.length;
       }
     }
-    return str;
+    return length;
   }
 
-  private String step5(String str) {
-
-    if (str.charAt(str.length() - 1) == 'e') {
-      if (measure(str) > 1) {/* measure(str)==measure(stem) if ends in vowel */
-        String tmp = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          tmp += str.charAt(i);
-        str = tmp;
-      } else if (measure(str) == 1) {
-        String stem = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          stem += str.charAt(i);
-
-        if (!cvc(stem))
-          str = stem;
+  private int step5(char[] str, int length) {
+
+    if (str[length - 1] == 'e') {
+      int measure = measure(str, length);
+      if (measure > 1) {/* measure(str)==measure(stem) if ends in vowel */
+        length--;
+      } else if (measure == 1) {
+        if (!cvc(str, length - 1))
+          length--;
       }
     }
 
-    if (str.length() == 1)
-      return str;
-    if ((str.charAt(str.length() - 1) == 'l') && (str.charAt(str.length() - 2) == 'l') && (measure(str) > 1))
-      if (measure(str) > 1) {/* measure(str)==measure(stem) if ends in vowel */
-        String tmp = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          tmp += str.charAt(i);
-        str = tmp;
-      }
-    return str;
+    if (length == 1)
+      return length;
+    if ((str[length - 1] == 'l') && (str[length - 2] == 'l') && (measure(str, length) > 1))
+      length--;
+    return length;
   }
 
-  private String stripPrefixes(String str) {
-
-    String[] prefixes = {"kilo", "micro", "milli", "intra", "ultra", "mega", "nano", "pico", "pseudo"};
+  private int stripPrefixes(char[] str, int length) {
 
-    int last = prefixes.length;
-    for (int i = 0; i < last; i++) {
-      if (str.startsWith(prefixes[i])) {
-        String temp = "";
-        for (int j = 0; j < str.length() - prefixes[i].length(); j++)
-          temp += str.charAt(j + prefixes[i].length());
-        return temp;
+    for (int i = 0; i < prefixes.length; i++) {
+      char[] prefix = prefixes[i];
+      if (startsWith(str, length, prefix)) {
+        System.arraycopy(str, prefix.length, str, 0, length - prefix.length);
+        return length - prefix.length;
       }
     }
 
-    return str;
+    return length;
   }
 
+  private boolean startsWith(char[] str, int length, char[] prefix) {
+    if (length < prefix.length)
+      return false;
+    for (int i = 0; i < prefix.length; i++)
+      if (str[i] != prefix[i])
+        return false;
+    return true;
+  }
 
-  private String stripSuffixes(String str) {
+  private int stripSuffixes(char[] str, int length) {
 
-    str = step1(str);
-    if (str.length() >= 1)
-      str = step2(str);
-    if (str.length() >= 1)
-      str = step3(str);
-    if (str.length() >= 1)
-      str = step4(str);
-    if (str.length() >= 1)
-      str = step5(str);
+    length = step1(str, length);
+    if (length >= 1)
+      length = step2(str, length);
+    if (length >= 1)
+      length = step3(str, length);
+    if (length >= 1)
+      length = step4(str, length);
+    if (length >= 1)
+      length = step5(str, length);
 
-    return str;
+    return length;
   }
 
   /**
-   * Takes a String as input and returns its stem as a String.
+   * Stems the lower case word in word[0] to word[length-1] in place,
+   * and returns the length of its stem.
    */
-  public String stripAffixes(String str) {
+  public int stem(char[] word, int length) {
 
-    str = str.toLowerCase();
-    str = Clean(str);
+    length = clean(word, length);
 
-    if ((str != "") && (str.length() > 2)) {
-      str = stripPrefixes(str);
+    if (length > 2) {
+      length = stripPrefixes(word, length);
 
-      if (str != "")
-        str = stripSuffixes(str);
+      if (length != 0)
+        length = stripSuffixes(word, length);
 
     }
 
-    return str;
+    return length;
+  } //stem
+
+  /**
+   * Takes a String as input and returns its stem as a String.
+   */
+  public String stripAffixes(String str) {
+
+    char[] word = str.toLowerCase().toCharArray();
+    return new String(word, 0, stem(word, word.length));
   } //stripAffixes
 
   /**
@@ -415,4 +408,3 @@ public class Porter {
   }
 
 } //class
-
@@ -0,0 +1,106 @@
+package ir.utilities;
+
+/**
+ * A bounded cache from words to their Porter stems that threads can share
+ * without locking.  It is direct-mapped: each word hashes to a single slot, and
+ * a word that is stemmed replaces whatever word was in its slot, so the cache
+ * never holds more words than it has slots and needs no eviction.  Entries are
+ * immutable, so a thread always sees either a whole entry or none; a race
+ * just costs stemming the word again.  Looking up a word that is in the cache
+ * creates no objects, so with the skewed frequencies of words in text most
+ * tokens are stemmed for the cost of hashing them.
+ *
+ * @author Ray Mooney
+ */
+public class StemCache {
+
+  /**
+   * The default number of slots in the cache
+   */
+  public static final int DEFAULT_SIZE = 1 << 16;
+
+  /**
+   * A word and its stem
+   */
+  protected static class Entry {
+    final char[] word;
+    final String stem;
+
+    Entry(char[] word, String stem) {
+      this.word = word;
+      this.stem = stem;
+    }
+  }
+
+  /**
+   * The slots of the cache, whose number is a power of 2
+   */
+  protected final Entry[] entries;
+
+  /**
+   * The stemmer used for words that are not in the cache
+   */
+  protected final Porter stemmer;
+
+  /**
+   * Create a cache with at least the given number of slots for stems from the
+   * given stemmer.
+   */
+  public StemCache(Porter stemmer, int size) {
+    if (size < 1)
+      throw new IllegalArgumentException("StemCache size must be positive: " + size);
+    this.stemmer = stemmer;
+    int numSlots = Integer.highestOneBit(size);
+    if (numSlots < size)
+      numSlots = numSlots * 2;
+    entries = new Entry[numSlots];
+  }
+
+  /**
+   * Create a cache with the default number of slots.
+   */
+  public StemCache(Porter stemmer) {
+    this(stemmer, DEFAULT_SIZE);
+  }
+
+  /**
+   * Return the stem of the lower case word in word[0] to word[length-1].  If the
+   * word is not in the cache, it is stemmed in place in the given array.
+   */
+  public String stem(char[] word, int length) {
+    int slot = hash(word, length) & (entries.length - 1);
+    Entry entry = entries[slot];
+    if (entry != null && matches(entry.word, word, length))
+      return entry.stem;
+    // Remember the word before it is stemmed in place
+    char[] key = new char[length];
+    System.arraycopy(word, 0, key, 0, length);
+    String stem = new String(word, 0, stemmer.stem(word, length));
+    entries[slot] = new Entry(key, stem);
+    return stem;
+  }
+
+  /**
+   * Return true if the key holds exactly the characters of the word
+   */
+  protected static boolean matches(char[] key, char[] word, int length) {
+    if (key.length != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (key[i] != word[i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The hashcode of the word, with its high bits spread into the low ones
+   */
+  protected static int hash(char[] word, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++)
+      hash = 31 * hash + word[i];
+    return hash ^ (hash >>> 16);
+  }
+
+}
@@ -0,0 +1,194 @@
+package ir.utilities;
+
+import java.util.*;
+
+/**
+ * The inner loops of vector arithmetic on arrays of doubles: dot products,
+ * sums of squares, sums and scaled sums of dense vectors, and the dot product
+ * of a sparse vector, given as parallel arrays of indices and values, with a
+ * dense one.  This class does them with plain scalar loops, and is all the
+ * default build compiles.  The optional SimdVectorKernels, in the separate
+ * simd source directory, does them with SIMD instructions using the incubating
+ * Vector API, gathering the dense values of sparse dot products.  When it has
+ * been compiled (see README.txt) and the JVM runs with --add-modules
+ * jdk.incubator.vector, the shared instance, kernels, is a SimdVectorKernels.
+ * Setting the system property ir.simd to false forces the scalar loops.
+ * <p/>
+ * The SIMD kernels add up products in a different order, so their results
+ * can differ from the scalar ones in the last bits.
+ *
+ * @author Ray Mooney
+ */
+public class VectorKernels {
+
+  /**
+   * The kernels shared by all callers: SIMD ones if the Vector API is
+   * available, or else scalar ones
+   */
+  public static final VectorKernels kernels = load();
+
+  /**
+   * Return SIMD kernels if they can be loaded and are not disabled, or else
+   * scalar kernels.
+   */
+  protected static VectorKernels load() {
+    if (!Boolean.parseBoolean(System.getProperty("ir.simd", "true")))
+      return new VectorKernels();
+    try {
+      // Loaded by name, since it is only compiled on request and cannot be
+      // linked without the Vector API module
+      return (VectorKernels) Class.forName("ir.utilities.SimdVectorKernels").getDeclaredConstructor().newInstance();
+    }
+    catch (Exception e) {
+      return new VectorKernels();
+    }
+    catch (LinkageError e) {
+      return new VectorKernels();
+    }
+  }
+
+  /**
+   * Return a description of the kernels
+   */
+  public String name() {
+    return "scalar";
+  }
+
+  /**
+   * Return the dot product of the first length elements of x and y
+   */
+  public double dot(double[] x, double[] y, int length) {
+    double sum = 0;
+    for (int i = 0; i < length; i++)
+      sum += x[i] * y[i];
+    return sum;
+  }
+
+  /**
+   * Return the sum of the squares of the first length elements of x
+   */
+  public double sumOfSquares(double[] x, int length) {
+    double sum = 0;
+    for (int i = 0; i < length; i++)
+      sum += x[i] * x[i];
+    return sum;
+  }
+
+  /**
+   * Set the first length elements of sum to those of x plus those of y
+   */
+  public void add(double[] x, double[] y, double[] sum, int length) {
+    for (int i = 0; i < length; i++)
+      sum[i] = x[i] + y[i];
+  }
+
+  /**
+   * Add factor times the first length elements of x to those of y
+   */
+  public void addScaled(double[] x, double factor, double[] y, int length) {
+    for (int i = 0; i < length; i++)
+      y[i] += factor * x[i];
+  }
+
+  /**
+   * Return the dot product of the sparse vector with values[i] at index
+   * indices[i], for i < length, and the dense vector.  Every index must be
+   * within the dense vector.
+   */
+  public double sparseDot(int[] indices, double[] values, int length, double[] dense) {
+    double sum = 0;
+    for (int i = 0; i < length; i++)
+      sum += values[i] * dense[indices[i]];
+    return sum;
+  }
+
+  /**
+   * Time the scalar kernels against the shared ones on the kinds of work the
+   * system does with them: scoring sparse documents against a dense weight
+   * vector per category, as a classifier does; re-ranking candidate documents by
+   * their full cosine to a dense query; and dot products of dense vectors.
+   * The data are random, with documents of about as many distinct tokens as
+   * typical text documents.  Run with --add-modules jdk.incubator.vector, with
+   * SimdVectorKernels compiled, to compare with the SIMD kernels.
+   */
+  public static void main(String[] args) {
+    VectorKernels scalar = new VectorKernels();
+    System.out.println("Comparing scalar kernels with " + kernels.name());
+    Random random = new Random(1);
+    int numTerms = 50000;
+    // Sparse documents of 100 to 300 distinct tokens
+    int numDocs = 5000;
+    int[][] docIds = new int[numDocs][];
+    double[][] docWeights = new double[numDocs][];
+    for (int d = 0; d < numDocs; d++) {
+      Set<Integer> ids = new TreeSet<Integer>();
+      int size = 100 + random.nextInt(200);
+      while (ids.size() < size)
+        ids.add(random.nextInt(numTerms));
+      docIds[d] = new int[size];
+      docWeights[d] = new double[size];
+      int i = 0;
+      for (int id : ids) {
+        docIds[d][i] = id;
+        docWeights[d][i++] = 1 + random.nextInt(5);
+      }
+    }
+    // Dense weight vectors of categories, and a dense query
+    int numCategories = 20;
+    double[][] categories = new double[numCategories][numTerms];
+    for (double[] category : categories) {
+      for (int t = 0; t < numTerms; t++)
+        category[t] = Math.log(random.nextDouble());
+    }
+    double[] query = new double[numTerms];
+    for (int t = 0; t < numTerms; t += 1 + random.nextInt(50))
+      query[t] = random.nextDouble();
+    double queryLength = Math.sqrt(scalar.sumOfSquares(query, numTerms));
+    // Dense vectors for dot products
+    double[][] dense = new double[200][1024];
+    for (double[] vector : dense) {
+      for (int i = 0; i < vector.length; i++)
+        vector[i] = random.nextGaussian();
+    }
+    VectorKernels[] both = {scalar, kernels};
+    // The best time of each kind of work with each kernels, over several rounds
+    long[][] best = new long[2][3];
+    for (long[] times : best)
+      Arrays.fill(times, Long.MAX_VALUE);
+    double check = 0;
+    for (int round = 0; round < 10; round++) {
+      for (int b = 0; b < both.length; b++) {
+        VectorKernels k = both[b];
+        long start = System.nanoTime();
+        for (int d = 0; d < numDocs; d++) {
+          for (double[] category : categories)
+            check += k.sparseDot(docIds[d], docWeights[d], docIds[d].length, category);
+        }
+        best[b][0] = Math.min(best[b][0], System.nanoTime() - start);
+        start = System.nanoTime();
+        for (int repeat = 0; repeat < 20; repeat++) {
+          for (int d = 0; d < numDocs; d++) {
+            double length = Math.sqrt(k.sumOfSquares(docWeights[d], docWeights[d].length));
+            check += k.sparseDot(docIds[d], docWeights[d], docIds[d].length, query) / (length * queryLength);
+          }
+        }
+        best[b][1] = Math.min(best[b][1], System.nanoTime() - start);
+        start = System.nanoTime();
+        for (double[] x : dense) {
+          for (double[] y : dense)
+            check += k.dot(x, y, x.length);
+        }
+        best[b][2] = Math.min(best[b][2], System.nanoTime() - start);
+      }
+    }
+    String[] work = {"Classify " + numDocs + " documents into " + numCategories + " categories",
+        "Re-rank " + numDocs + " documents by cosine, 20 times", "Dot products of 200x200 dense vectors"};
+    for (int w = 0; w < work.length; w++) {
+      System.out.println(String.format("%-50s scalar %6.1f ms, %s %6.1f ms, speedup %.2f", work[w],
+          best[0][w] / 1e6, kernels.name(), best[1][w] / 1e6, (double) best[0][w] / best[1][w]));
+    }
+    // Print the checksum so that the work cannot be optimized away
+    System.out.println("(checksum " + check + ")");
+  }
+
+}
@@ -0,0 +1,121 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The statistics of a collection of documents that IDF factors are computed
+ * from: the number of documents and the number of documents each token occurs
+ * in.  When a collection is split into shards, each indexed separately (see
+ * ShardedIndex), the statistics of the shards are added up, and every shard
+ * computes its IDF factors from the statistics of the whole collection instead
+ * of its own, so that the scores of documents in different shards are
+ * comparable.
+ * <p/>
+ * Tokens are kept as Strings rather than term ids, since the statistics are
+ * exchanged with shards in other processes, and can be written and read in a
+ * plain text format: the number of documents on the first line, then a line
+ * for each token with the token and its document frequency separated by a tab.
+ *
+ * @author Ray Mooney
+ */
+public class CollectionStatistics {
+
+  /**
+   * The number of documents in the collection
+   */
+  public int numDocuments = 0;
+
+  /**
+   * The number of documents in the collection each token occurs in
+   */
+  public Map<String, Integer> documentFrequencies = new HashMap<String, Integer>();
+
+  /**
+   * Create the statistics of an empty collection
+   */
+  public CollectionStatistics() {
+  }
+
+  /**
+   * Create the statistics of the documents in an index, not counting deleted ones
+   */
+  public CollectionStatistics(InvertedIndex index) {
+    // Bring the postings up to date with any deletions
+    index.updateStatistics();
+    numDocuments = index.numDocuments();
+    for (int termId : index.tokenInfos.termIds())
+      documentFrequencies.put(TermDictionary.global.term(termId), index.tokenInfos.get(termId).numOccurrences());
+  }
+
+  /**
+   * Add the statistics of another part of the collection to these
+   */
+  public void add(CollectionStatistics statistics) {
+    numDocuments = numDocuments + statistics.numDocuments;
+    for (Map.Entry<String, Integer> entry : statistics.documentFrequencies.entrySet()) {
+      Integer frequency = documentFrequencies.get(entry.getKey());
+      documentFrequencies.put(entry.getKey(), frequency == null ? entry.getValue() : frequency + entry.getValue());
+    }
+  }
+
+  /**
+   * Return the IDF factor of a token in the collection, computed as in
+   * InvertedIndex, or 0 if the token is not in the collection.
+   */
+  public double idf(String token) {
+    Integer frequency = documentFrequencies.get(token);
+    if (frequency == null || frequency == 0)
+      return 0.0;
+    double N = numDocuments;
+    double numDocRefs = frequency;
+    return Math.log(N / numDocRefs);
+  }
+
+  /**
+   * Return the length of a query vector weighted by the IDF factors of the
+   * collection, summed as when retrieving from a single index of the collection.
+   */
+  public double queryLength(HashMapVector vector) {
+    double sum = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      double idf = idf(vector.term(i));
+      if (idf != 0.0) {
+        double weight = idf * vector.weight(i);
+        sum = sum + weight * weight;
+      }
+    }
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Write the statistics in the text format
+   */
+  public void write(Writer writer) throws IOException {
+    PrintWriter out = new PrintWriter(new BufferedWriter(writer));
+    out.println(numDocuments);
+    for (Map.Entry<String, Integer> entry : documentFrequencies.entrySet())
+      out.println(entry.getKey() + "\t" + entry.getValue());
+    out.flush();
+  }
+
+  /**
+   * Read statistics written in the text format
+   */
+  public static CollectionStatistics read(Reader reader) throws IOException {
+    BufferedReader in = new BufferedReader(reader);
+    CollectionStatistics statistics = new CollectionStatistics();
+    String line = in.readLine();
+    if (line == null)
+      throw new IOException("Missing number of documents in collection statistics");
+    statistics.numDocuments = Integer.parseInt(line.trim());
+    while ((line = in.readLine()) != null) {
+      int tab = line.indexOf('\t');
+      if (tab < 0)
+        throw new IOException("Bad line in collection statistics: " + line);
+      statistics.documentFrequencies.put(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1)));
+    }
+    return statistics;
+  }
+
+}
@@ -0,0 +1,78 @@
+package ir.vsr;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Information about a token whose postings are kept compressed, either in a
+ * byte array on the heap or in a memory-mapped index file, and decoded on the
+ * fly when they are read.  Its occList is always empty and cannot be added to,
+ * so an index of CompressedTokenInfo's is read-only; use postings() to get the
+ * documents where it occurs.
+ *
+ * @author Ray Mooney
+ * @see PostingsCodec
+ */
+public class CompressedTokenInfo extends TokenInfo {
+
+  /**
+   * The codec used to encode the postings
+   */
+  protected int codec;
+
+  /**
+   * The buffer holding the encoded postings
+   */
+  protected ByteBuffer data;
+
+  /**
+   * The position of the encoded postings in data
+   */
+  protected int offset;
+
+  /**
+   * The number of encoded postings
+   */
+  protected int numPostings;
+
+  /**
+   * The indexed documents, in the order of their ids
+   */
+  protected List<DocumentReference> docRefs;
+
+  /**
+   * Create information for a token whose postings are encoded in the given buffer.
+   *
+   * @param idf         The IDF factor of the token.
+   * @param codec       The codec used to encode the postings.
+   * @param data        The buffer holding the encoded postings.
+   * @param offset      The position of the encoded postings in data.
+   * @param numPostings The number of encoded postings.
+   * @param docRefs     The indexed documents, in the order of their ids.
+   */
+  public CompressedTokenInfo(double idf, int codec, ByteBuffer data, int offset, int numPostings,
+                             List<DocumentReference> docRefs) {
+    this.idf = idf;
+    this.codec = codec;
+    this.data = data;
+    this.offset = offset;
+    this.numPostings = numPostings;
+    this.docRefs = docRefs;
+    occList = Collections.emptyList();
+  }
+
+  /**
+   * Return the number of documents in which this token occurs
+   */
+  public int numOccurrences() {
+    return numPostings;
+  }
+
+  /**
+   * Return a cursor decoding the documents in which this token occurs
+   */
+  public PostingsCursor postings() {
+    return PostingsCodec.cursor(codec, data, offset, numPostings, docRefs);
+  }
+
+}
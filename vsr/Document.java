@@ -29,15 +29,33 @@ public abstract class Document {
    * The hashtable where stopwords are indexed
    */
   protected static HashSet<String> stopWords = null;
+  /**
+   * The stopwords as char arrays in an open-addressing hashtable whose size is
+   * a power of 2, so that a token can be checked without making a String of it
+   */
+  protected static char[][] stopWordTable = null;
   /**
    * The Porter stemmer
    */
   protected static Porter stemmer = new Porter();
+  /**
+   * The cache of stems of tokens shared by all documents, or null to stem
+   * every token
+   */
+  public static StemCache stemCache = new StemCache(stemmer);
+  /**
+   * The dictionary giving the ids of tokens
+   */
+  protected static final TermDictionary dictionary = TermDictionary.global;
 
   /**
    * The next token in the document
    */
   protected String nextToken = null;
+  /**
+   * The term id of the next token in the document, or -1 if there is none
+   */
+  protected int nextTermId = -1;
   /**
    * The number of tokens currently read from document
    */
@@ -46,6 +64,18 @@ public abstract class Document {
    * Whether to stem tokens with the Porter stemmer
    */
   protected boolean stem = false;
+  /**
+   * Whether the document is a query, whose tokens are only looked up in the
+   * dictionary rather than added to it, since the dictionary never removes
+   * terms.  A query token not in the dictionary occurs in no indexed document,
+   * so it is dropped.
+   */
+  protected boolean query = false;
+  /**
+   * The scanner for the characters of the document, if the subclass provides
+   * them as a stream of characters rather than by getNextCandidateToken
+   */
+  protected TokenScanner scanner = null;
 
   /**
    * Creates a new Document making sure that the stopwords
@@ -82,30 +112,147 @@ public abstract class Document {
   }
 
   /**
-   * The nextToken slot is always precomputed and stored by this method.
+   * Returns the term id of the next token in the document or -1 if there are none
+   *
+   * @see TermDictionary
+   */
+  public int nextTermId() {
+    int termId = nextTermId;
+    if (nextToken == null) return -1;
+    prepareNextToken();
+    numTokens++;
+    return termId;
+  }
+
+  /**
+   * The nextToken and nextTermId slots are always precomputed and stored by this method.
    * Performs stop-word removal of candidate tokens.
    */
   protected void prepareNextToken() {
+    if (scanner != null) {
+      prepareNextScannedToken();
+      return;
+    }
     // Loop until a non-stopword token is found
     do {
       nextToken = getNextCandidateToken();
-      if (nextToken == null) return; // reached end of document
-      // Normalize token string case to lower case.
-      nextToken = nextToken.toLowerCase();
-      // Do not include a token found in the stopword list as
-      // indexed in the stopwords hashtable.
-      // Also do not include tokens that are not all Unicode letters
-      if (stopWords.contains(nextToken) || !allLetters(nextToken))
-        nextToken = null;
-      else if (stem) {
-        nextToken = stemmer.stripAffixes(nextToken);
-        if (stopWords.contains(nextToken))
-          nextToken = null;
+      if (nextToken == null) {
+        // Reached end of document
+        nextTermId = -1;
+        return;
       }
+      nextToken = filterToken(nextToken);
+      if (nextToken != null)
+        lookUpNextToken();
     }
     while (nextToken == null);
   }
 
+  /**
+   * Set nextTermId to the term id of nextToken, adding it to the dictionary
+   * unless this is a query, or drop nextToken if it is a query token not in the
+   * dictionary.
+   */
+  protected void lookUpNextToken() {
+    nextTermId = query ? dictionary.lookup(nextToken) : dictionary.id(nextToken);
+    if (nextTermId < 0)
+      nextToken = null;
+  }
+
+  /**
+   * Normalize a candidate token and perform stop-word removal on it.
+   *
+   * @return The normalized token, or null if it should not be included.
+   */
+  protected String filterToken(String token) {
+    // Normalize token string case to lower case.
+    token = token.toLowerCase();
+    // Do not include a token found in the stopword list as
+    // indexed in the stopwords hashtable.
+    // Also do not include tokens that are not all Unicode letters
+    if (stopWords.contains(token) || !allLetters(token))
+      return null;
+    else if (stem) {
+      token = stemmer.stripAffixes(token);
+      if (stopWords.contains(token))
+        return null;
+    }
+    return token;
+  }
+
+  /**
+   * Precompute the nextToken and nextTermId slots from the scanner.  Candidate
+   * tokens of ASCII characters are checked for non-letters, lowercased in place
+   * and looked up in the stopword table and the term dictionary in the scanner's
+   * buffer, so a String is only made for a token never seen before.  Tokens to be
+   * stemmed are looked up in the stem cache, so a String is only made for a stem
+   * not already cached.  The few tokens with other characters are left to
+   * filterToken, whose String methods handle all of Unicode.  The tokens of a
+   * query are only looked up in the dictionary, never added to it.
+   */
+  protected void prepareNextScannedToken() {
+    try {
+      do {
+        if (!scanner.next()) {
+          // Reached end of document
+          nextToken = null;
+          nextTermId = -1;
+          scanner.close();
+          return;
+        }
+        if (!scanner.isAscii())
+          nextToken = filterToken(scanner.tokenString());
+        else if (!scanner.isAllLetters())
+          nextToken = null;
+        else {
+          // Normalize token case to lower case in place
+          char[] token = scanner.token();
+          int length = scanner.length();
+          for (int i = 0; i < length; i++) {
+            char c = token[i];
+            if (c >= 'A' && c <= 'Z')
+              token[i] = (char) (c + ('a' - 'A'));
+          }
+          if (isStopWord(token, length))
+            nextToken = null;
+          else if (!stem) {
+            // Look up the token in the dictionary, which holds its String
+            nextTermId = query ? dictionary.lookup(token, length) : dictionary.id(token, length);
+            if (nextTermId >= 0) {
+              nextToken = dictionary.term(nextTermId);
+              return;
+            }
+            // A query token not in the dictionary matches nothing
+            nextToken = null;
+          } else {
+            // Stem the token from the cache, or in place in the scanner's buffer
+            StemCache cache = stemCache;
+            if (cache != null)
+              nextToken = cache.stem(token, length);
+            else
+              nextToken = new String(token, 0, stemmer.stem(token, length));
+            if (stopWords.contains(nextToken))
+              nextToken = null;
+          }
+        }
+        if (nextToken != null)
+          lookUpNextToken();
+      }
+      while (nextToken == null);
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not read from " + source());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Return a description of where the document comes from, for error messages
+   */
+  protected String source() {
+    return getClass().getSimpleName();
+  }
+
   /**
    * Check if this token consists of all Unicode letters to eliminate
    * other bizarre tokens
@@ -119,10 +266,21 @@ public abstract class Document {
   }
 
   /**
-   * Return the next possible token in the document. Each subclass must implement
-   * this method to produce candidate tokens for subsequent stop-word filtering.
+   * Return the next possible token in the document. Each subclass must either
+   * implement this method to produce candidate tokens for subsequent stop-word
+   * filtering, or set the scanner, in which case this returns the scanner's tokens.
    */
-  protected abstract String getNextCandidateToken();
+  protected String getNextCandidateToken() {
+    try {
+      if (scanner != null && scanner.next())
+        return scanner.tokenString();
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not read from " + source());
+      System.exit(1);
+    }
+    return null;
+  }
 
   /**
    * Returns the total number of tokens in the document or -1 if
@@ -143,7 +301,7 @@ public abstract class Document {
     // stopwords in the file and a default 75% load factor with
     // 10 extra slots for spare room.
     int HashMapSize = (int) (numStopWords / 0.75 + 10);
-    stopWords = new HashSet<String>(HashMapSize);
+    HashSet<String> words = new HashSet<String>(HashMapSize);
     String line;
     try {
       // Open stopword file for reading
@@ -152,7 +310,7 @@ public abstract class Document {
       while ((line = in.readLine()) != null) {
         // Index word into the hashtable with
         // the default empty string as a "dummy" value.
-        stopWords.add(line);
+        words.add(line);
       }
       in.close();
     }
@@ -160,14 +318,56 @@ public abstract class Document {
       System.out.println("\nCould not load stopwords file: " + stopWordsFile);
       System.exit(1);
     }
+    // Index the stopwords as char arrays too, keeping the table at most half full
+    char[][] table = new char[Integer.highestOneBit(words.size() * 2) * 2][];
+    for (String stopWord : words) {
+      char[] chars = stopWord.toCharArray();
+      int slot = hash(chars, chars.length) & (table.length - 1);
+      while (table[slot] != null)
+        slot = (slot + 1) & (table.length - 1);
+      table[slot] = chars;
+    }
+    stopWordTable = table;
+    // Set stopWords last since it shows that the stopwords are loaded
+    stopWords = words;
+  }
+
+  /**
+   * Return true if the first length chars of the array are a stopword
+   */
+  protected static boolean isStopWord(char[] chars, int length) {
+    int slot = hash(chars, length) & (stopWordTable.length - 1);
+    // Probe successive slots until the word or an empty slot is found
+    for (char[] stopWord = stopWordTable[slot]; stopWord != null; stopWord = stopWordTable[slot]) {
+      if (stopWord.length == length) {
+        int i = 0;
+        while (i < length && stopWord[i] == chars[i])
+          i++;
+        if (i == length)
+          return true;
+      }
+      slot = (slot + 1) & (stopWordTable.length - 1);
+    }
+    return false;
+  }
+
+  /**
+   * Return a hash code for the first length chars of the array, spread so that
+   * its low bits are well mixed
+   */
+  protected static int hash(char[] chars, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++)
+      hash = 31 * hash + chars[i];
+    return hash ^ (hash >>> 16);
   }
 
   /**
    * Returns a hashmap version of the term-vector (bag of words) for this
-   * document, where each token is a key whose value is the number of times
-   * it occurs in the document as stored in a Weight.
+   * document, where the term id of each token is a key whose value is the
+   * number of times it occurs in the document.
    *
-   * @see Weight
+   * @see TermDictionary
    */
   public HashMapVector hashMapVector() {
     if (numTokens != 0)
@@ -175,8 +375,7 @@ public abstract class Document {
     HashMapVector vector = new HashMapVector();
     // Process each token in the document and add it to the vector
     while (hasMoreTokens()) {
-      String token = nextToken();
-      vector.increment(token);
+      vector.increment(nextTermId(), 1.0);
     }
     return vector;
   }
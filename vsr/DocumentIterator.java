@@ -87,6 +87,18 @@ public class DocumentIterator {
   public FileDocument nextDocument() {
     if (position >= files.length)
       return null;
+    FileDocument doc = documentAt(position);
+    // Reset position to the next file
+    position++;
+    return doc;
+  }
+
+  /**
+   * Get the document at the given position in the directory listing without
+   * changing the position of the iterator.  Only reads the array of files, so
+   * several threads may call this at once for different positions.
+   */
+  public FileDocument documentAt(int position) {
     FileDocument doc = null;
     // Create the correct type of FileDocument based on docType
     switch (docType) {
@@ -97,11 +109,19 @@ public class DocumentIterator {
         doc = new HTMLFileDocument(files[position], stem);
         break;
     }
-    // Reset position to the next file
-    position++;
     return doc;
   }
 
+  /**
+   * Returns the total number of documents in this directory
+   */
+  public int numberOfDocuments() {
+    if (files == null)
+      return 0;
+    else
+      return files.length;
+  }
+
   /**
    * Returns true iff there are more documents in this directory
    */
@@ -20,6 +20,16 @@ public class DocumentReference {
    * The length of the corresponding Document vector.
    */
   public double length = 0.0;
+  /**
+   * The number of the document in the inverted index, which is its position
+   * in the index's list of documents, or -1 if it is not indexed.
+   */
+  public int id = -1;
+  /**
+   * Whether the document has been deleted from the inverted index.  A deleted
+   * document keeps its place, and so its id, in the index's list of documents.
+   */
+  public boolean deleted = false;
 
   public DocumentReference(File file, double length) {
     this.file = file;
@@ -10,6 +10,11 @@ import ir.utilities.*;
  * Gets and stores information about relevance feedback from the user and computes
  * an updated query based on original query and retrieved documents that are
  * rated relevant and irrelevant.
+ * <p/>
+ * For pseudo-relevance feedback, which needs no user, the top retrievals are
+ * taken as relevant and the revised query is cut down to the original tokens
+ * plus a few of the best expansion tokens, so that running it costs little more
+ * than running the original query (see expandQuery).
  *
  * @author Ray Mooney
  */
@@ -28,6 +33,19 @@ public class Feedback {
    * A Rochio/Ide algorithm parameter
    */
   public static double GAMMA = 1;
+  /**
+   * The number of top retrievals taken as relevant in pseudo-relevance feedback
+   */
+  public static int PSEUDO_DOCS = 10;
+  /**
+   * The maximum number of tokens added to a query by pseudo-relevance feedback
+   */
+  public static int EXPANSION_TOKENS = 20;
+  /**
+   * The maximum total number of postings of the tokens added to a query by
+   * pseudo-relevance feedback, which bounds the extra work of running it
+   */
+  public static int EXPANSION_POSTINGS = 20000;
 
   /**
    * The original query vector for this query
@@ -73,6 +91,17 @@ public class Feedback {
     badDocRefs.add(docRef);
   }
 
+  /**
+   * Add the top ranked retrievals, up to the given number, to the list of
+   * those deemed relevant
+   */
+  public void addTopRetrievals(int numDocs) {
+    for (int i = 0; i < Math.min(numDocs, retrievals.length); i++) {
+      if (!goodDocRefs.contains(retrievals[i].docRef))
+        goodDocRefs.add(retrievals[i].docRef);
+    }
+  }
+
   /**
    * Has the user rated any documents yet?
    */
@@ -124,8 +153,7 @@ public class Feedback {
     // Add in the vector for each of the positively rated documents
     for (DocumentReference docRef : goodDocRefs) {
       // Get the document vector for this positive document
-      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
-      HashMapVector vector = doc.hashMapVector();
+      HashMapVector vector = invertedIndex.documentVector(docRef);
       // Multiply positive docs by beta and normalize by max token frequency
       vector.multiply(BETA / vector.maxWeight());
       // Add it to the new query vector
@@ -134,8 +162,7 @@ public class Feedback {
     // Subtract the vector for each of the negatively rated documents
     for (DocumentReference docRef : badDocRefs) {
       // Get the document vector for this negative document
-      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
-      HashMapVector vector = doc.hashMapVector();
+      HashMapVector vector = invertedIndex.documentVector(docRef);
       // Multiply negative docs by beta and normalize by max token frequency
       vector.multiply(GAMMA / vector.maxWeight());
       // Subtract it from the new query vector
@@ -144,5 +171,74 @@ public class Feedback {
     return newQuery;
   }
 
+  /**
+   * Use the Ide_regular algorithm to compute a new revised query, but keep only
+   * the tokens of the original query and the best of the tokens it adds, those
+   * with the highest weight times idf.  Tokens are added in that order while
+   * there are fewer than maxTokens of them and the total number of their
+   * postings is at most maxPostings, since retrieval time grows with it.
+   *
+   * @param maxTokens   The maximum number of tokens to add to the query.
+   * @param maxPostings The maximum total number of postings of the added tokens.
+   * @return The revised query vector.
+   */
+  public HashMapVector newQuery(int maxTokens, int maxPostings) {
+    HashMapVector fullQuery = newQuery();
+    HashMapVector newQuery = new HashMapVector();
+    // The positions in the full query of candidate expansion tokens, and the weight
+    // each contributes to retrieval
+    List<Integer> candidates = new ArrayList<Integer>();
+    final double[] scores = new double[fullQuery.size()];
+    for (int i = 0; i < fullQuery.size(); i++) {
+      int termId = fullQuery.termId(i);
+      if (queryVector.getWeight(termId) != 0)
+        // Keep every token of the original query
+        newQuery.increment(termId, fullQuery.weight(i));
+      else if (fullQuery.weight(i) > 0) {
+        // Only positive tokens that are in the index can add to the score of a document
+        TokenInfo tokenInfo = invertedIndex.getTokenInfo(termId);
+        if (tokenInfo != null && tokenInfo.idf > 0) {
+          scores[i] = fullQuery.weight(i) * tokenInfo.idf;
+          candidates.add(i);
+        }
+      }
+    }
+    // Add the best candidates first
+    Collections.sort(candidates, new Comparator<Integer>() {
+      public int compare(Integer i, Integer j) {
+        return Double.compare(scores[j], scores[i]);
+      }
+    });
+    int numAdded = 0, numPostings = 0;
+    for (int i : candidates) {
+      if (numAdded >= maxTokens)
+        break;
+      TokenInfo tokenInfo = invertedIndex.getTokenInfo(fullQuery.termId(i));
+      // Skip tokens whose postings would go over budget; rarer ones may still fit
+      if (numPostings + tokenInfo.numOccurrences() > maxPostings)
+        continue;
+      numPostings += tokenInfo.numOccurrences();
+      numAdded++;
+      newQuery.increment(fullQuery.termId(i), fullQuery.weight(i));
+    }
+    return newQuery;
+  }
+
+  /**
+   * Expand a query by pseudo-relevance feedback: retrieve the top PSEUDO_DOCS
+   * documents for it, take them as relevant, and return the revised query with
+   * at most EXPANSION_TOKENS tokens added, of at most EXPANSION_POSTINGS postings
+   * in all.  The document vectors come from the index's forward index if it
+   * has one.  If nothing is retrieved, the query itself is returned.
+   */
+  public static HashMapVector expandQuery(HashMapVector queryVector, InvertedIndex invertedIndex) {
+    Retrieval[] retrievals = invertedIndex.retrieve(queryVector, PSEUDO_DOCS);
+    if (retrievals.length == 0)
+      return queryVector;
+    Feedback feedback = new Feedback(queryVector, retrievals, invertedIndex);
+    feedback.addTopRetrievals(PSEUDO_DOCS);
+    return feedback.newQuery(EXPANSION_TOKENS, EXPANSION_POSTINGS);
+  }
+
 
 }
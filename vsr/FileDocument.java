@@ -33,5 +33,12 @@ public abstract class FileDocument extends Document {
     }
   }
 
+  /**
+   * Return a description of where the document comes from, for error messages
+   */
+  protected String source() {
+    return getClass().getSimpleName() + ": " + file;
+  }
+
 }
 
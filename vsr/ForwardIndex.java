@@ -0,0 +1,166 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * A forward index: the term vector of each indexed document, by document id,
+ * stored as a SparseVector of term ids and counts.  An InvertedIndex keeps one
+ * so that relevance feedback, query expansion and finding similar documents can
+ * get a document's vector without reading and tokenizing its file again.
+ * <p/>
+ * The vectors are kept either in memory or in a file, which holds each vector
+ * as its number of tokens followed by their term ids and weights, with just
+ * the offset of each vector kept in memory.  Since term ids are only assigned
+ * for the life of the JVM (see TermDictionary), the file is a spill area for
+ * the current index rather than a format for saving it.
+ *
+ * @author Ray Mooney
+ */
+public class ForwardIndex {
+
+  /**
+   * The vectors by document id, if they are kept in memory
+   */
+  protected List<SparseVector> vectors = null;
+
+  /**
+   * The file holding the vectors, if they are kept on disk
+   */
+  protected RandomAccessFile file = null;
+
+  /**
+   * The offset in the file of the vector of each document id, followed by
+   * the end of the last vector
+   */
+  protected long[] offsets = null;
+
+  /**
+   * The number of documents in the forward index
+   */
+  protected int size = 0;
+
+  /**
+   * Create a forward index that keeps the vectors in memory.
+   */
+  public ForwardIndex() {
+    vectors = new ArrayList<SparseVector>();
+  }
+
+  /**
+   * Create a forward index that keeps the vectors in the given file, which is
+   * emptied first.
+   */
+  public ForwardIndex(File file) throws IOException {
+    this.file = new RandomAccessFile(file, "rw");
+    this.file.setLength(0);
+    offsets = new long[64];
+  }
+
+  /**
+   * Return true if the vectors are kept in a file rather than in memory
+   */
+  public boolean isOnDisk() {
+    return file != null;
+  }
+
+  /**
+   * Return the number of documents in the forward index
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Add the vector of the next document.  Documents must be added in order of id.
+   */
+  public void add(int docId, HashMapVector vector) {
+    add(docId, new SparseVector(vector));
+  }
+
+  /**
+   * Add the vector of the next document.  Documents must be added in order of id.
+   */
+  public synchronized void add(int docId, SparseVector vector) {
+    if (docId != size)
+      throw new IllegalArgumentException("Expected the vector of document " + size + ", not " + docId);
+    if (file == null) {
+      vectors.add(vector);
+      size++;
+      return;
+    }
+    // Append the vector to the file
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 12 * vector.size());
+    buffer.putInt(vector.size());
+    for (int i = 0; i < vector.size(); i++)
+      buffer.putInt(vector.termIds[i]);
+    for (int i = 0; i < vector.size(); i++)
+      buffer.putDouble(vector.weights[i]);
+    try {
+      file.seek(offsets[size]);
+      file.write(buffer.array());
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Could not write the vector of document " + docId, e);
+    }
+    if (size + 2 > offsets.length)
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    offsets[size + 1] = offsets[size] + buffer.capacity();
+    size++;
+  }
+
+  /**
+   * Return the vector of the document with the given id, or null if it is not
+   * in the forward index.
+   */
+  public synchronized SparseVector vector(int docId) {
+    if (docId < 0 || docId >= size)
+      return null;
+    if (file == null)
+      return vectors.get(docId);
+    byte[] bytes = new byte[(int) (offsets[docId + 1] - offsets[docId])];
+    try {
+      file.seek(offsets[docId]);
+      file.readFully(bytes);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Could not read the vector of document " + docId, e);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int numTokens = buffer.getInt();
+    int[] termIds = new int[numTokens];
+    double[] weights = new double[numTokens];
+    for (int i = 0; i < numTokens; i++)
+      termIds[i] = buffer.getInt();
+    for (int i = 0; i < numTokens; i++)
+      weights[i] = buffer.getDouble();
+    return new SparseVector(termIds, weights);
+  }
+
+  /**
+   * Remove all the vectors
+   */
+  public synchronized void clear() {
+    size = 0;
+    if (file == null)
+      vectors.clear();
+    else {
+      try {
+        file.setLength(0);
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Could not empty the forward index file", e);
+      }
+    }
+  }
+
+  /**
+   * Close the file of a forward index kept on disk
+   */
+  public synchronized void close() throws IOException {
+    if (file != null)
+      file.close();
+  }
+
+}
@@ -1,70 +1,9 @@
 package ir.vsr;
 
 import java.io.*;
-import java.util.*;
 import javax.swing.text.html.*;
-import javax.swing.text.html.parser.*;
 
-/**
- * A thread that parses an HTML file document and extracts plain text
- * from the title and the document body.  It feeds the
- * HTMLFileDocument reader with a stream of text free of HTML
- * commands.  It makes use of the Swing HTML parser which converts
- * HTML character entities into Java characters automatically.
- *
- * @author Yuk Wah Wong
- */
-class HTMLFileParserThread extends Thread {
-
-  /**
-   * The name of the HTML file
-   */
-  protected File file;
-  /**
-   * The I/O reader for accessing the HTML file
-   */
-  protected BufferedReader reader;
-  /**
-   * The I/O writer to which extracted plain text is written
-   */
-  protected PrintWriter writer;
-
-  /**
-   * Create an HTMLFileParserThread and initialize its reader and writer.
-   */
-  public HTMLFileParserThread(File file, BufferedReader reader, Writer writer) {
-    this.file = file;
-    this.reader = reader;
-    this.writer = new PrintWriter(writer);
-  }
-
-  /**
-   * Read the HTML file and parse it.  Extract plain text from the
-   * document and print it to the I/O writer.
-   */
-  public void run() {
-    try {
-      // the HTML parser callback ignores everything but the
-      // content of the document
-      HTMLEditorKit.ParserCallback callback =
-          new HTMLEditorKit.ParserCallback() {
-            public void handleText(char[] data, int pos) {
-              // print the text to the I/O writer
-              writer.println(data);
-            }
-          };
-      // entry point into the Swing HTML parser
-      new ParserDelegator().parse(reader, callback, true);
-      // close the I/O reader and writer when parsing is finished
-      reader.close();
-      writer.close();
-    } catch (IOException e) {
-      System.out.println("\nCould not read HTMLFileDocument: " + file);
-      System.exit(1);
-    }
-  }
-
-}
+import ir.webutils.*;
 
 /**
  * An HTML file document where HTML commands are removed
@@ -77,41 +16,22 @@ class HTMLFileParserThread extends Thread {
 public class HTMLFileDocument extends FileDocument {
 
   /**
-   * StringTokenizer delim for tokenizing only alphabetic strings.
+   * The delimiters for tokenizing only alphabetic strings, the same as
+   * TextFileDocument.tokenizerDelim, which TokenScanner uses for every document.
    */
-  public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+  public static final String tokenizerDelim = TextFileDocument.tokenizerDelim;
 
   /**
-   * The tokenizer for lines read from this document.
-   */
-  protected StringTokenizer tokenizer = null;
-
-  /**
-   * The I/O reader for accessing the output of the HTML parser.
-   */
-  protected BufferedReader textReader = null;
-
-  /**
-   * Create a new text document for the given file.
+   * Create a new text document for the given file.  The HTML file is parsed
+   * in this thread and its plain text extracted into memory before tokenizing it.
    */
   public HTMLFileDocument(File file, boolean stem) {
     super(file, stem);  // Create a FileDocument
     try {
-      // Create a new thread for parsing the HTML file.  The
-      // output stream of the thread is connected to textReader.
-      PipedWriter textWriter = new PipedWriter();
-      textReader = new BufferedReader(new PipedReader(textWriter));
-      HTMLFileParserThread thread = new HTMLFileParserThread(file, reader, textWriter);
-      // The thread parses the HTML file at the same time when
-      // its plain text output is read
-      thread.start();
-
-      // create a StringTokenizer for the first line of the
-      // plain text
-      String line = textReader.readLine();
-      if (line != null) {
-        this.tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
+      CharArrayWriter text = extractText(reader);
+      reader.close();
+      // Scan the tokens from the plain text
+      scanner = new TokenScanner(text.toCharArray());
       prepareNextToken();  // Prepare the first token
     }
     catch (IOException e) {
@@ -128,33 +48,24 @@ public class HTMLFileDocument extends FileDocument {
   }
 
   /**
-   * Return the next purely alpha-character token in the document, or null if none left.
+   * Parse HTML and extract plain text from the title and the document body,
+   * with each piece of text on its own line.  It makes use of FastHTMLParser,
+   * which converts HTML character entities into Java characters automatically.
    */
-  protected String getNextCandidateToken() {
-    if (tokenizer == null)
-      return null;
-    String candidateToken = null;
-    try {
-      // Loop until you find a line in the file with a token
-      while (!tokenizer.hasMoreTokens()) {
-        // Read another line of plain text
-        String line = textReader.readLine();
-        if (line == null) {
-          // End of file, no more tokens, return null
-          textReader.close();
-          return null;
-        } else
-          // Create a tokenizer for this file line
-          tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
-      // Get the next token in the current line
-      candidateToken = tokenizer.nextToken();
-    }
-    catch (IOException e) {
-      System.out.println("\nCould not read from HTMLFileDocument: " + file);
-      System.exit(1);
-    }
-    return candidateToken;
+  public static CharArrayWriter extractText(Reader reader) throws IOException {
+    final CharArrayWriter text = new CharArrayWriter();
+    // the HTML parser callback ignores everything but the
+    // content of the document
+    HTMLEditorKit.ParserCallback callback =
+        new HTMLEditorKit.ParserCallback() {
+          public void handleText(char[] data, int pos) {
+            text.write(data, 0, data.length);
+            text.write('\n');
+          }
+        };
+    // entry point into the HTML parser
+    new FastHTMLParser().parse(reader, callback, true);
+    return text;
   }
 
   /**
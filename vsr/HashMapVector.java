@@ -6,66 +6,281 @@ import ir.utilities.*;
 
 /**
  * A data structure for a term vector for a document stored
- * as a HashMap that maps tokens to Weight's that store the
- * weight of that token in the document.
+ * as a hashtable that maps the ids of tokens (see TermDictionary)
+ * to the weight of that token in the document.
  * <p/>
  * Needed as an efficient, indexed representation of sparse
- * document vectors.
+ * document vectors.  The term ids and weights are kept in parallel
+ * arrays in the order the tokens were added, with an open-addressing
+ * table of positions in them keyed on term id, so a vector can be
+ * looked up without hashing a String and iterated by position:
+ * <pre>
+ *   for (int i = 0; i < vector.size(); i++)
+ *     ... vector.termId(i) ... vector.weight(i) ...
+ * </pre>
+ * Tokens can still be given as Strings, which are looked up in the
+ * global TermDictionary.  The former public hashMap from tokens to
+ * Weights is gone; the deprecated entrySet() still gives a view of the
+ * vector as such a map's entries for older callers.
  *
  * @author Ray Mooney
  */
 
 public class HashMapVector {
   /**
-   * The HashMap that stores the mapping of tokens to Weights
+   * The dictionary giving the ids of tokens
    */
-  public Map<String, Weight> hashMap = new HashMap<String, Weight>();
+  protected static final TermDictionary dictionary = TermDictionary.global;
+
+  /**
+   * The term id of each token in the vector, in the order they were added
+   */
+  protected int[] termIds = new int[8];
+
+  /**
+   * The weight of each token in the vector, in the same order as termIds
+   */
+  protected double[] weights = new double[8];
+
+  /**
+   * The number of tokens in the vector
+   */
+  protected int size = 0;
+
+  /**
+   * The open-addressing hashtable of the tokens, holding one more than the
+   * position of each token in termIds, or 0 for an empty slot.  Its size is
+   * a power of 2 and it is kept at most half full.
+   */
+  protected int[] slots = new int[16];
+
+  /**
+   * The largest term id in the vector, or -1 if it is empty
+   */
+  protected int maxTermId = -1;
 
   /**
    * Returns the number of tokens in the vector.
    */
   public int size() {
-    return hashMap.size();
+    return size;
   }
 
   /**
    * Clears the vector back to all zeros
    */
   public void clear() {
-    hashMap.clear();
+    Arrays.fill(slots, 0);
+    size = 0;
+    maxTermId = -1;
+  }
+
+  /**
+   * Return the term id of the i'th token in the vector, for 0 <= i < size()
+   */
+  public int termId(int i) {
+    return termIds[i];
+  }
+
+  /**
+   * Return the weight of the i'th token in the vector, for 0 <= i < size()
+   */
+  public double weight(int i) {
+    return weights[i];
+  }
+
+  /**
+   * Return the i'th token in the vector, for 0 <= i < size()
+   */
+  public String term(int i) {
+    return dictionary.term(termIds[i]);
   }
 
   /**
-   * Returns the Set of MapEntries in the hashMap
+   * Returns the Set of entries mapping each token in the vector to its Weight,
+   * as the former hashMap of tokens to Weights did.  The set is a view of the
+   * vector: changing an entry's Weight changes the weight of the token in the
+   * vector, but tokens cannot be added or removed through it.  Each entry
+   * looks up its token in the TermDictionary, so iterate by position with
+   * termId(i) and weight(i) instead.
+   *
+   * @deprecated Iterate with size(), termId(i) or term(i), and weight(i).
    */
+  @Deprecated
   public Set<Map.Entry<String, Weight>> entrySet() {
-    return hashMap.entrySet();
+    return new AbstractSet<Map.Entry<String, Weight>>() {
+      public int size() {
+        return size;
+      }
+
+      public Iterator<Map.Entry<String, Weight>> iterator() {
+        return new Iterator<Map.Entry<String, Weight>>() {
+          // Position of the next token in termIds
+          int position = 0;
+
+          public boolean hasNext() {
+            return position < size;
+          }
+
+          public Map.Entry<String, Weight> next() {
+            if (position >= size)
+              throw new NoSuchElementException();
+            Map.Entry<String, Weight> entry =
+                new AbstractMap.SimpleImmutableEntry<String, Weight>(term(position), new WeightAt(position));
+            position++;
+            return entry;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * The Weight of the token at a position in the vector, reading and writing
+   * its weight in the vector itself (see entrySet)
+   */
+  protected class WeightAt extends Weight {
+    /**
+     * The position of the token in termIds
+     */
+    protected int position;
+
+    /**
+     * Create the Weight of the token at the given position
+     */
+    protected WeightAt(int position) {
+      this.position = position;
+    }
+
+    /**
+     * Increment the weight in the vector by 1 and return it
+     */
+    public double increment() {
+      return ++weights[position];
+    }
+
+    /**
+     * Increment the weight in the vector by n and return it
+     */
+    public double increment(int n) {
+      return weights[position] += n;
+    }
+
+    /**
+     * Increment the weight in the vector by n and return it
+     */
+    public double increment(double n) {
+      return weights[position] += n;
+    }
+
+    /**
+     * Decrement the weight in the vector by 1 and return it
+     */
+    public double decrement() {
+      return --weights[position];
+    }
+
+    /**
+     * Decrement the weight in the vector by n and return it
+     */
+    public double decrement(int n) {
+      return weights[position] -= n;
+    }
+
+    /**
+     * Decrement the weight in the vector by n and return it
+     */
+    public double decrement(double n) {
+      return weights[position] -= n;
+    }
+
+    /**
+     * Return the weight in the vector
+     */
+    public double getValue() {
+      return weights[position];
+    }
+
+    /**
+     * Set the weight in the vector
+     */
+    public double setValue(int value) {
+      return weights[position] = value;
+    }
+
+    /**
+     * Set the weight in the vector
+     */
+    public double setValue(double value) {
+      return weights[position] = value;
+    }
+  }
+
+  /**
+   * Increment the weight for the token with the given term id in the vector
+   * by the given amount.
+   */
+  public double increment(int termId, double amount) {
+    int mask = slots.length - 1;
+    int slot = slot(termId, mask);
+    // Probe successive slots until the token or an empty slot is found
+    for (int position = slots[slot]; position != 0; position = slots[slot]) {
+      if (termIds[position - 1] == termId) {
+        // Increment the weight of this token in the bag.
+        weights[position - 1] += amount;
+        return weights[position - 1];
+      }
+      slot = (slot + 1) & mask;
+    }
+    // If there is no current weight for this token, add one
+    if (size == termIds.length) {
+      termIds = Arrays.copyOf(termIds, size * 2);
+      weights = Arrays.copyOf(weights, size * 2);
+    }
+    termIds[size] = termId;
+    weights[size] = amount;
+    size++;
+    if (termId > maxTermId)
+      maxTermId = termId;
+    slots[slot] = size;
+    if (size * 2 > slots.length)
+      rehash(slots.length * 2);
+    return amount;
+  }
+
+  /**
+   * Return the weight of the token with the given term id in the vector
+   */
+  public double getWeight(int termId) {
+    int mask = slots.length - 1;
+    int slot = slot(termId, mask);
+    for (int position = slots[slot]; position != 0; position = slots[slot]) {
+      if (termIds[position - 1] == termId)
+        return weights[position - 1];
+      slot = (slot + 1) & mask;
+    }
+    return 0.0;
   }
 
   /**
    * Increment the weight for the given token in the vector by the given amount.
+   * The token is added to the global TermDictionary if it is new, which never
+   * removes it, so query tokens should be looked up with TermDictionary.lookup
+   * instead.
    */
   public double increment(String token, double amount) {
-    Weight weight = hashMap.get(token);
-    if (weight == null) {
-      // If there is no current Weight for this token, create one
-      weight = new Weight();
-      hashMap.put(token, weight);
-    }
-    // Increment the weight of this token in the bag.
-    weight.increment(amount);
-    return weight.getValue();
+    return increment(dictionary.id(token), amount);
   }
 
   /**
    * Return the weight of the given token in the vector
    */
   public double getWeight(String token) {
-    Weight weight = hashMap.get(token);
-    if (weight == null)
+    int termId = dictionary.lookup(token);
+    if (termId < 0)
       return 0.0;
     else
-      return weight.getValue();
+      return getWeight(termId);
   }
 
   /**
@@ -86,39 +301,24 @@ public class HashMapVector {
    * Destructively add the given vector to the current vector
    */
   public void add(HashMapVector vector) {
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      increment(token, weight);
-    }
+    for (int i = 0; i < vector.size; i++)
+      increment(vector.termIds[i], vector.weights[i]);
   }
 
   /**
    * Destructively add a scaled version of the given vector to the current vector
    */
   public void addScaled(HashMapVector vector, double scalingFactor) {
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      increment(token, scalingFactor * weight);
-    }
+    for (int i = 0; i < vector.size; i++)
+      increment(vector.termIds[i], scalingFactor * vector.weights[i]);
   }
 
   /**
    * Destructively subtract the given vector from the current vector
    */
   public void subtract(HashMapVector vector) {
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      increment(token, -weight);
-    }
+    for (int i = 0; i < vector.size; i++)
+      increment(vector.termIds[i], -vector.weights[i]);
   }
 
 
@@ -126,27 +326,21 @@ public class HashMapVector {
    * Destructively multiply the vector by a constant
    */
   public void multiply(double factor) {
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      Weight weight = entry.getValue();
-      weight.setValue(factor * weight.getValue());
-    }
+    for (int i = 0; i < size; i++)
+      weights[i] = factor * weights[i];
   }
 
 
   /**
-   * Produce a copy of this HashMapVector with a new HashMap and new
-   * Weight's
+   * Produce a copy of this HashMapVector with new arrays
    */
   public HashMapVector copy() {
     HashMapVector result = new HashMapVector();
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      result.increment(token, weight);
-    }
+    result.termIds = Arrays.copyOf(termIds, termIds.length);
+    result.weights = Arrays.copyOf(weights, weights.length);
+    result.slots = Arrays.copyOf(slots, slots.length);
+    result.size = size;
+    result.maxTermId = maxTermId;
     return result;
   }
 
@@ -155,11 +349,9 @@ public class HashMapVector {
    */
   public double maxWeight() {
     double maxWeight = Double.NEGATIVE_INFINITY;
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      if (weight > maxWeight)
-        maxWeight = weight;
+    for (int i = 0; i < size; i++) {
+      if (weights[i] > maxWeight)
+        maxWeight = weights[i];
     }
     return maxWeight;
   }
@@ -169,24 +361,18 @@ public class HashMapVector {
    * Print out the vector showing the tokens and their weights
    */
   public void print() {
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // Print the term and its weight, where the value of the map entry is a Weight
-      // and then you need to get the value of the Weight as the weight.
-      System.out.println(entry.getKey() + ":" + entry.getValue().getValue());
-    }
+    for (int i = 0; i < size; i++)
+      System.out.println(term(i) + ":" + weights[i]);
   }
 
   /**
    * Return String of the vector showing the tokens and their weights
    */
   public String toString() {
-    String ret = "";
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // Print the term and its weight, where the value of the map entry is a Weight
-      // and then you need to get the value of the Weight as the weight.
-      ret += entry.getKey() + ": " + entry.getValue().getValue() + " ";
-    }
-    return ret;
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < size; i++)
+      ret.append(term(i)).append(": ").append(weights[i]).append(" ");
+    return ret.toString();
   }
 
   /**
@@ -207,12 +393,9 @@ public class HashMapVector {
     // Stores running sum for dot product of two vectors
     double dotProd = 0;
     // iterate through elements in current vector
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      double otherWeight = otherVector.getWeight(token);
+    for (int i = 0; i < size; i++) {
+      double weight = weights[i];
+      double otherWeight = otherVector.getWeight(termIds[i]);
       // Update dot product sum and sum of squares
       dotProd += weight * otherWeight;
       sum += weight * weight;
@@ -222,22 +405,59 @@ public class HashMapVector {
   }
 
   /**
-   * Compute Euclidian length (sqrt of sum of squares) of vector
+   * Return the dot product of this vector and a dense vector of weights
+   * indexed by term id.  Tokens whose ids are past the end of the dense
+   * vector have no weight in it.
+   *
+   * @see VectorKernels#sparseDot
    */
-  public double length() {
-    // Stores running sum of squares
-    double sum = 0;
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      double weight = entry.getValue().getValue();
-      sum += weight * weight;
+  public double dot(double[] dense) {
+    if (maxTermId < dense.length)
+      return VectorKernels.kernels.sparseDot(termIds, weights, size, dense);
+    double dotProd = 0;
+    for (int i = 0; i < size; i++) {
+      if (termIds[i] < dense.length)
+        dotProd += weights[i] * dense[termIds[i]];
     }
-    return Math.sqrt(sum);
+    return dotProd;
   }
 
-}
-
+  /**
+   * Compute Euclidian length (sqrt of sum of squares) of vector
+   */
+  public double length() {
+    return Math.sqrt(VectorKernels.kernels.sumOfSquares(weights, size));
+  }
 
+  /**
+   * Return the approximate number of bytes of memory the vector uses
+   */
+  public long memoryBytes() {
+    // Object headers and fields of the vector and its three arrays, and the arrays' capacity
+    return 32 + 3 * 16 + 12L * termIds.length + 4L * slots.length;
+  }
 
+  /**
+   * Return the home slot of a term id in a table with the given mask, mixing
+   * its bits since ids are dense
+   */
+  protected static int slot(int termId, int mask) {
+    int hash = termId * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
 
+  /**
+   * Rebuild the hashtable of positions with the given number of slots
+   */
+  protected void rehash(int numSlots) {
+    slots = new int[numSlots];
+    int mask = numSlots - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = slot(termIds[i], mask);
+      while (slots[slot] != 0)
+        slot = (slot + 1) & mask;
+      slots[slot] = i + 1;
+    }
+  }
 
+}
@@ -0,0 +1,398 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Reads and writes an InvertedIndex in a versioned binary file so that a
+ * corpus only has to be tokenized and indexed once.
+ * <p/>
+ * The file starts with a fixed-size header: a magic number, the format
+ * version and the byte offset of the postings section.  It is followed by the
+ * metadata section: the docType, stemming flag and directory of the index, the
+ * PostingsCodec used for the postings, the table of indexed documents (file path
+ * and vector length, in docRefs order) and the token dictionary (token, IDF,
+ * number of occurrences and, unless the codec is RAW, the number of bytes of
+ * encoded postings, for each token).  The postings section comes last: for each
+ * token, in dictionary order, its TokenOccurrences encoded with the codec, where
+ * documents are numbered by their id, which is their position in the document
+ * table.  With the RAW codec each posting is a packed (document id, count) pair of ints.
+ * Since the postings are at known offsets, the postings section can be
+ * memory-mapped and read in place (see map).
+ * <p/>
+ * Version 1 files, which always used the RAW codec and did not record it, can still be read.
+ *
+ * @author Ray Mooney
+ */
+public class IndexFile {
+
+  /**
+   * The magic number at the start of every index file
+   */
+  public static final int MAGIC = 0x49525658;
+
+  /**
+   * The version of the file format written by this class
+   */
+  public static final int VERSION = 2;
+
+  /**
+   * The number of bytes in the header that precedes the metadata section
+   */
+  public static final int HEADER_SIZE = 16;
+
+  /**
+   * The number of bytes in a (document id, count) postings record
+   */
+  public static final int RECORD_SIZE = 8;
+
+  /**
+   * The token dictionary read from the metadata section of an index file
+   */
+  protected static class Dictionary {
+    /**
+     * The codec used for the postings
+     */
+    int codec = PostingsCodec.RAW;
+    /**
+     * The tokens in dictionary order
+     */
+    List<String> tokens = new ArrayList<String>();
+    /**
+     * The number of postings of each token
+     */
+    int[] numOccurrences;
+    /**
+     * The number of bytes of encoded postings of each token
+     */
+    int[] numBytes;
+  }
+
+  /**
+   * Write an inverted index to the given file with uncompressed postings.
+   */
+  public static void write(InvertedIndex index, File file) throws IOException {
+    write(index, file, PostingsCodec.RAW);
+  }
+
+  /**
+   * Write an inverted index to the given file, encoding the postings with the given codec.
+   *
+   * @see PostingsCodec
+   */
+  public static void write(InvertedIndex index, File file, int codec) throws IOException {
+    // Bring the IDF factors and document lengths up to date and drop the postings of deleted documents
+    index.updateStatistics();
+    // Deleted documents are left out of the file, so if there are any the remaining
+    // documents are renumbered in order, keeping the postings sorted
+    int[] fileIds = null;
+    if (index.numDocuments() < index.docRefs.size()) {
+      fileIds = new int[index.docRefs.size()];
+      int fileId = 0;
+      for (DocumentReference docRef : index.docRefs)
+        fileIds[docRef.id] = docRef.deleted ? -1 : fileId++;
+    }
+    // Write the metadata to memory first so its size, and therefore the
+    // offset of the postings, is known when the header is written
+    ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+    DataOutputStream meta = new DataOutputStream(metadata);
+    writeDocuments(meta, index, codec);
+    // Fix the order of the tokens for the dictionary and the postings
+    List<Map.Entry<String, TokenInfo>> tokens =
+        new ArrayList<Map.Entry<String, TokenInfo>>(index.tokenHash.entrySet());
+    meta.writeInt(tokens.size());
+    // Encode the postings of each token once, into a buffer reused from token
+    // to token, giving the size for its dictionary entry; the postings are
+    // collected in memory since they follow the whole dictionary in the file
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    ByteArrayOutputStream postings = new ByteArrayOutputStream();
+    for (Map.Entry<String, TokenInfo> entry : tokens) {
+      TokenInfo tokenInfo = entry.getValue();
+      encoded.reset();
+      PostingsCodec.encode(codec, tokenInfo, fileIds, encoded);
+      writeDictionaryEntry(meta, entry.getKey(), tokenInfo.idf, tokenInfo.numOccurrences(), encoded.size(), codec);
+      encoded.writeTo(postings);
+    }
+    meta.close();
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(HEADER_SIZE + metadata.size());
+      metadata.writeTo(out);
+      postings.writeTo(out);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Write an index file from parts prepared separately, as by an indexer that
+   * does not hold the postings in memory: the documents of the index, and the
+   * token dictionary and postings, already written to their own files in this
+   * format (see writeDictionaryEntry and PostingsCodec.encode).
+   *
+   * @param index          The index whose documents, with their final lengths, are written.
+   * @param codec          The codec used to encode the postings.
+   * @param numTokens      The number of entries in the dictionary.
+   * @param dictionaryFile The file holding the dictionary entries.
+   * @param postingsFile   The file holding the encoded postings in dictionary order.
+   */
+  public static void assemble(File file, InvertedIndex index, int codec, int numTokens,
+                              File dictionaryFile, File postingsFile) throws IOException {
+    ByteArrayOutputStream documents = new ByteArrayOutputStream();
+    DataOutputStream meta = new DataOutputStream(documents);
+    writeDocuments(meta, index, codec);
+    meta.writeInt(numTokens);
+    meta.close();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(HEADER_SIZE + documents.size() + dictionaryFile.length());
+      documents.writeTo(out);
+      copy(dictionaryFile, out);
+      copy(postingsFile, out);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Write the part of the metadata section before the token dictionary: the
+   * settings of the index, the codec and the table of documents that are not deleted.
+   */
+  protected static void writeDocuments(DataOutputStream meta, InvertedIndex index, int codec) throws IOException {
+    meta.writeShort(index.docType);
+    meta.writeBoolean(index.stem);
+    meta.writeUTF(index.dirFile == null ? "" : index.dirFile.getPath());
+    meta.writeByte(codec);
+    meta.writeInt(index.numDocuments());
+    for (DocumentReference docRef : index.docRefs) {
+      if (!docRef.deleted) {
+        meta.writeUTF(docRef.file.getPath());
+        meta.writeDouble(docRef.length);
+      }
+    }
+  }
+
+  /**
+   * Write the dictionary entry of a token.
+   *
+   * @param numOccurrences The number of postings of the token.
+   * @param numBytes       The number of bytes of its encoded postings, not written for the RAW codec.
+   */
+  public static void writeDictionaryEntry(DataOutputStream out, String token, double idf, int numOccurrences,
+                                          int numBytes, int codec) throws IOException {
+    out.writeUTF(token);
+    out.writeDouble(idf);
+    out.writeInt(numOccurrences);
+    if (codec != PostingsCodec.RAW)
+      out.writeInt(numBytes);
+  }
+
+  /**
+   * Copy the contents of a file to a stream.
+   */
+  protected static void copy(File file, OutputStream out) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[1 << 16];
+      int numRead;
+      while ((numRead = in.read(buffer)) > 0)
+        out.write(buffer, 0, numRead);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Read an inverted index from the given file into memory, decoding any
+   * compressed postings into TokenOccurrences.
+   */
+  public static InvertedIndex read(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    try {
+      InvertedIndex index = new InvertedIndex();
+      int version = readHeader(in, file);
+      in.readLong();  // The offset of the postings is not needed for a sequential read
+      Dictionary dictionary = readMetadata(in, version, index);
+      for (int i = 0; i < dictionary.tokens.size(); i++) {
+        List<TokenOccurrence> occList = index.getTokenInfo(dictionary.tokens.get(i)).occList;
+        int numOccurrences = dictionary.numOccurrences[i];
+        if (dictionary.codec == PostingsCodec.RAW) {
+          for (int j = 0; j < numOccurrences; j++) {
+            DocumentReference docRef = index.docRefs.get(in.readInt());
+            occList.add(new TokenOccurrence(docRef, in.readInt()));
+          }
+        } else {
+          // Read the encoded postings of this token and decode them
+          byte[] bytes = new byte[dictionary.numBytes[i]];
+          in.readFully(bytes);
+          PostingsCursor postings = PostingsCodec.cursor(dictionary.codec, ByteBuffer.wrap(bytes), 0,
+              numOccurrences, index.docRefs);
+          while (postings.next())
+            occList.add(new TokenOccurrence(postings.docRef(), postings.count()));
+        }
+      }
+      return index;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Read an inverted index from the given file, reading only its documents and
+   * token dictionary into memory and memory-mapping its postings.  The resulting
+   * index is read-only: its tokenInfos hold MappedTokenInfo's, or CompressedTokenInfo's
+   * if the postings are compressed, whose postings are read directly from the file
+   * during retrieval.
+   *
+   * @see MappedPostings
+   */
+  public static InvertedIndex map(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    try {
+      InvertedIndex index = new InvertedIndex();
+      int version = readHeader(in, file);
+      long postingsStart = in.readLong();
+      Dictionary dictionary = readMetadata(in, version, index);
+      if (dictionary.codec == PostingsCodec.RAW)
+        mapRecords(file, postingsStart, dictionary, index);
+      else
+        mapCompressed(file, postingsStart, dictionary, index);
+      index.readOnly = true;
+      return index;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Map the uncompressed postings of an index file and replace each TokenInfo
+   * of the index with one for its range of the mapped records.
+   */
+  protected static void mapRecords(File file, long postingsStart, Dictionary dictionary,
+                                   InvertedIndex index) throws IOException {
+    long numRecords = 0;
+    for (int numOccurrences : dictionary.numOccurrences)
+      numRecords = numRecords + numOccurrences;
+    MappedPostings mappedPostings = new MappedPostings(file, postingsStart, numRecords, index.docRefs);
+    long firstRecord = 0;
+    for (int i = 0; i < dictionary.tokens.size(); i++) {
+      String token = dictionary.tokens.get(i);
+      double idf = index.getTokenInfo(token).idf;
+      int numOccurrences = dictionary.numOccurrences[i];
+      index.putTokenInfo(token, new MappedTokenInfo(idf, mappedPostings, firstRecord, numOccurrences));
+      firstRecord = firstRecord + numOccurrences;
+    }
+  }
+
+  /**
+   * Map the compressed postings of an index file and replace each TokenInfo of
+   * the index with a CompressedTokenInfo decoding its postings from the mapping.
+   * The postings are mapped in several buffers of at most 2GB, each holding the
+   * postings of whole tokens.
+   */
+  protected static void mapCompressed(File file, long postingsStart, Dictionary dictionary,
+                                      InvertedIndex index) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      int numTokens = dictionary.tokens.size();
+      // The offset in the file of the postings of the current token, and of
+      // the start of the current buffer
+      long tokenStart = postingsStart;
+      long bufferStart = postingsStart;
+      // The first token whose postings are in the current buffer
+      int firstToken = 0;
+      for (int i = 0; i <= numTokens; i++) {
+        // Map the current buffer before the token that would make it too large,
+        // or at the end of the postings
+        if (i == numTokens || tokenStart + dictionary.numBytes[i] - bufferStart > Integer.MAX_VALUE) {
+          ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bufferStart, tokenStart - bufferStart);
+          long offset = bufferStart;
+          for (int j = firstToken; j < i; j++) {
+            String token = dictionary.tokens.get(j);
+            double idf = index.getTokenInfo(token).idf;
+            index.putTokenInfo(token, new CompressedTokenInfo(idf, dictionary.codec, buffer,
+                (int) (offset - bufferStart), dictionary.numOccurrences[j], index.docRefs));
+            offset = offset + dictionary.numBytes[j];
+          }
+          bufferStart = tokenStart;
+          firstToken = i;
+        }
+        if (i < numTokens)
+          tokenStart = tokenStart + dictionary.numBytes[i];
+      }
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Read and check the header of an index file up to the offset of its postings section.
+   *
+   * @return The version of the file format.
+   */
+  protected static int readHeader(DataInputStream in, File file) throws IOException {
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not an index file: " + file);
+    int version = in.readInt();
+    if (version < 1 || version > VERSION)
+      throw new IOException("Unsupported index file version " + version + " in " + file);
+    return version;
+  }
+
+  /**
+   * Read the metadata section of an index file into the given empty index.
+   * The tokens are put in the index with their IDF's but without postings.
+   *
+   * @param version The version of the file format.
+   * @return The token dictionary, giving the size of the postings of each token.
+   */
+  protected static Dictionary readMetadata(DataInputStream in, int version,
+                                           InvertedIndex index) throws IOException {
+    Dictionary dictionary = new Dictionary();
+    index.docType = in.readShort();
+    index.stem = in.readBoolean();
+    String dirName = in.readUTF();
+    index.dirFile = dirName.equals("") ? null : new File(dirName);
+    if (version >= 2)
+      dictionary.codec = in.readByte();
+    int numDocs = in.readInt();
+    index.docRefs = new ArrayList<DocumentReference>(numDocs);
+    for (int i = 0; i < numDocs; i++) {
+      File docFile = new File(in.readUTF());
+      DocumentReference docRef = new DocumentReference(docFile, in.readDouble());
+      docRef.id = i;
+      index.docRefs.add(docRef);
+    }
+    int numTokens = in.readInt();
+    dictionary.numOccurrences = new int[numTokens];
+    dictionary.numBytes = new int[numTokens];
+    for (int i = 0; i < numTokens; i++) {
+      String token = in.readUTF();
+      TokenInfo tokenInfo = new TokenInfo();
+      tokenInfo.idf = in.readDouble();
+      dictionary.numOccurrences[i] = in.readInt();
+      if (dictionary.codec == PostingsCodec.RAW)
+        dictionary.numBytes[i] = dictionary.numOccurrences[i] * RECORD_SIZE;
+      else
+        dictionary.numBytes[i] = in.readInt();
+      index.putTokenInfo(token, tokenInfo);
+      dictionary.tokens.add(token);
+    }
+    return dictionary;
+  }
+
+}
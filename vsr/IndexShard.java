@@ -0,0 +1,46 @@
+package ir.vsr;
+
+/**
+ * One shard of a collection of documents split across several indexes, each
+ * holding a disjoint subset of the documents (see ShardedIndex).  A shard may be
+ * an index in the same process (LocalShard) or in another one (RemoteShard).
+ * <p/>
+ * For the scores of documents in different shards to be comparable, every shard
+ * must compute its IDF factors and document lengths from the statistics of the
+ * whole collection, and scale its scores by the length of the query in the
+ * whole collection rather than in the shard.
+ *
+ * @author Ray Mooney
+ */
+public abstract class IndexShard {
+
+  /**
+   * Return the statistics of the documents in this shard
+   */
+  public abstract CollectionStatistics statistics();
+
+  /**
+   * Compute IDF factors and document lengths from the statistics of the whole
+   * collection from now on.
+   */
+  public abstract void setCollectionStatistics(CollectionStatistics statistics);
+
+  /**
+   * Return the top k retrievals in this shard for a query vector, with their
+   * scores normalized by the given length of the query in the whole collection.
+   * The retrievals are ranked by score, and by document id in the shard for
+   * equal scores.  They are new Retrievals, which the caller may change.
+   *
+   * @param vector      The query vector.
+   * @param k           The maximum number of retrievals to return.
+   * @param queryLength The length of the query vector weighted by the IDF
+   *                    factors of the whole collection.
+   */
+  public abstract Retrieval[] retrieve(HashMapVector vector, int k, double queryLength);
+
+  /**
+   * Return the number of documents in this shard
+   */
+  public abstract int numDocuments();
+
+}
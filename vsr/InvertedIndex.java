@@ -2,7 +2,9 @@ package ir.vsr;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.lang.*;
+import java.nio.*;
 
 import ir.utilities.*;
 import ir.classifiers.*;
@@ -24,10 +26,26 @@ public class InvertedIndex {
   public static final int MAX_RETRIEVALS = 10;
 
   /**
-   * A HashMap where tokens are indexed. Each indexed token maps
-   * to a TokenInfo.
+   * The largest number of documents a worker tokenizes into one partial index
+   * when indexing with several threads
    */
-  public Map<String, TokenInfo> tokenHash = null;
+  public static final int MAX_CHUNK_SIZE = 1000;
+
+  /**
+   * The map where tokens are indexed, from the term id of each indexed token
+   * (see TermDictionary) to its TokenInfo, so that indexing and retrieval never
+   * hash a token String.
+   */
+  public final TermMap<TokenInfo> tokenInfos = new TermMap<TokenInfo>();
+
+  /**
+   * A read-only view of tokenInfos keyed by the String of each token, for
+   * looking up and listing tokens by String.  It is not a copy, so it costs no
+   * memory per token and always agrees with tokenInfos.
+   *
+   * @see TermMap#asTokenMap
+   */
+  public final Map<String, TokenInfo> tokenHash = tokenInfos.asTokenMap();
 
   /**
    * A list of all indexed documents.  Elements are DocumentReference's.
@@ -54,6 +72,142 @@ public class InvertedIndex {
    */
   public boolean feedback = false;
 
+  /**
+   * Whether queries are expanded by pseudo-relevance feedback before their
+   * retrievals are shown
+   *
+   * @see Feedback#expandQuery
+   */
+  public boolean pseudoFeedback = false;
+
+  /**
+   * The number of threads used to tokenize the documents in dirFile
+   */
+  public int numThreads = 1;
+
+  /**
+   * A ScoreAccumulator for each thread retrieving from this index, reused across queries
+   */
+  protected ThreadLocal<ScoreAccumulator> accumulators = new ThreadLocal<ScoreAccumulator>();
+
+  /**
+   * Whether top k retrieval skips documents that cannot make the top k
+   * without scoring them (see retrievePruned)
+   */
+  public boolean prune = true;
+
+  /**
+   * The cache of the retrievals for recent queries, or null to compute every
+   * ranking.  It is cleared whenever documents are added or deleted.
+   */
+  public QueryCache queryCache = null;
+
+  /**
+   * The relative error allowed for when comparing an upper bound on the score of
+   * a document to the score it must beat, since the bound is summed in a different
+   * order than the score and so may be rounded differently
+   */
+  public static final double BOUND_SLACK = 1e-9;
+
+  /**
+   * The most postings retrieveBatch reads into memory at once for the tokens
+   * that queries in a batch share
+   */
+  public static final int MAX_BATCH_POSTINGS = 1 << 22;
+
+  /**
+   * The pool of threads that score a heavy query in parallel, each taking a
+   * range of document ids (see rankInParallel), or null to score every query
+   * on the calling thread
+   */
+  public ForkJoinPool scoringPool = null;
+
+  /**
+   * The least total number of postings of the tokens of a query for top k
+   * retrieval to score it in parallel, if there is a scoringPool and its
+   * postings are not compressed (see canSkipPostings)
+   */
+  public int minParallelPostings = 50000;
+
+  /**
+   * Whether the postings of this index cannot be changed, as when they are
+   * compressed or memory-mapped, so documents cannot be added or deleted
+   */
+  public boolean readOnly = false;
+
+  /**
+   * The vector of each indexed document by id, or null if they are not kept.
+   * Documents get their vectors from it instead of from their files.
+   *
+   * @see #documentVector
+   */
+  public ForwardIndex forwardIndex = null;
+
+  /**
+   * The statistics of the whole collection, when this index holds just one
+   * shard of it, which the IDF factors are computed from instead of from the
+   * documents in this index (see ShardedIndex), or null
+   */
+  public CollectionStatistics collectionStatistics = null;
+
+  /**
+   * The number of documents deleted from the index
+   */
+  protected int numDeleted = 0;
+
+  /**
+   * Whether documents have been deleted since their occurrences were last
+   * removed from the postings
+   */
+  protected boolean deletesPending = false;
+
+  /**
+   * Whether documents have been added or deleted since the IDF factors and
+   * document lengths were last computed
+   */
+  protected volatile boolean statisticsStale = false;
+
+  /**
+   * The first document not deleted stored in each file, among the first
+   * numFilesMapped documents in docRefs, or null until a document is first
+   * deleted by its file
+   */
+  protected Map<File, DocumentReference> docRefsByFile = null;
+
+  /**
+   * The number of documents in docRefs entered in docRefsByFile
+   */
+  protected int numFilesMapped = 0;
+
+  /**
+   * Whether more than one document not deleted was found stored in the same file
+   */
+  protected boolean duplicateFiles = false;
+
+  /**
+   * The postings of a token as encoded for the last snapshot, with the occList
+   * they were encoded from and its size then
+   */
+  protected static class SnapshotPostings {
+    /**
+     * The occList the postings were encoded from
+     */
+    List<TokenOccurrence> occList;
+    /**
+     * The number of occurrences encoded
+     */
+    int numPostings;
+    /**
+     * The encoded postings, which are never changed
+     */
+    ByteBuffer data;
+  }
+
+  /**
+   * The postings of each token by term id as encoded for the last snapshot
+   */
+  protected TermMap<SnapshotPostings> snapshotPostings = new TermMap<SnapshotPostings>();
+
   /**
    * Create an inverted index of the documents in a directory.
    *
@@ -63,13 +217,67 @@ public class InvertedIndex {
    * @param feedback Whether relevance feedback should be used.
    */
   public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback) {
+    this(dirFile, docType, stem, feedback, 1);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory using several
+   * threads to tokenize the documents.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback   Whether relevance feedback should be used, in which case
+   *                   the document vectors are kept in memory for it.
+   * @param numThreads The number of indexing threads, 1 to index serially.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads) {
+    this(dirFile, docType, stem, feedback, numThreads, feedback ? new ForwardIndex() : null);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory using several
+   * threads to tokenize the documents, keeping the vector of each document
+   * in the given forward index.
+   *
+   * @param dirFile      The directory of files to index.
+   * @param docType      The type of documents to index (See docType in DocumentIterator)
+   * @param stem         Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback     Whether relevance feedback should be used.
+   * @param numThreads   The number of indexing threads, 1 to index serially.
+   * @param forwardIndex The empty forward index for the document vectors, or null
+   *                     not to keep them.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads,
+                       ForwardIndex forwardIndex) {
+    this(dirFile, docType, stem, feedback, numThreads, forwardIndex, null);
+  }
+
+  /**
+   * Create an inverted index of just the files in a directory accepted by a
+   * filter, as for one shard of a collection (see ShardedIndex).
+   *
+   * @param dirFile      The directory of files to index.
+   * @param docType      The type of documents to index (See docType in DocumentIterator)
+   * @param stem         Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback     Whether relevance feedback should be used.
+   * @param numThreads   The number of indexing threads, 1 to index serially.
+   * @param forwardIndex The empty forward index for the document vectors, or null
+   *                     not to keep them.
+   * @param filter       The filter picking the files to index, or null to index them all.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads,
+                       ForwardIndex forwardIndex, FilenameFilter filter) {
+    if (numThreads < 1)
+      throw new IllegalArgumentException("Number of indexing threads must be positive: " + numThreads);
     this.dirFile = dirFile;
     this.docType = docType;
     this.stem = stem;
     this.feedback = feedback;
-    tokenHash = new HashMap<String, TokenInfo>();
+    this.numThreads = numThreads;
+    this.forwardIndex = forwardIndex;
     docRefs = new ArrayList<DocumentReference>();
-    indexDocuments();
+    indexDocuments(filter);
   }
 
   /**
@@ -79,31 +287,41 @@ public class InvertedIndex {
    * @param examples A List containing the Example objects for text categorization to index
    */
   public InvertedIndex(List<Example> examples) {
-    tokenHash = new HashMap<String, TokenInfo>();
     docRefs = new ArrayList<DocumentReference>();
     indexDocuments(examples);
   }
 
+  /**
+   * Create an empty inverted index, e.g. to hold the partial index built by one
+   * indexing thread.
+   */
+  protected InvertedIndex() {
+    docRefs = new ArrayList<DocumentReference>();
+  }
+
 
   /**
    * Index the documents in dirFile.
    */
-  protected void indexDocuments() {
-    if (!tokenHash.isEmpty() || !docRefs.isEmpty()) {
+  protected void indexDocuments(FilenameFilter filter) {
+    if (tokenInfos.size() != 0 || !docRefs.isEmpty()) {
       // Currently can only index one set of documents when an index is created
       throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
     }
     // Get an iterator for the documents
-    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem);
+    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem, filter);
     System.out.println("Indexing documents in " + dirFile);
-    // Loop, processing each of the documents
-
-    while (docIter.hasMoreDocuments()) {
-      FileDocument doc = docIter.nextDocument();
-      // Create a document vector for this document
-      System.out.print(doc.file.getName() + ",");
-      HashMapVector vector = doc.hashMapVector();
-      indexDocument(doc, vector);
+    if (numThreads > 1)
+      indexDocumentsInParallel(docIter);
+    else {
+      // Loop, processing each of the documents
+      while (docIter.hasMoreDocuments()) {
+        FileDocument doc = docIter.nextDocument();
+        // Create a document vector for this document
+        System.out.print(doc.file.getName() + ",");
+        HashMapVector vector = doc.hashMapVector();
+        indexDocument(doc, vector);
+      }
     }
     // Now that all documents have been processed, we can calculate the IDF weights for
     // all tokens and the resulting lengths of all weighted document vectors.
@@ -112,11 +330,89 @@ public class InvertedIndex {
   }
 
 
+  /**
+   * Index all the documents of the iterator using numThreads worker threads.
+   * The documents are split into consecutive chunks and each chunk is tokenized
+   * by a worker into its own partial index.  The partial indexes are merged in
+   * chunk order, so docRefs and every occList end up in exactly the same order
+   * as when the documents are indexed serially.
+   */
+  protected void indexDocumentsInParallel(final DocumentIterator docIter) {
+    // Make sure the stopwords are loaded before several threads create Documents
+    if (Document.stopWords == null)
+      Document.loadStopWords();
+    int numDocs = docIter.numberOfDocuments();
+    // Use several chunks per thread so that a slow chunk does not hold up the others
+    int chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, numDocs / (4 * numThreads)));
+    ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+    try {
+      // Submit a task to build the partial index for each chunk
+      List<Future<InvertedIndex>> chunks = new ArrayList<Future<InvertedIndex>>();
+      for (int start = 0; start < numDocs; start = start + chunkSize) {
+        final int chunkStart = start;
+        final int chunkEnd = Math.min(numDocs, start + chunkSize);
+        chunks.add(workers.submit(new Callable<InvertedIndex>() {
+          public InvertedIndex call() {
+            return indexChunk(docIter, chunkStart, chunkEnd);
+          }
+        }));
+      }
+      // Merge the partial indexes in order, waiting for each chunk as needed
+      for (Future<InvertedIndex> chunk : chunks) {
+        InvertedIndex partial = chunk.get();
+        for (DocumentReference docRef : partial.docRefs) {
+          System.out.print(docRef.file.getName() + ",");
+          int chunkId = docRef.id;
+          // Renumber the document by its position in the merged index
+          docRef.id = docRefs.size();
+          docRefs.add(docRef);
+          if (forwardIndex != null)
+            forwardIndex.add(docRef.id, partial.forwardIndex.vector(chunkId));
+        }
+        for (int termId : partial.tokenInfos.termIds()) {
+          TokenInfo partialInfo = partial.tokenInfos.get(termId);
+          TokenInfo tokenInfo = tokenInfos.get(termId);
+          if (tokenInfo == null)
+            // First chunk with this token, so just take over its TokenInfo
+            putTokenInfo(termId, partialInfo);
+          else
+            tokenInfo.occList.addAll(partialInfo.occList);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while indexing documents in " + dirFile, e);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("Could not index documents in " + dirFile, e.getCause());
+    }
+    finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Tokenize the documents of the iterator from position start up to (not including)
+   * end into a partial index whose IDF's and document lengths are not yet computed.
+   */
+  protected InvertedIndex indexChunk(DocumentIterator docIter, int start, int end) {
+    InvertedIndex partial = new InvertedIndex();
+    if (forwardIndex != null)
+      // Keep the chunk's vectors until they are merged into the forward index
+      partial.forwardIndex = new ForwardIndex();
+    for (int position = start; position < end; position++) {
+      FileDocument doc = docIter.documentAt(position);
+      partial.indexDocument(doc, doc.hashMapVector());
+    }
+    return partial;
+  }
+
   /**
    * Index the documents in the List of Examples for text categorization.
    */
   public void indexDocuments(List<Example> examples) {
-    if (!tokenHash.isEmpty() || !docRefs.isEmpty()) {
+    if (tokenInfos.size() != 0 || !docRefs.isEmpty()) {
       // Currently can only index one set of documents when an index is created
       throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
     }
@@ -127,6 +423,7 @@ public class InvertedIndex {
       HashMapVector vector = example.getHashMapVector();
       indexDocument(doc, vector);
     }
+    invalidateQueryCache();
     // Now that all documents have been processed, we can calculate the IDF weights for
     // all tokens and the resulting lengths of all weighted document vectors.
     computeIDFandDocumentLengths();
@@ -139,16 +436,226 @@ public class InvertedIndex {
   protected void indexDocument(FileDocument doc, HashMapVector vector) {
     // Create a reference to this document
     DocumentReference docRef = new DocumentReference(doc);
-    // Add this document to the list of documents indexed
+    // Add this document to the list of documents indexed, using its
+    // position in the list as its id
+    docRef.id = docRefs.size();
     docRefs.add(docRef);
     // Iterate through each of the tokens in the document
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The count for the token is in the value of the Weight
-      int count = (int) entry.getValue().getValue();
+    for (int i = 0; i < vector.size(); i++) {
+      // The count for the token is its weight in the vector
+      int count = (int) vector.weight(i);
       // Add an occurrence of this token to the inverted index pointing to this document
-      indexToken(token, count, docRef);
+      indexToken(vector.termId(i), count, docRef);
+    }
+    if (forwardIndex != null)
+      forwardIndex.add(docRef.id, vector);
+  }
+
+  /**
+   * Return a new vector of the token counts of an indexed document, from the
+   * forward index if there is one, or else by reading and tokenizing the
+   * document's file again.
+   */
+  public HashMapVector documentVector(DocumentReference docRef) {
+    ForwardIndex forwardIndex = this.forwardIndex;
+    if (forwardIndex != null) {
+      SparseVector vector = forwardIndex.vector(docRef.id);
+      if (vector != null)
+        return vector.hashMapVector();
+    }
+    return docRef.getDocument(docType, stem).hashMapVector();
+  }
+
+  /**
+   * Fill a forward index with the vector of every indexed document, inverting
+   * the postings so that no document is read again, and use it for this index.
+   * This gives an index that was loaded from a file a forward index.  The
+   * vectors of deleted documents are empty.
+   *
+   * @param forwardIndex An empty forward index.
+   */
+  public synchronized void buildForwardIndex(ForwardIndex forwardIndex) {
+    updateStatistics();
+    // Go through the tokens in order of term id, so each document's ids come out sorted
+    int[] termIds = tokenInfos.termIds();
+    Arrays.sort(termIds);
+    // First count the tokens of each document, then fill in its vector
+    int[] numTokens = new int[docRefs.size()];
+    for (int termId : termIds) {
+      PostingsCursor postings = tokenInfos.get(termId).postings();
+      while (postings.next())
+        numTokens[postings.docId()]++;
+    }
+    int[][] docTermIds = new int[docRefs.size()][];
+    double[][] docWeights = new double[docRefs.size()][];
+    for (int id = 0; id < docRefs.size(); id++) {
+      docTermIds[id] = new int[numTokens[id]];
+      docWeights[id] = new double[numTokens[id]];
+      numTokens[id] = 0;
+    }
+    for (int termId : termIds) {
+      PostingsCursor postings = tokenInfos.get(termId).postings();
+      while (postings.next()) {
+        int id = postings.docId();
+        docTermIds[id][numTokens[id]] = termId;
+        docWeights[id][numTokens[id]++] = postings.count();
+      }
+    }
+    for (int id = 0; id < docRefs.size(); id++)
+      forwardIndex.add(id, new SparseVector(docTermIds[id], docWeights[id]));
+    this.forwardIndex = forwardIndex;
+  }
+
+  /**
+   * Return the top k documents most similar to an indexed document, using its
+   * vector as the query and leaving the document itself out.
+   */
+  public Retrieval[] similarDocuments(DocumentReference docRef, int k) {
+    Retrieval[] retrievals = retrieve(documentVector(docRef), k + 1);
+    List<Retrieval> similar = new ArrayList<Retrieval>(k);
+    for (Retrieval retrieval : retrievals) {
+      if (retrieval.docRef != docRef && similar.size() < k)
+        similar.add(retrieval);
+    }
+    return similar.toArray(new Retrieval[similar.size()]);
+  }
+
+  /**
+   * Add a document to the index after it has been built.  The document is
+   * tokenized and its tokens indexed right away, but the IDF factors and
+   * document lengths, which depend on every document, are only recomputed from
+   * the postings when next needed (see updateStatistics), so a batch of changes
+   * is paid for once and no other document is tokenized again.
+   *
+   * @return The reference to the added document.
+   */
+  public synchronized DocumentReference addDocument(FileDocument doc) {
+    checkWritable();
+    indexDocument(doc, doc.hashMapVector());
+    statisticsStale = true;
+    invalidateQueryCache();
+    return docRefs.get(docRefs.size() - 1);
+  }
+
+  /**
+   * Add the document in the given file to the index, reading it as this
+   * index's docType (see addDocument(FileDocument)).
+   *
+   * @return The reference to the added document.
+   */
+  public DocumentReference addDocument(File file) {
+    FileDocument doc;
+    if (docType == DocumentIterator.TYPE_HTML)
+      doc = new HTMLFileDocument(file, stem);
+    else
+      doc = new TextFileDocument(file, stem);
+    return addDocument(doc);
+  }
+
+  /**
+   * Delete a document from the index.  The document is only marked as deleted;
+   * its occurrences are removed from the postings, and the IDF factors and
+   * document lengths recomputed, when next needed (see updateStatistics).
+   *
+   * @return false if the document was already deleted.
+   */
+  public synchronized boolean deleteDocument(DocumentReference docRef) {
+    checkWritable();
+    if (docRef.deleted)
+      return false;
+    docRef.deleted = true;
+    unmapFile(docRef);
+    numDeleted++;
+    deletesPending = true;
+    statisticsStale = true;
+    invalidateQueryCache();
+    return true;
+  }
+
+  /**
+   * Clear the cache of query retrievals, if any, since the documents have changed
+   */
+  protected void invalidateQueryCache() {
+    QueryCache queryCache = this.queryCache;
+    if (queryCache != null)
+      queryCache.clear();
+  }
+
+  /**
+   * Delete the indexed document stored in the given file, if any (see
+   * deleteDocument(DocumentReference)).  Finds the document in a map from files
+   * to documents, which is built the first time and then only has the documents
+   * added since entered in it.
+   *
+   * @return false if no document in the index is stored in the file.
+   */
+  public synchronized boolean deleteDocument(File file) {
+    mapFiles();
+    DocumentReference docRef = docRefsByFile.get(file);
+    return docRef != null && deleteDocument(docRef);
+  }
+
+  /**
+   * Enter the documents not deleted that were added since the last call in
+   * docRefsByFile, creating it the first time.  The documents may be added by
+   * indexing or by loading an index file, so they are caught up with here
+   * rather than as they are added.
+   */
+  protected void mapFiles() {
+    if (docRefsByFile == null)
+      docRefsByFile = new HashMap<File, DocumentReference>();
+    for (; numFilesMapped < docRefs.size(); numFilesMapped++) {
+      DocumentReference docRef = docRefs.get(numFilesMapped);
+      if (!docRef.deleted && docRefsByFile.putIfAbsent(docRef.file, docRef) != null)
+        duplicateFiles = true;
+    }
+  }
+
+  /**
+   * Remove a deleted document from docRefsByFile, if it is there, and enter
+   * the next document not deleted stored in the same file, if any.
+   */
+  protected void unmapFile(DocumentReference docRef) {
+    if (docRefsByFile == null || !docRefsByFile.remove(docRef.file, docRef) || !duplicateFiles)
+      return;
+    // Only when files have been indexed more than once is there a need to search
+    for (int i = 0; i < numFilesMapped; i++) {
+      DocumentReference other = docRefs.get(i);
+      if (!other.deleted && other.file.equals(docRef.file)) {
+        docRefsByFile.put(other.file, other);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Return the number of documents in the index, not counting deleted ones
+   */
+  public int numDocuments() {
+    return docRefs.size() - numDeleted;
+  }
+
+  /**
+   * Throw an IllegalStateException if this index is read-only
+   */
+  protected void checkWritable() {
+    if (readOnly)
+      throw new IllegalStateException("Cannot add or delete documents in a read-only InvertedIndex");
+  }
+
+  /**
+   * Bring the IDF factors and document lengths up to date with the documents
+   * added and deleted since they were last computed, if any.  Called before
+   * every use of them.
+   */
+  public void updateStatistics() {
+    if (statisticsStale) {
+      synchronized (this) {
+        if (statisticsStale) {
+          computeIDFandDocumentLengths();
+          statisticsStale = false;
+        }
+      }
     }
   }
 
@@ -160,55 +667,142 @@ public class InvertedIndex {
    * @param docRef A reference to the Document it occurs in.
    */
   protected void indexToken(String token, int count, DocumentReference docRef) {
+    indexToken(TermDictionary.global.id(token), count, docRef);
+  }
+
+  /**
+   * Add a token occurrence to the index.
+   *
+   * @param termId The term id of the token to index.
+   * @param count  The number of times it occurs in the document.
+   * @param docRef A reference to the Document it occurs in.
+   */
+  protected void indexToken(int termId, int count, DocumentReference docRef) {
     // Find this token in the index
-    TokenInfo tokenInfo = tokenHash.get(token);
+    TokenInfo tokenInfo = tokenInfos.get(termId);
     if (tokenInfo == null) {
       // If this is a new token, create info for it to put in the hashtable
       tokenInfo = new TokenInfo();
-      tokenHash.put(token, tokenInfo);
+      putTokenInfo(termId, tokenInfo);
     }
     // Add a new occurrence for this token to its info
     tokenInfo.occList.add(new TokenOccurrence(docRef, count));
   }
 
+  /**
+   * Return the TokenInfo of the token with the given term id, or null if it
+   * is not in the index.
+   */
+  public TokenInfo getTokenInfo(int termId) {
+    return tokenInfos.get(termId);
+  }
+
+  /**
+   * Return the TokenInfo of a token, or null if it is not in the index.
+   */
+  public TokenInfo getTokenInfo(String token) {
+    int termId = TermDictionary.global.lookup(token);
+    return termId < 0 ? null : tokenInfos.get(termId);
+  }
+
+  /**
+   * Put the TokenInfo of a token into the index, replacing any it had.
+   */
+  protected void putTokenInfo(String token, TokenInfo tokenInfo) {
+    tokenInfos.put(TermDictionary.global.id(token), tokenInfo);
+  }
+
+  /**
+   * Put the TokenInfo of the token with the given term id into the index,
+   * replacing any it had.
+   */
+  protected void putTokenInfo(int termId, TokenInfo tokenInfo) {
+    tokenInfos.put(termId, tokenInfo);
+  }
+
+  /**
+   * Remove the token with the given term id and its TokenInfo from the index.
+   */
+  protected void removeToken(int termId) {
+    tokenInfos.remove(termId);
+  }
+
   /**
    * Compute the IDF factor for every token in the index and the length
    * of the document vector for every document referenced in the index.
+   * Can be called again after documents are added or deleted; the occurrences
+   * of deleted documents are removed from the postings first.  Reads the
+   * postings through TokenInfo.postings(), so it works as well on the compressed
+   * and mapped postings of a read-only index, which has no deletes to remove.
    */
   protected void computeIDFandDocumentLengths() {
-    // Let N be the total number of documents indexed
-    double N = docRefs.size();
-    // Iterate through each of the tokens in the index
-    Iterator<Map.Entry<String, TokenInfo>> mapEntries = tokenHash.entrySet().iterator();
-    while (mapEntries.hasNext()) {
-      // Get the token and the tokenInfo for each entry in the HashMap
-      Map.Entry<String, TokenInfo> entry = mapEntries.next();
-
-      TokenInfo tokenInfo = entry.getValue();
+    // Let N be the total number of documents indexed, not counting deleted ones
+    double N = numDocuments();
+    // Start every document length over from 0
+    for (DocumentReference docRef : docRefs) {
+      docRef.length = 0.0;
+    }
+    // The tokens left with no documents, to remove from the index afterwards
+    List<Integer> emptyTokens = new ArrayList<Integer>();
+    // Iterate through each of the tokens in the index in order of term id, so
+    // that the weights of each document are summed in the same order however
+    // the documents are split among indexes (see SegmentedIndex)
+    int[] termIds = tokenInfos.termIds();
+    Arrays.sort(termIds);
+    for (int termId : termIds) {
+      // Get the tokenInfo for each token in the index
+      TokenInfo tokenInfo = tokenInfos.get(termId);
+      if (deletesPending)
+        removeDeleted(tokenInfo);
       // Get the total number of documents in which this token occurs
-      double numDocRefs = tokenInfo.occList.size();
-      // Calculate the IDF factor for this token
-      double idf = Math.log(N / numDocRefs);
+      double numDocRefs = tokenInfo.numOccurrences();
+      if (numDocRefs == 0) {
+        // If every document with this token was deleted, remove it from the index
+        emptyTokens.add(termId);
+        continue;
+      }
+      // Calculate the IDF factor for this token, in the whole collection if this is a shard of it
+      double idf = collectionStatistics == null ? Math.log(N / numDocRefs) :
+          collectionStatistics.idf(TermDictionary.global.term(termId));
       //  System.out.println(token + " occurs in " + Math.round(numDocRefs) + " docs so IDF=" + idf);
-      if (idf == 0.0)
-        // If IDF is 0, then just remove this inconsequential token from the index
-        mapEntries.remove();
-      else {
-        tokenInfo.idf = idf;
+      tokenInfo.idf = idf;
+      tokenInfo.maxWeight = Double.NaN;
+      // If IDF is 0, this token is inconsequential, and retrieval ignores it.
+      // It is kept in the index since adding documents may change its IDF.
+      if (idf != 0.0) {
         // In order to compute document vector lengths,  sum the
         // square of the weights (IDF * occurrence count) across
         // every token occurrence for each document and store sum in docRef.length.
-        for (TokenOccurrence occ : tokenInfo.occList) {
-          occ.docRef.length = occ.docRef.length + Math.pow(idf * occ.count, 2);
+        PostingsCursor postings = tokenInfo.postings();
+        while (postings.next()) {
+          DocumentReference docRef = postings.docRef();
+          docRef.length = docRef.length + Math.pow(idf * postings.count(), 2);
         }
       }
     }
+    for (int termId : emptyTokens)
+      removeToken(termId);
     // At this point, every document length should be the sum of the squares of
     // its token weights.  In order to calculate final lengths, just need to
     // set the length of every document reference to the square-root of this sum.
     for (DocumentReference docRef : docRefs) {
       docRef.length = Math.sqrt(docRef.length);
     }
+    deletesPending = false;
+  }
+
+  /**
+   * Remove the occurrences of deleted documents from the postings of a token.
+   * Only a writable index has deletes, so its postings are always in occList.
+   */
+  protected void removeDeleted(TokenInfo tokenInfo) {
+    checkWritable();
+    List<TokenOccurrence> occList = new ArrayList<TokenOccurrence>(tokenInfo.occList.size());
+    for (TokenOccurrence occ : tokenInfo.occList) {
+      if (!occ.docRef.deleted)
+        occList.add(occ);
+    }
+    tokenInfo.occList = occList;
   }
 
   /**
@@ -216,6 +810,7 @@ public class InvertedIndex {
    * Include info on IDF factors, occurrence counts, and document vector lengths.
    */
   public void print() {
+    updateStatistics();
     // Iterate through each token in the index
     for (Map.Entry<String, TokenInfo> entry : tokenHash.entrySet()) {
       String token = entry.getKey();
@@ -223,18 +818,144 @@ public class InvertedIndex {
       System.out.println(token + " (IDF=" + entry.getValue().idf + ") occurs in:");
       // For each document referenced, print its name, occurrence count for this token, and
       // document vector length (|D|).
-      for (TokenOccurrence occ : entry.getValue().occList) {
-        System.out.println("   " + occ.docRef.file.getName() + " " + occ.count +
-            " times; |D|=" + occ.docRef.length);
+      PostingsCursor postings = entry.getValue().postings();
+      while (postings.next()) {
+        DocumentReference docRef = postings.docRef();
+        System.out.println("   " + docRef.file.getName() + " " + postings.count() +
+            " times; |D|=" + docRef.length);
+      }
+    }
+  }
+
+  /**
+   * Save this inverted index to a file so it can later be loaded without
+   * reindexing its documents.
+   *
+   * @see IndexFile
+   */
+  public void save(File file) throws IOException {
+    IndexFile.write(this, file);
+  }
+
+  /**
+   * Save this inverted index to a file, compressing its postings with the given codec.
+   *
+   * @see PostingsCodec
+   */
+  public void save(File file, int codec) throws IOException {
+    IndexFile.write(this, file, codec);
+  }
+
+  /**
+   * Load an inverted index previously saved to a file.
+   *
+   * @see IndexFile
+   */
+  public static InvertedIndex load(File file) throws IOException {
+    return IndexFile.read(file);
+  }
+
+  /**
+   * Load an inverted index previously saved to a file, memory-mapping its
+   * postings instead of reading them into the heap.  The resulting index is read-only.
+   *
+   * @see IndexFile#map
+   */
+  public static InvertedIndex loadMapped(File file) throws IOException {
+    return IndexFile.map(file);
+  }
+
+  /**
+   * Replace the postings of every token with a compressed copy encoded with the
+   * given codec, which is decoded on the fly during retrieval.  Afterwards the
+   * index is read-only.
+   *
+   * @see PostingsCodec
+   */
+  public void compress(int codec) {
+    updateStatistics();
+    readOnly = true;
+    for (int termId : tokenInfos.termIds()) {
+      TokenInfo tokenInfo = tokenInfos.get(termId);
+      byte[] bytes = PostingsCodec.encode(codec, tokenInfo);
+      putTokenInfo(termId, new CompressedTokenInfo(tokenInfo.idf, codec, ByteBuffer.wrap(bytes), 0,
+          tokenInfo.numOccurrences(), docRefs));
+    }
+  }
+
+  /**
+   * Return a read-only snapshot of the index as it is now, which any number of
+   * threads can query at once while this index goes on changing.  The IDF
+   * factors and document lengths are brought up to date first.  The snapshot
+   * has its own copies of the document references and keeps the postings of
+   * each token encoded with PostingsCodec.RAW, so later additions and deletions
+   * do not show in it.  Occurrences are only ever appended to a token's occList,
+   * or it is replaced when deletes are removed, so the encoded postings of a
+   * token whose occList is the same size as at the last snapshot are shared
+   * with that snapshot instead of encoded again.  Taking a snapshot thus costs
+   * a copy of the document references plus encoding the tokens that changed,
+   * and this index keeps the encoded postings of the last snapshot in memory.
+   * If this index is already read-only, its postings and documents cannot
+   * change and are shared instead.  The forward index, which is only appended
+   * to, is shared; its vectors are the snapshot's until this index is cleared.
+   * The scoringPool is shared too, so heavy queries to the snapshot are scored
+   * in parallel just as they would be by this index.
+   *
+   * @see QueryExecutor
+   */
+  public synchronized InvertedIndex snapshot() {
+    updateStatistics();
+    InvertedIndex snapshot = new InvertedIndex();
+    snapshot.dirFile = dirFile;
+    snapshot.docType = docType;
+    snapshot.stem = stem;
+    snapshot.feedback = feedback;
+    snapshot.pseudoFeedback = pseudoFeedback;
+    snapshot.prune = prune;
+    snapshot.scoringPool = scoringPool;
+    snapshot.minParallelPostings = minParallelPostings;
+    snapshot.forwardIndex = forwardIndex;
+    snapshot.collectionStatistics = collectionStatistics;
+    snapshot.numDeleted = numDeleted;
+    snapshot.readOnly = true;
+    if (readOnly) {
+      snapshot.docRefs = docRefs;
+      for (int termId : tokenInfos.termIds())
+        snapshot.putTokenInfo(termId, tokenInfos.get(termId));
+      return snapshot;
+    }
+    for (DocumentReference docRef : docRefs) {
+      DocumentReference copy = new DocumentReference(docRef.file, docRef.length);
+      copy.id = docRef.id;
+      copy.deleted = docRef.deleted;
+      snapshot.docRefs.add(copy);
+    }
+    TermMap<SnapshotPostings> encoded = new TermMap<SnapshotPostings>(tokenInfos.size());
+    for (int termId : tokenInfos.termIds()) {
+      TokenInfo tokenInfo = tokenInfos.get(termId);
+      SnapshotPostings postings = snapshotPostings.get(termId);
+      if (postings == null || postings.occList != tokenInfo.occList ||
+          postings.numPostings != tokenInfo.occList.size()) {
+        // The token is new or its postings changed since the last snapshot
+        postings = new SnapshotPostings();
+        postings.occList = tokenInfo.occList;
+        postings.numPostings = tokenInfo.occList.size();
+        postings.data = ByteBuffer.wrap(PostingsCodec.encode(PostingsCodec.RAW, tokenInfo));
       }
+      encoded.put(termId, postings);
+      snapshot.putTokenInfo(termId, new CompressedTokenInfo(tokenInfo.idf, PostingsCodec.RAW,
+          postings.data, 0, postings.numPostings, snapshot.docRefs));
     }
+    // Forget the postings of tokens no longer in the index
+    snapshotPostings = encoded;
+    return snapshot;
   }
 
   /**
    * Return the number of tokens indexed.
    */
   public int size() {
-    return tokenHash.size();
+    return tokenInfos.size();
   }
 
   /**
@@ -242,14 +963,24 @@ public class InvertedIndex {
    */
   public void clear() {
     docRefs.clear();
-    tokenHash.clear();
+    tokenInfos.clear();
+    snapshotPostings.clear();
+    docRefsByFile = null;
+    numFilesMapped = 0;
+    duplicateFiles = false;
+    if (forwardIndex != null)
+      forwardIndex.clear();
+    numDeleted = 0;
+    deletesPending = false;
+    statisticsStale = false;
+    invalidateQueryCache();
   }
 
   /**
    * Perform ranked retrieval on this input query.
    */
   public Retrieval[] retrieve(String input) {
-    return retrieve(new TextStringDocument(input, stem));
+    return retrieve(new TextStringDocument(input, stem, true));
   }
 
   /**
@@ -260,45 +991,549 @@ public class InvertedIndex {
   }
 
   /**
-   * Perform ranked retrieval on this input query Document vector.
+   * Perform ranked retrieval on this input query Document vector, answering from
+   * the query cache if there is one and it has the complete ranking.
    */
   public Retrieval[] retrieve(HashMapVector vector) {
-    // Create a hashtable to store the retrieved documents.  Keys
-    // are docRefs and values are DoubleValues which indicate the
-    // partial score accumulated for this document so far.
-    // As each token in the query is processed, each document
-    // it indexes is added to this hashtable and its retrieval
-    // score (similarity to the query) is appropriately updated.
-    Map<DocumentReference, DoubleValue> retrievalHash =
-        new HashMap<DocumentReference, DoubleValue>();
+    QueryCache queryCache = this.queryCache;
+    if (queryCache == null)
+      return rank(vector);
+    Object key = QueryCache.key(vector);
+    Retrieval[] retrievals = queryCache.get(key, Integer.MAX_VALUE);
+    if (retrievals == null) {
+      // Note the generation first, so a ranking from before a change is not cached
+      long generation = queryCache.generation();
+      retrievals = rank(vector);
+      queryCache.put(key, Integer.MAX_VALUE, retrievals, generation);
+      retrievals = retrievals.clone();
+    }
+    return retrievals;
+  }
+
+  /**
+   * Rank every document that matches this input query Document vector.
+   */
+  protected Retrieval[] rank(HashMapVector vector) {
+    updateStatistics();
+    // Get this thread's accumulator to store the partial score
+    // accumulated for each retrieved document so far, indexed by
+    // document id, and accumulate the scores for this query.
+    ScoreAccumulator accumulator = getAccumulator();
+    double queryLength = accumulate(vector, accumulator);
+    return allRetrievals(accumulator, queryLength);
+  }
+
+  /**
+   * Return the ranked retrievals of every document scored in the accumulator
+   * for a query of the given length, and clear the accumulator.
+   */
+  protected Retrieval[] allRetrievals(ScoreAccumulator accumulator, double queryLength) {
+    // Make an array to store the final ranked Retrievals.
+    Retrieval[] retrievals = new Retrieval[accumulator.numScored];
+    // Iterate through each of the retrieved documents stored in
+    // the accumulator, then clear it for the next query.
+    for (int i = 0; i < accumulator.numScored; i++) {
+      int docId = accumulator.scoredIds[i];
+      retrievals[i] = getRetrieval(queryLength, docRefs.get(docId), accumulator.scores[docId]);
+    }
+    accumulator.clear();
+    // Sort the retrievals to produce a final ranked list using the
+    // Comparator for retrievals that produces a best to worst ordering.
+    Arrays.sort(retrievals);
+    return retrievals;
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning only
+   * the top k ranked retrievals.  Rather than sorting every retrieved document,
+   * keeps the best k found so far in a heap whose root is the worst of them,
+   * so a document that scores no better than the root is dropped right away.
+   * The result is the same as the first k of the complete ranking.  If there
+   * is a query cache, the retrievals are taken from it when it has them.
+   *
+   * @param vector The query vector.
+   * @param k      The maximum number of retrievals to return.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k) {
+    if (k < 1)
+      throw new IllegalArgumentException("Number of retrievals must be positive: " + k);
+    QueryCache queryCache = this.queryCache;
+    if (queryCache == null)
+      return rank(vector, k);
+    Object key = QueryCache.key(vector);
+    Retrieval[] retrievals = queryCache.get(key, k);
+    if (retrievals == null) {
+      // Note the generation first, so a ranking from before a change is not cached
+      long generation = queryCache.generation();
+      retrievals = rank(vector, k);
+      queryCache.put(key, k, retrievals, generation);
+      retrievals = retrievals.clone();
+    }
+    return retrievals;
+  }
+
+  /**
+   * Return the top k ranked retrievals for this input query Document vector
+   * (see retrieve(HashMapVector, int)).
+   */
+  protected Retrieval[] rank(HashMapVector vector, int k) {
+    updateStatistics();
+    if (scoringPool != null && numPostings(vector) >= minParallelPostings && canSkipPostings(vector))
+      return rankInParallel(vector, k);
+    // Upper bounds on scores only hold if no query token has a negative weight,
+    // as may happen in a query revised by relevance feedback
+    if (prune && allPositive(vector))
+      return retrievePruned(vector, k);
+    ScoreAccumulator accumulator = getAccumulator();
+    double queryLength = accumulate(vector, accumulator);
+    return topRetrievals(accumulator, queryLength, k);
+  }
+
+  /**
+   * Return the top k ranked retrievals of the documents scored in the
+   * accumulator for a query of the given length, and clear the accumulator.
+   */
+  protected Retrieval[] topRetrievals(ScoreAccumulator accumulator, double queryLength, int k) {
+    // A heap of the best retrievals so far with the worst one at the root
+    PriorityQueue<Retrieval> topRetrievals =
+        new PriorityQueue<Retrieval>(Math.min(k, accumulator.numScored) + 1, Collections.reverseOrder());
+    for (int i = 0; i < accumulator.numScored; i++) {
+      int docId = accumulator.scoredIds[i];
+      DocumentReference docRef = docRefs.get(docId);
+      if (topRetrievals.size() < k)
+        topRetrievals.add(getRetrieval(queryLength, docRef, accumulator.scores[docId]));
+      else {
+        // Only create a Retrieval for this document if it beats the worst of the top k
+        double score = accumulator.scores[docId] / (queryLength * docRef.length);
+        if (!topRetrievals.peek().isBetterThan(score, docId)) {
+          topRetrievals.poll();
+          topRetrievals.add(getRetrieval(queryLength, docRef, accumulator.scores[docId]));
+        }
+      }
+    }
+    accumulator.clear();
+    // Empty the heap from worst to best into the end of the ranked array
+    Retrieval[] retrievals = new Retrieval[topRetrievals.size()];
+    for (int i = retrievals.length - 1; i >= 0; i--)
+      retrievals[i] = topRetrievals.poll();
+    return retrievals;
+  }
+
+  /**
+   * Return the total number of postings of the tokens of the query vector that
+   * can add to the score of a document
+   */
+  protected long numPostings(HashMapVector vector) {
+    long numPostings = 0;
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = tokenInfos.get(vector.termId(i));
+      if (tokenInfo != null && tokenInfo.idf != 0.0)
+        numPostings = numPostings + tokenInfo.numOccurrences();
+    }
+    return numPostings;
+  }
+
+  /**
+   * Return the length of a query vector weighted by the IDF factors of this
+   * index, summed as in accumulate.  Tokens not in the index add nothing.
+   */
+  public double queryLength(HashMapVector vector) {
+    updateStatistics();
+    double sum = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = tokenInfos.get(vector.termId(i));
+      if (tokenInfo != null && tokenInfo.idf != 0.0) {
+        double weight = tokenInfo.idf * vector.weight(i);
+        sum = sum + weight * weight;
+      }
+    }
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Use the statistics of the whole collection this index is a shard of for its
+   * IDF factors and document lengths from now on, or its own if null.
+   */
+  public synchronized void setCollectionStatistics(CollectionStatistics collectionStatistics) {
+    checkWritable();
+    this.collectionStatistics = collectionStatistics;
+    statisticsStale = true;
+    invalidateQueryCache();
+  }
+
+  /**
+   * Return true if the postings of every token of the query vector can skip
+   * ahead to a document without reading every posting before it, as is needed to
+   * score ranges of documents in parallel.  Postings compressed with a codec
+   * other than RAW can only be decoded in order.
+   */
+  protected boolean canSkipPostings(HashMapVector vector) {
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = tokenInfos.get(vector.termId(i));
+      if (tokenInfo instanceof CompressedTokenInfo && ((CompressedTokenInfo) tokenInfo).codec != PostingsCodec.RAW)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return the top k ranked retrievals for a query vector, scoring it on the
+   * threads of the scoringPool.  The document ids are split into twice as many
+   * ranges as the pool has threads, and a task for each range scores the
+   * documents in it with its thread's own accumulator, skipping to the range in
+   * each token's postings, and returns their top k.  The top k of those is the
+   * result.  Each document's score is summed token by token in the same order as
+   * in retrieve, so the result is the same as the first k of the complete ranking.
+   */
+  protected Retrieval[] rankInParallel(final HashMapVector vector, final int k) {
+    final double queryLength = queryLength(vector);
+    int numRanges = 2 * scoringPool.getParallelism();
+    int rangeSize = Math.max(1, (docRefs.size() + numRanges - 1) / numRanges);
+    List<ForkJoinTask<Retrieval[]>> tasks = new ArrayList<ForkJoinTask<Retrieval[]>>(numRanges);
+    for (int start = 0; start < docRefs.size(); start = start + rangeSize) {
+      final int rangeStart = start;
+      final int rangeEnd = Math.min(docRefs.size(), start + rangeSize);
+      tasks.add(scoringPool.submit(new Callable<Retrieval[]>() {
+        public Retrieval[] call() {
+          return rankRange(vector, queryLength, k, rangeStart, rangeEnd);
+        }
+      }));
+    }
+    // Merge the top k of each range
+    List<Retrieval> merged = new ArrayList<Retrieval>();
+    for (ForkJoinTask<Retrieval[]> task : tasks)
+      merged.addAll(Arrays.asList(task.join()));
+    Collections.sort(merged);
+    List<Retrieval> top = merged.subList(0, Math.min(k, merged.size()));
+    return top.toArray(new Retrieval[top.size()]);
+  }
+
+  /**
+   * Return the top k ranked retrievals among the documents with ids from start
+   * up to (not including) end for a query vector of the given length.
+   */
+  protected Retrieval[] rankRange(HashMapVector vector, double queryLength, int k, int start, int end) {
+    ScoreAccumulator accumulator = getAccumulator();
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = tokenInfos.get(vector.termId(i));
+      if (tokenInfo == null || tokenInfo.idf == 0.0)
+        continue;
+      double weight = tokenInfo.idf * vector.weight(i);
+      // Add the weight of this token in each document in the range, as incorporateToken does
+      PostingsCursor postings = tokenInfo.postings();
+      if (!postings.next() || !postings.advance(start))
+        continue;
+      do {
+        if (postings.docId() >= end)
+          break;
+        accumulator.add(postings.docId(), weight * tokenInfo.idf * postings.count());
+      }
+      while (postings.next());
+    }
+    return topRetrievals(accumulator, queryLength, k);
+  }
+
+  /**
+   * Perform ranked retrieval on each of a batch of query vectors, returning only
+   * the top k ranked retrievals for each, in the order of the queries.  The
+   * result for each query is the same as from retrieve(HashMapVector, int),
+   * but the postings of a token shared by several queries are read, and
+   * decoded if compressed, only once for the whole batch (see retrieveBatch).
+   *
+   * @param vectors The query vectors.
+   * @param k       The maximum number of retrievals to return for each query.
+   */
+  public List<Retrieval[]> retrieveBatch(List<HashMapVector> vectors, int k) {
+    if (k < 1)
+      throw new IllegalArgumentException("Number of retrievals must be positive: " + k);
+    return rankBatch(vectors, k);
+  }
+
+  /**
+   * Perform ranked retrieval on each of a batch of query vectors, returning the
+   * complete ranking for each, in the order of the queries.  The result for each
+   * query is the same as from retrieve(HashMapVector).  The tokens shared by
+   * more than one query in the batch are found first, and the postings of each
+   * are read once into an array of document ids and counts; then each query is
+   * scored in turn, reading those arrays instead of the postings, so the
+   * postings of popular tokens are not read again for every query.  At most
+   * MAX_BATCH_POSTINGS postings are kept at once, from the tokens shared by the
+   * most queries; the postings of other tokens are read as in retrieve.  The
+   * query cache is not used.
+   *
+   * @param vectors The query vectors.
+   */
+  public List<Retrieval[]> retrieveBatch(List<HashMapVector> vectors) {
+    return rankBatch(vectors, 0);
+  }
+
+  /**
+   * Return the top k ranked retrievals for each of a batch of query vectors,
+   * or all of them if k is 0 (see retrieveBatch).
+   */
+  protected List<Retrieval[]> rankBatch(List<HashMapVector> vectors, int k) {
+    updateStatistics();
+    TermMap<int[]> sharedPostings = readSharedPostings(vectors);
+    ScoreAccumulator accumulator = getAccumulator();
+    List<Retrieval[]> results = new ArrayList<Retrieval[]>(vectors.size());
+    for (HashMapVector vector : vectors) {
+      // Accumulate the scores for this query as accumulate does, token by token
+      // in the same order, so they are summed exactly the same way
+      double queryLength = 0.0;
+      for (int i = 0; i < vector.size(); i++) {
+        int termId = vector.termId(i);
+        int[] postings = sharedPostings.get(termId);
+        if (postings == null)
+          queryLength = queryLength + incorporateToken(termId, vector.weight(i), accumulator);
+        else {
+          TokenInfo tokenInfo = tokenInfos.get(termId);
+          double weight = tokenInfo.idf * vector.weight(i);
+          // The factor for the count of the token in a document, multiplied out
+          // in the same order as in incorporateToken
+          double factor = weight * tokenInfo.idf;
+          for (int j = 0; j < postings.length; j = j + 2)
+            accumulator.add(postings[j], factor * postings[j + 1]);
+          queryLength = queryLength + weight * weight;
+        }
+      }
+      queryLength = Math.sqrt(queryLength);
+      if (k == 0)
+        results.add(allRetrievals(accumulator, queryLength));
+      else
+        results.add(topRetrievals(accumulator, queryLength, k));
+    }
+    return results;
+  }
+
+  /**
+   * Read the postings of the indexed tokens that occur in more than one of the
+   * query vectors, starting with those in the most queries, until the next
+   * would take the total over MAX_BATCH_POSTINGS.  Return them by term id, each
+   * as an array of the alternating document id and count of each posting.
+   */
+  protected TermMap<int[]> readSharedPostings(List<HashMapVector> vectors) {
+    // Sort the term ids of all the queries so the queries sharing a token are together
+    int numTokens = 0;
+    for (HashMapVector vector : vectors)
+      numTokens = numTokens + vector.size();
+    int[] termIds = new int[numTokens];
+    numTokens = 0;
+    for (HashMapVector vector : vectors) {
+      for (int i = 0; i < vector.size(); i++)
+        termIds[numTokens++] = vector.termId(i);
+    }
+    Arrays.sort(termIds);
+    // Pack the number of queries sharing each token above its term id, so that
+    // sorting puts the most shared tokens last
+    long[] shared = new long[numTokens];
+    int numShared = 0;
+    for (int start = 0, end; start < numTokens; start = end) {
+      for (end = start + 1; end < numTokens && termIds[end] == termIds[start]; end++) ;
+      if (end - start > 1)
+        shared[numShared++] = ((long) (end - start) << 32) | termIds[start];
+    }
+    Arrays.sort(shared, 0, numShared);
+    TermMap<int[]> sharedPostings = new TermMap<int[]>(numShared);
+    long numPostings = 0;
+    for (int i = numShared - 1; i >= 0; i--) {
+      int termId = (int) shared[i];
+      TokenInfo tokenInfo = tokenInfos.get(termId);
+      // Tokens not in the index, or with an IDF of 0, add nothing to any score
+      if (tokenInfo == null || tokenInfo.idf == 0.0)
+        continue;
+      numPostings = numPostings + tokenInfo.numOccurrences();
+      if (numPostings > MAX_BATCH_POSTINGS)
+        break;
+      int[] postings = new int[2 * tokenInfo.numOccurrences()];
+      PostingsCursor cursor = tokenInfo.postings();
+      for (int j = 0; cursor.next(); j = j + 2) {
+        postings[j] = cursor.docId();
+        postings[j + 1] = cursor.count();
+      }
+      sharedPostings.put(termId, postings);
+    }
+    return sharedPostings;
+  }
+
+  /**
+   * Perform top k retrieval document-at-a-time using MaxScore pruning.  The postings
+   * of all the query tokens are traversed together in order of document id, and each
+   * token has an upper bound on what it can add to a score (see TokenInfo.maxWeight).
+   * Once the top k are full, a document that only occurs under the tokens with the
+   * smallest bounds cannot beat the worst of them, so those tokens become
+   * non-essential: only documents under the other, essential, tokens are considered,
+   * and the postings of non-essential tokens are only skipped ahead to the documents
+   * considered.  A document is dropped without being fully scored as soon as its
+   * score so far plus the bounds of the tokens not yet looked at cannot make the top k.
+   * The scores of the remaining documents are summed exactly as in retrieve, so the
+   * result is the same as the first k of the complete ranking.  Every query token
+   * must have a positive count.
+   *
+   * @param vector The query vector.
+   * @param k      The maximum number of retrievals to return.
+   */
+  protected Retrieval[] retrievePruned(HashMapVector vector, int k) {
+    // Collect the query tokens that are in the index, in the order that retrieve
+    // adds up their scores, along with their weights in the query
+    int numTokens = 0;
+    TokenInfo[] tokenInfos = new TokenInfo[vector.size()];
+    double[] weights = new double[vector.size()];
+    double queryLength = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = getTokenInfo(vector.termId(i));
+      if (tokenInfo != null && tokenInfo.idf != 0.0) {
+        double weight = tokenInfo.idf * vector.weight(i);
+        queryLength = queryLength + weight * weight;
+        tokenInfos[numTokens] = tokenInfo;
+        weights[numTokens] = weight;
+        numTokens++;
+      }
+    }
+    queryLength = Math.sqrt(queryLength);
+    // Start a cursor on the postings of each token, keeping the id of its current
+    // document, or Integer.MAX_VALUE once it runs out
+    PostingsCursor[] cursors = new PostingsCursor[numTokens];
+    int[] docIds = new int[numTokens];
+    // The upper bound on what each token can add to a normalized score
+    final double[] bounds = new double[numTokens];
+    for (int i = 0; i < numTokens; i++) {
+      cursors[i] = tokenInfos[i].postings();
+      docIds[i] = cursors[i].next() ? cursors[i].docId() : Integer.MAX_VALUE;
+      bounds[i] = weights[i] * tokenInfos[i].maxWeight() / queryLength;
+    }
+    // Order the tokens by increasing bound and sum the bounds of the tokens up to
+    // each position in this order
+    Integer[] byBound = new Integer[numTokens];
+    for (int i = 0; i < numTokens; i++)
+      byBound[i] = i;
+    Arrays.sort(byBound, new Comparator<Integer>() {
+      public int compare(Integer i, Integer j) {
+        return Double.compare(bounds[i], bounds[j]);
+      }
+    });
+    double[] boundSums = new double[numTokens];
+    for (int i = 0; i < numTokens; i++)
+      boundSums[i] = (i == 0 ? 0.0 : boundSums[i - 1]) + bounds[byBound[i]];
+    // The position in byBound of the first essential token
+    int firstEssential = 0;
+    // The occurrence count of each token in the current document
+    int[] counts = new int[numTokens];
+    // A heap of the best retrievals so far with the worst one at the root, and the
+    // score a document must reach to get into it
+    PriorityQueue<Retrieval> topRetrievals =
+        new PriorityQueue<Retrieval>(k + 1, Collections.reverseOrder());
+    double threshold = Double.NEGATIVE_INFINITY;
+    while (true) {
+      // The next document to consider is the first one under an essential token
+      int docId = Integer.MAX_VALUE;
+      for (int i = firstEssential; i < numTokens; i++)
+        docId = Math.min(docId, docIds[byBound[i]]);
+      if (docId == Integer.MAX_VALUE)
+        break;
+      DocumentReference docRef = docRefs.get(docId);
+      double norm = queryLength * docRef.length;
+      // Score the document under the essential tokens, moving their cursors past it
+      double score = 0.0;
+      for (int i = firstEssential; i < numTokens; i++) {
+        int token = byBound[i];
+        counts[token] = 0;
+        if (docIds[token] == docId) {
+          counts[token] = cursors[token].count();
+          score = score + weights[token] * tokenInfos[token].idf * counts[token] / norm;
+          docIds[token] = cursors[token].next() ? cursors[token].docId() : Integer.MAX_VALUE;
+        }
+      }
+      // Add its scores under the non-essential tokens, from the largest bound down,
+      // until it is clear that it cannot make the top k
+      boolean pruned = false;
+      for (int i = firstEssential - 1; i >= 0 && !pruned; i--) {
+        if ((score + boundSums[i]) * (1 + BOUND_SLACK) < threshold)
+          pruned = true;
+        else {
+          int token = byBound[i];
+          counts[token] = 0;
+          if (docIds[token] < docId)
+            docIds[token] = cursors[token].advance(docId) ? cursors[token].docId() : Integer.MAX_VALUE;
+          if (docIds[token] == docId) {
+            counts[token] = cursors[token].count();
+            score = score + weights[token] * tokenInfos[token].idf * counts[token] / norm;
+          }
+        }
+      }
+      if (pruned)
+        continue;
+      // Compute the exact score of the document just as retrieve does, adding the
+      // scores under the tokens in query order
+      double sum = 0.0;
+      for (int i = 0; i < numTokens; i++) {
+        if (counts[i] > 0)
+          sum = sum + weights[i] * tokenInfos[i].idf * counts[i];
+      }
+      if (topRetrievals.size() < k)
+        topRetrievals.add(getRetrieval(queryLength, docRef, sum));
+      else {
+        if (!topRetrievals.peek().isBetterThan(sum / norm, docId)) {
+          topRetrievals.poll();
+          topRetrievals.add(getRetrieval(queryLength, docRef, sum));
+        }
+      }
+      if (topRetrievals.size() == k) {
+        // Raise the score to beat, making the tokens whose bounds cannot reach it non-essential
+        threshold = topRetrievals.peek().score;
+        while (firstEssential < numTokens && boundSums[firstEssential] * (1 + BOUND_SLACK) < threshold)
+          firstEssential++;
+      }
+    }
+    // Empty the heap from worst to best into the end of the ranked array
+    Retrieval[] retrievals = new Retrieval[topRetrievals.size()];
+    for (int i = retrievals.length - 1; i >= 0; i--)
+      retrievals[i] = topRetrievals.poll();
+    return retrievals;
+  }
+
+  /**
+   * Return true if every token in the vector has a positive weight
+   */
+  protected static boolean allPositive(HashMapVector vector) {
+    for (int i = 0; i < vector.size(); i++) {
+      if (vector.weight(i) <= 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Accumulate the score of every document that shares a token with the query
+   * vector into the accumulator.
+   *
+   * @return The length of the query vector.
+   */
+  protected double accumulate(HashMapVector vector, ScoreAccumulator accumulator) {
     // Initialize a variable to store the length of the query vector
     double queryLength = 0.0;
     // Iterate through each token in the query input Document
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      String token = entry.getKey();
-      double count = entry.getValue().getValue();
+    for (int i = 0; i < vector.size(); i++) {
       // Determine the score added to the similarity of each document
       // indexed under this token and update the length of the
       // query vector with the square of the weight for this token.
-      queryLength = queryLength + incorporateToken(token, count, retrievalHash);
+      queryLength = queryLength + incorporateToken(vector.termId(i), vector.weight(i), accumulator);
     }
     // Finalize the length of the query vector by taking the square-root of the
     // final sum of squares of its token weights.
-    queryLength = Math.sqrt(queryLength);
-    // Make an array to store the final ranked Retrievals.
-    Retrieval[] retrievals = new Retrieval[retrievalHash.size()];
-    // Iterate through each of the retrieved documents stored in
-    // the final retrievalHash.
-    int retrievalCount = 0;
-    for (Map.Entry<DocumentReference, DoubleValue> entry : retrievalHash.entrySet()) {
-      DocumentReference docRef = entry.getKey();
-      double score = entry.getValue().value;
-      retrievals[retrievalCount++] = getRetrieval(queryLength, docRef, score);
+    return Math.sqrt(queryLength);
+  }
+
+  /**
+   * Return the calling thread's ScoreAccumulator, cleared and large enough for
+   * every document in the index.
+   */
+  protected ScoreAccumulator getAccumulator() {
+    ScoreAccumulator accumulator = accumulators.get();
+    if (accumulator == null || accumulator.capacity() < docRefs.size()) {
+      accumulator = new ScoreAccumulator(docRefs.size());
+      accumulators.set(accumulator);
     }
-    // Sort the retrievals to produce a final ranked list using the
-    // Comparator for retrievals that produces a best to worst ordering.
-    Arrays.sort(retrievals);
-    return retrievals;
+    return accumulator;
   }
 
   /**
@@ -332,32 +1567,77 @@ public class InvertedIndex {
    */
   public double incorporateToken(String token, double count,
                                  Map<DocumentReference, DoubleValue> retrievalHash) {
-    TokenInfo tokenInfo = tokenHash.get(token);
-    // If token is not in the index, it adds nothing and its squared weight is 0
-    if (tokenInfo == null) return 0.0;
+    TokenInfo tokenInfo = getTokenInfo(token);
+    // If token is not in the index, or has an IDF of 0, it adds nothing and its squared weight is 0
+    if (tokenInfo == null || tokenInfo.idf == 0.0) return 0.0;
     // The weight of a token in the query is is IDF factor times the number
     // of times it occurs in the query.
     double weight = tokenInfo.idf * count;
     // For each document occurrence indexed for this token...
-    for (TokenOccurrence occ : tokenInfo.occList) {
+    PostingsCursor postings = tokenInfo.postings();
+    while (postings.next()) {
+      DocumentReference docRef = postings.docRef();
       // Get the current score for this document in the retrievalHash.
-      DoubleValue val = retrievalHash.get(occ.docRef);
+      DoubleValue val = retrievalHash.get(docRef);
       if (val == null) {
         // If this is a new retrieved document, create an initial score
         // for it and store in the retrievalHash
         val = new DoubleValue(0.0);
-        retrievalHash.put(occ.docRef, val);
+        retrievalHash.put(docRef, val);
       }
       // Update the score for this document by adding the product
       // of the weight of this token in the query and its weight
       // in the retrieved document (IDF * occurrence count)
-      val.value = val.value + weight * tokenInfo.idf * occ.count;
+      val.value = val.value + weight * tokenInfo.idf * postings.count();
     }
     // Return the square of the weight of this token in the query
     return weight * weight;
   }
 
 
+  /**
+   * Retrieve the documents indexed by this token in the inverted index and
+   * add to their running total scores in the accumulator.
+   *
+   * @param token       The token in the query to incorporate.
+   * @param count       The count of this token in the query.
+   * @param accumulator The scores accumulated so far, indexed by document id.
+   * @return The square of the weight of this token in the query vector for use
+   *         in calculating the length of the query vector.
+   */
+  public double incorporateToken(String token, double count, ScoreAccumulator accumulator) {
+    int termId = TermDictionary.global.lookup(token);
+    return termId < 0 ? 0.0 : incorporateToken(termId, count, accumulator);
+  }
+
+  /**
+   * Retrieve the documents indexed by the token with this term id in the
+   * inverted index and add to their running total scores in the accumulator.
+   *
+   * @param termId      The term id of the token in the query to incorporate.
+   * @param count       The count of this token in the query.
+   * @param accumulator The scores accumulated so far, indexed by document id.
+   * @return The square of the weight of this token in the query vector for use
+   *         in calculating the length of the query vector.
+   */
+  public double incorporateToken(int termId, double count, ScoreAccumulator accumulator) {
+    TokenInfo tokenInfo = tokenInfos.get(termId);
+    // If token is not in the index, or has an IDF of 0, it adds nothing and its squared weight is 0
+    if (tokenInfo == null || tokenInfo.idf == 0.0) return 0.0;
+    // The weight of a token in the query is is IDF factor times the number
+    // of times it occurs in the query.
+    double weight = tokenInfo.idf * count;
+    // For each document occurrence indexed for this token, add the product
+    // of the weight of this token in the query and its weight in the
+    // retrieved document (IDF * occurrence count) to the document's score
+    PostingsCursor postings = tokenInfo.postings();
+    while (postings.next())
+      accumulator.add(postings.docId(), weight * tokenInfo.idf * postings.count());
+    // Return the square of the weight of this token in the query
+    return weight * weight;
+  }
+
+
   /**
    * Enter an interactive user-query loop, accepting queries and showing the retrieved
    * documents in ranked order.
@@ -372,10 +1652,12 @@ public class InvertedIndex {
       // If query is empty then exit the interactive loop
       if (query.equals(""))
         break;
-      // Get the ranked retrievals for this query string and present them
-      HashMapVector queryVector = (new TextStringDocument(query, stem)).hashMapVector();
-      Retrieval[] retrievals = retrieve(queryVector);
-      presentRetrievals(queryVector, retrievals);
+      // Get the top ranked retrievals for this query string and present them
+      HashMapVector queryVector = (new TextStringDocument(query, stem, true)).hashMapVector();
+      if (pseudoFeedback)
+        queryVector = Feedback.expandQuery(queryVector, this);
+      Retrieval[] retrievals = retrieve(queryVector, MAX_RETRIEVALS);
+      presentRetrievals(queryVector, retrievals, MAX_RETRIEVALS);
     }
     while (true);
   }
@@ -383,9 +1665,23 @@ public class InvertedIndex {
   /**
    * Print out a ranked set of retrievals. Show the file name and score for
    * the top retrieved documents in order. Then allow user to see more or display
-   * individual documents.
+   * individual documents.  The retrievals are taken to be the top MAX_RETRIEVALS
+   * for the query, or all of them if there are fewer.
    */
   public void presentRetrievals(HashMapVector queryVector, Retrieval[] retrievals) {
+    presentRetrievals(queryVector, retrievals, MAX_RETRIEVALS);
+  }
+
+  /**
+   * Print out a ranked set of retrievals, the top k for the query, as above.
+   * If there are k of them, there may be more, and further ones are retrieved
+   * as the user asks for them; if there are fewer, they are all the documents
+   * matching the query.
+   */
+  public void presentRetrievals(HashMapVector queryVector, Retrieval[] retrievals, int k) {
+    // The number of retrievals asked for so far; if fewer were found then
+    // retrievals holds every document matching the query
+    int numRequested = k;
     if (showRetrievals(retrievals)) {
       // Data structure for saving info about any user feedback for relevance feedback
       Feedback fdback = null;
@@ -403,7 +1699,14 @@ public class InvertedIndex {
         if (command.equals(""))
           break;
         if (command.equals("m")) {
-          // The "more" command, print a list of the next MAX_RETRIEVALS batch of retrievals
+          // The "more" command, print a list of the next MAX_RETRIEVALS batch of retrievals,
+          // first retrieving them if they have not been retrieved yet
+          if (retrievals.length == numRequested && currentPosition + MAX_RETRIEVALS > numRequested) {
+            numRequested = currentPosition + MAX_RETRIEVALS;
+            retrievals = retrieve(queryVector, numRequested);
+            if (feedback)
+              fdback.retrievals = retrievals;
+          }
           printRetrievals(retrievals, currentPosition);
           currentPosition = currentPosition + MAX_RETRIEVALS;
           continue;
@@ -418,7 +1721,9 @@ public class InvertedIndex {
               "\nNegative docs: " + fdback.badDocRefs);
           System.out.println("Executing New Expanded and Reweighted Query: ");
           queryVector = fdback.newQuery();
-          retrievals = retrieve(queryVector);
+          retrievals = retrieve(queryVector, MAX_RETRIEVALS);
+          numRequested = MAX_RETRIEVALS;
+          currentPosition = MAX_RETRIEVALS;
           // Update the list of retrievals stored in the feedback
           fdback.retrievals = retrievals;
           if (showRetrievals(retrievals))
@@ -438,6 +1743,13 @@ public class InvertedIndex {
             System.out.println("Enter `r' to use any feedback given to `redo' with a revised query.");
           continue;
         }
+        // Retrieve down to the selected document number if it has not been retrieved yet
+        if (retrievals.length == numRequested && showNumber > numRequested) {
+          numRequested = showNumber;
+          retrievals = retrieve(queryVector, numRequested);
+          if (feedback)
+            fdback.retrievals = retrievals;
+        }
         // Display the selected document number in Netscape
         if (showNumber > 0 && showNumber <= retrievals.length) {
           System.out.println("Showing document " + showNumber + " in the " + Browser.BROWSER_NAME + " window.");
@@ -496,13 +1808,27 @@ public class InvertedIndex {
    * "-html" to specify HTML files whose HTML tags should be removed.
    * "-stem" to specify tokens should be stemmed with Porter stemmer.
    * "-feedback" to allow relevance feedback from the user.
+   * "-pseudo" to expand each query by pseudo-relevance feedback from its top retrievals.
+   * "-threads N" to tokenize the documents with N threads.
+   * "-index FILE" to load the index from FILE if it exists, else to index DIR and save the index to FILE.
+   * "-cache N" to cache the retrievals of the last N distinct queries.
+   * "-scoring N" to score queries with many postings on N threads.
+   * "-mapped" to memory-map the postings of an index loaded with "-index" instead of reading them.
+   * "-codec NAME" to keep postings compressed with the "vbyte" or "packed" PostingsCodec,
+   * in memory and in an index file saved with "-index".
+   * "-external MB" to build the index file for "-index" with a SpimiIndexer, holding at most
+   * about MB megabytes of postings in memory, and then load it.
+   * "-forward FILE" to keep the document vectors for feedback in FILE rather than in memory.
    */
   public static void main(String[] args) {
     // Parse the arguments into a directory name and optional flag
 
     String dirName = args[args.length - 1];
     short docType = DocumentIterator.TYPE_TEXT;
-    boolean stem = false, feedback = false;
+    boolean stem = false, feedback = false, pseudoFeedback = false, mapped = false;
+    int numThreads = 1, codec = PostingsCodec.RAW, cacheSize = 0, scoringThreads = 0;
+    long memoryBudget = 0;
+    File indexFile = null, forwardFile = null;
     for (int i = 0; i < args.length - 1; i++) {
       String flag = args[i];
       if (flag.equals("-html"))
@@ -514,17 +1840,89 @@ public class InvertedIndex {
       else if (flag.equals("-feedback"))
         // Use relevance feedback
         feedback = true;
+      else if (flag.equals("-pseudo"))
+        // Use pseudo-relevance feedback
+        pseudoFeedback = true;
+      else if (flag.equals("-threads"))
+        // Tokenize documents with the given number of threads
+        numThreads = Integer.parseInt(args[++i]);
+      else if (flag.equals("-index"))
+        // Load or save the index in the given file
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-cache"))
+        // Cache the retrievals of the given number of queries
+        cacheSize = Integer.parseInt(args[++i]);
+      else if (flag.equals("-scoring"))
+        // Score heavy queries with the given number of threads
+        scoringThreads = Integer.parseInt(args[++i]);
+      else if (flag.equals("-mapped"))
+        // Memory-map the postings of a loaded index
+        mapped = true;
+      else if (flag.equals("-codec"))
+        // Compress postings with the given codec
+        codec = PostingsCodec.forName(args[++i]);
+      else if (flag.equals("-external"))
+        // Build the index file in external memory
+        memoryBudget = Long.parseLong(args[++i]) << 20;
+      else if (flag.equals("-forward"))
+        // Keep the document vectors in the given file
+        forwardFile = new File(args[++i]);
       else {
         throw new IllegalArgumentException("Unknown flag: "+ flag);
       }
     }
 
 
-    // Create an inverted index for the files in the given directory.
-    InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, feedback);
+    if (memoryBudget > 0 && indexFile == null) {
+      System.out.println("\n-external requires -index FILE");
+      System.exit(1);
+    }
+    InvertedIndex index = null;
+    try {
+      if (memoryBudget > 0 && !indexFile.exists()) {
+        // Build the index file without holding all the postings in memory
+        SpimiIndexer indexer = new SpimiIndexer(new File(dirName), docType, stem);
+        indexer.memoryBudget = memoryBudget;
+        indexer.build(indexFile, codec);
+      }
+      if (indexFile != null && indexFile.exists()) {
+        // Load the previously saved index instead of reindexing the directory
+        System.out.println("Loading index from " + indexFile);
+        index = mapped ? loadMapped(indexFile) : load(indexFile);
+        index.feedback = feedback;
+        if (feedback || pseudoFeedback || forwardFile != null)
+          // Get the document vectors from the postings rather than the files
+          index.buildForwardIndex(forwardFile == null ? new ForwardIndex() : new ForwardIndex(forwardFile));
+      } else {
+        // Create an inverted index for the files in the given directory.
+        ForwardIndex forwardIndex = null;
+        if (forwardFile != null)
+          forwardIndex = new ForwardIndex(forwardFile);
+        else if (feedback || pseudoFeedback)
+          forwardIndex = new ForwardIndex();
+        index = new InvertedIndex(new File(dirName), docType, stem, feedback, numThreads, forwardIndex);
+        if (indexFile != null)
+          index.save(indexFile, codec);
+      }
+      // Postings read from a mapped file are already compressed if the file is
+      if (codec != PostingsCodec.RAW && !mapped)
+        index.compress(codec);
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not load or save index file: " + indexFile +
+          (forwardFile == null ? "" : " or forward index file: " + forwardFile));
+      System.exit(1);
+    }
+    index.pseudoFeedback = pseudoFeedback;
+    if (cacheSize > 0)
+      index.queryCache = new QueryCache(cacheSize, QueryCache.DEFAULT_MAX_RETRIEVALS);
+    if (scoringThreads > 0)
+      index.scoringPool = new ForkJoinPool(scoringThreads);
     // index.print();
     // Interactively process queries to this index.
     index.processQueries();
+    if (index.queryCache != null)
+      System.out.println(index.queryCache);
   }
 
 
@@ -0,0 +1,67 @@
+package ir.vsr;
+
+/**
+ * A shard of a collection held in an InvertedIndex in this process.
+ *
+ * @author Ray Mooney
+ */
+public class LocalShard extends IndexShard {
+
+  /**
+   * The index of the documents in this shard
+   */
+  public InvertedIndex index;
+
+  /**
+   * Create a shard of the documents in an index, which must not be read-only
+   * so that it can be given the statistics of the whole collection.
+   */
+  public LocalShard(InvertedIndex index) {
+    if (index.readOnly)
+      throw new IllegalArgumentException("LocalShard needs an index it can set the collection statistics of");
+    this.index = index;
+  }
+
+  /**
+   * Return the statistics of the documents in this shard
+   */
+  public CollectionStatistics statistics() {
+    return new CollectionStatistics(index);
+  }
+
+  /**
+   * Compute IDF factors and document lengths from the statistics of the whole
+   * collection from now on.
+   */
+  public void setCollectionStatistics(CollectionStatistics statistics) {
+    index.setCollectionStatistics(statistics);
+    // Recompute them now rather than on the first query
+    index.updateStatistics();
+  }
+
+  /**
+   * Return the top k retrievals in this shard for a query vector, with their
+   * scores normalized by the given length of the query in the whole collection.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k, double queryLength) {
+    Retrieval[] retrievals = index.retrieve(vector, k);
+    if (retrievals.length == 0)
+      return retrievals;
+    // The index normalized the scores by the length of the query counting only
+    // the tokens in this shard, so rescale them to its length in the collection.
+    // New Retrievals are made since those returned may be shared with a cache.
+    double scale = index.queryLength(vector) / queryLength;
+    Retrieval[] scaled = new Retrieval[retrievals.length];
+    for (int i = 0; i < retrievals.length; i++)
+      scaled[i] = new Retrieval(retrievals[i].docRef, retrievals[i].score * scale);
+    return scaled;
+  }
+
+  /**
+   * Return the number of documents in this shard
+   */
+  public int numDocuments() {
+    return index.numDocuments();
+  }
+
+}
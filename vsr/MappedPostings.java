@@ -0,0 +1,130 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * The postings section of an index file mapped into memory with
+ * FileChannel.map, so that postings are read directly from the packed
+ * (document id, count) records in the file instead of being held as
+ * TokenOccurrence objects on the heap.  The operating system pages the
+ * records in and out as needed, so the postings may be larger than the heap.
+ *
+ * @author Ray Mooney
+ * @see IndexFile
+ */
+public class MappedPostings {
+
+  /**
+   * The number of records in each mapped buffer, since a single buffer
+   * can map at most 2GB of the file
+   */
+  public static final int RECORDS_PER_BUFFER = Integer.MAX_VALUE / IndexFile.RECORD_SIZE;
+
+  /**
+   * The mapped buffers holding consecutive parts of the postings section
+   */
+  protected ByteBuffer[] buffers;
+
+  /**
+   * The indexed documents, in the order of their ids
+   */
+  protected List<DocumentReference> docRefs;
+
+  /**
+   * Map the postings section of an index file.
+   *
+   * @param file          The index file.
+   * @param postingsStart The offset of the postings section in the file.
+   * @param numRecords    The total number of postings records in the file.
+   * @param docRefs       The indexed documents, in the order of their ids.
+   */
+  public MappedPostings(File file, long postingsStart, long numRecords,
+                        List<DocumentReference> docRefs) throws IOException {
+    this.docRefs = docRefs;
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      int numBuffers = (int) ((numRecords + RECORDS_PER_BUFFER - 1) / RECORDS_PER_BUFFER);
+      buffers = new ByteBuffer[numBuffers];
+      for (int i = 0; i < numBuffers; i++) {
+        long firstRecord = (long) i * RECORDS_PER_BUFFER;
+        long size = Math.min(RECORDS_PER_BUFFER, numRecords - firstRecord) * IndexFile.RECORD_SIZE;
+        // The mapping stays valid after the channel is closed
+        buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+            postingsStart + firstRecord * IndexFile.RECORD_SIZE, size);
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Return a cursor over the given range of postings records.
+   *
+   * @param firstRecord The number of the first record in the postings section.
+   * @param numRecords  The number of records in the range.
+   */
+  public PostingsCursor cursor(final long firstRecord, final int numRecords) {
+    return new PostingsCursor() {
+      // The buffer holding the current record and the offset of the record in it
+      int bufferNumber = (int) (firstRecord / RECORDS_PER_BUFFER);
+      int position = (int) (firstRecord % RECORDS_PER_BUFFER) * IndexFile.RECORD_SIZE - IndexFile.RECORD_SIZE;
+      // The number of records not yet visited
+      int remaining = numRecords;
+
+      public boolean next() {
+        if (remaining == 0)
+          return false;
+        remaining--;
+        position = position + IndexFile.RECORD_SIZE;
+        if (position == buffers[bufferNumber].limit()) {
+          // The rest of the range is in the next buffer
+          bufferNumber++;
+          position = 0;
+        }
+        return true;
+      }
+
+      public int docId() {
+        return buffers[bufferNumber].getInt(position);
+      }
+
+      public DocumentReference docRef() {
+        return docRefs.get(docId());
+      }
+
+      public int count() {
+        return buffers[bufferNumber].getInt(position + 4);
+      }
+
+      public boolean advance(int target) {
+        if (docId() >= target)
+          return true;
+        // Binary search for the first record at or past the target, between the
+        // current one, which is before it, and the end of the range
+        int low = numRecords - remaining - 1;
+        int high = numRecords;
+        while (high - low > 1) {
+          int middle = (low + high) >>> 1;
+          long record = firstRecord + middle;
+          if (buffers[(int) (record / RECORDS_PER_BUFFER)].getInt(
+              (int) (record % RECORDS_PER_BUFFER) * IndexFile.RECORD_SIZE) < target)
+            low = middle;
+          else
+            high = middle;
+        }
+        // Move to just before that record, so next() moves onto it
+        long record = firstRecord + high - 1;
+        bufferNumber = (int) (record / RECORDS_PER_BUFFER);
+        position = (int) (record % RECORDS_PER_BUFFER) * IndexFile.RECORD_SIZE;
+        remaining = numRecords - high;
+        return next();
+      }
+    };
+  }
+
+}
@@ -0,0 +1,55 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * Information about a token in an index whose postings stay in a memory-mapped
+ * index file.  Its occList is always empty and cannot be added to, so an index of
+ * MappedTokenInfo's is read-only; use postings() to get the documents where it occurs.
+ *
+ * @author Ray Mooney
+ * @see MappedPostings
+ */
+public class MappedTokenInfo extends TokenInfo {
+
+  /**
+   * The mapped postings section holding the postings of this token
+   */
+  protected MappedPostings mappedPostings;
+
+  /**
+   * The number of the first postings record of this token
+   */
+  protected long firstRecord;
+
+  /**
+   * The number of postings records of this token
+   */
+  protected int numRecords;
+
+  /**
+   * Create information for a token whose postings are the given range of mapped records
+   */
+  public MappedTokenInfo(double idf, MappedPostings mappedPostings, long firstRecord, int numRecords) {
+    this.idf = idf;
+    this.mappedPostings = mappedPostings;
+    this.firstRecord = firstRecord;
+    this.numRecords = numRecords;
+    occList = Collections.emptyList();
+  }
+
+  /**
+   * Return the number of documents in which this token occurs
+   */
+  public int numOccurrences() {
+    return numRecords;
+  }
+
+  /**
+   * Return a cursor reading the documents in which this token occurs from the mapped file
+   */
+  public PostingsCursor postings() {
+    return mappedPostings.cursor(firstRecord, numRecords);
+  }
+
+}
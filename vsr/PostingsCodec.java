@@ -0,0 +1,328 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Encodes the postings of a token compactly as bytes and decodes them again
+ * with a PostingsCursor that reads the bytes in place.  Postings are stored as
+ * the gaps between successive document numbers (which must be increasing) and
+ * the occurrence counts, using one of these codecs:
+ * <ul>
+ * <li> RAW: each posting is a fixed-size pair of ints (document number, count), see IndexFile.
+ * <li> VBYTE: the gap and the count of each posting are written as variable-byte
+ * integers, 7 bits per byte with the high bit set on all but the last byte.
+ * <li> PACKED: the postings are grouped into blocks of BLOCK_SIZE.  Each block starts
+ * with a byte giving the number of bits needed for its largest gap and a byte giving
+ * the number of bits needed for its largest count, followed by its (gap, count) pairs
+ * packed with exactly that many bits each, padded to a whole byte at the end of the block.
+ * </ul>
+ * Decoding does not allocate anything per posting.
+ *
+ * @author Ray Mooney
+ */
+public class PostingsCodec {
+
+  /**
+   * Codec for uncompressed (document number, count) int pairs
+   */
+  public static final int RAW = 0;
+
+  /**
+   * Codec for variable-byte gaps and counts
+   */
+  public static final int VBYTE = 1;
+
+  /**
+   * Codec for blocks of bit-packed gaps and counts
+   */
+  public static final int PACKED = 2;
+
+  /**
+   * The number of postings in each block of the PACKED codec
+   */
+  public static final int BLOCK_SIZE = 128;
+
+  /**
+   * Return the codec with the given name ("raw", "vbyte" or "packed")
+   */
+  public static int forName(String name) {
+    if (name.equals("raw"))
+      return RAW;
+    else if (name.equals("vbyte"))
+      return VBYTE;
+    else if (name.equals("packed"))
+      return PACKED;
+    else
+      throw new IllegalArgumentException("Unknown postings codec: " + name);
+  }
+
+  /**
+   * Encode postings with the given codec and write them to out.
+   *
+   * @param codec       The codec to use.
+   * @param docNumbers  The increasing document numbers of the postings.
+   * @param counts      The occurrence counts of the postings.
+   * @param numPostings The number of postings in the arrays to encode.
+   */
+  public static void encode(int codec, int[] docNumbers, int[] counts, int numPostings,
+                            ByteArrayOutputStream out) {
+    switch (codec) {
+      case RAW:
+        for (int i = 0; i < numPostings; i++) {
+          writeInt(docNumbers[i], out);
+          writeInt(counts[i], out);
+        }
+        break;
+      case VBYTE:
+        int previous = -1;
+        for (int i = 0; i < numPostings; i++) {
+          writeVByte(docNumbers[i] - previous, out);
+          writeVByte(counts[i], out);
+          previous = docNumbers[i];
+        }
+        break;
+      case PACKED:
+        for (int start = 0; start < numPostings; start = start + BLOCK_SIZE)
+          encodeBlock(docNumbers, counts, start, Math.min(numPostings, start + BLOCK_SIZE), out);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown postings codec: " + codec);
+    }
+  }
+
+  /**
+   * Encode the postings of a token with the given codec, using the ids of
+   * its documents as document numbers.
+   *
+   * @return The encoded postings.
+   */
+  public static byte[] encode(int codec, TokenInfo tokenInfo) {
+    return encode(codec, tokenInfo, null);
+  }
+
+  /**
+   * Encode the postings of a token with the given codec, numbering its documents
+   * by a table of document numbers indexed by document id, which must keep them
+   * in the same order.
+   *
+   * @param docNumbers The document number for each document id, or null to use the ids.
+   * @return The encoded postings.
+   */
+  public static byte[] encode(int codec, TokenInfo tokenInfo, int[] docNumbers) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encode(codec, tokenInfo, docNumbers, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Encode the postings of a token with the given codec, numbered as by
+   * encode(int, TokenInfo, int[]), and write them to out.
+   */
+  public static void encode(int codec, TokenInfo tokenInfo, int[] docNumbers, ByteArrayOutputStream out) {
+    int numPostings = tokenInfo.numOccurrences();
+    int[] numbers = new int[numPostings];
+    int[] counts = new int[numPostings];
+    PostingsCursor postings = tokenInfo.postings();
+    for (int i = 0; postings.next(); i++) {
+      numbers[i] = docNumbers == null ? postings.docId() : docNumbers[postings.docId()];
+      counts[i] = postings.count();
+    }
+    encode(codec, numbers, counts, numPostings, out);
+  }
+
+  /**
+   * Bit-pack the postings from position start up to (not including) end as one block.
+   */
+  protected static void encodeBlock(int[] docNumbers, int[] counts, int start, int end,
+                                    ByteArrayOutputStream out) {
+    int previous = start == 0 ? -1 : docNumbers[start - 1];
+    // Find the number of bits needed for the largest gap and count in the block
+    int gapBits = 0, countBits = 0;
+    for (int i = start; i < end; i++) {
+      gapBits = Math.max(gapBits, bitsNeeded(docNumbers[i] - previous));
+      countBits = Math.max(countBits, bitsNeeded(counts[i]));
+      previous = docNumbers[i];
+    }
+    out.write(gapBits);
+    out.write(countBits);
+    // Pack the values least significant bit first into a 64 bit buffer,
+    // writing out every completed byte
+    long bits = 0;
+    int numBits = 0;
+    previous = start == 0 ? -1 : docNumbers[start - 1];
+    for (int i = start; i < end; i++) {
+      bits = bits | ((docNumbers[i] - previous) & 0xFFFFFFFFL) << numBits;
+      numBits = numBits + gapBits;
+      while (numBits >= 8) {
+        out.write((int) bits);
+        bits = bits >>> 8;
+        numBits = numBits - 8;
+      }
+      bits = bits | (counts[i] & 0xFFFFFFFFL) << numBits;
+      numBits = numBits + countBits;
+      while (numBits >= 8) {
+        out.write((int) bits);
+        bits = bits >>> 8;
+        numBits = numBits - 8;
+      }
+      previous = docNumbers[i];
+    }
+    // Pad the block to a whole byte
+    if (numBits > 0)
+      out.write((int) bits);
+  }
+
+  /**
+   * Return the number of bits needed to store an int as an unsigned value
+   */
+  protected static int bitsNeeded(int value) {
+    return 32 - Integer.numberOfLeadingZeros(value);
+  }
+
+  /**
+   * Write an int as four bytes, most significant first
+   */
+  protected static void writeInt(int value, ByteArrayOutputStream out) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  /**
+   * Write an int, taken as unsigned, as a variable-byte integer
+   */
+  protected static void writeVByte(int value, ByteArrayOutputStream out) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value = value >>> 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Return a cursor decoding postings in place from a buffer.
+   *
+   * @param codec       The codec used to encode the postings.
+   * @param data        The buffer holding the encoded postings.
+   * @param offset      The position of the first byte of the encoded postings in data.
+   * @param numPostings The number of encoded postings.
+   * @param docRefs     The indexed documents, in the order of their ids.
+   */
+  public static PostingsCursor cursor(final int codec, final ByteBuffer data, final int offset,
+                                      final int numPostings, final List<DocumentReference> docRefs) {
+    if (codec != RAW && codec != VBYTE && codec != PACKED)
+      throw new IllegalArgumentException("Unknown postings codec: " + codec);
+    return new PostingsCursor() {
+      // The position of the next byte to decode
+      int position = offset;
+      // The number of postings not yet decoded
+      int remaining = numPostings;
+      // The number of postings not yet decoded in the current PACKED block
+      int blockRemaining = 0;
+      // The bit widths of gaps and counts in the current PACKED block
+      int gapBits, countBits;
+      // Bits read from the current PACKED block but not yet decoded
+      long bits = 0;
+      int numBits = 0;
+      // The current posting
+      int docNumber = -1;
+      int count = 0;
+
+      public boolean next() {
+        if (remaining == 0)
+          return false;
+        remaining--;
+        switch (codec) {
+          case RAW:
+            docNumber = data.getInt(position);
+            count = data.getInt(position + 4);
+            position = position + 8;
+            break;
+          case VBYTE:
+            docNumber = docNumber + readVByte();
+            count = readVByte();
+            break;
+          case PACKED:
+            if (blockRemaining == 0) {
+              // Start a new block, dropping the padding of the previous one
+              gapBits = data.get(position++);
+              countBits = data.get(position++);
+              blockRemaining = BLOCK_SIZE;
+              bits = 0;
+              numBits = 0;
+            }
+            blockRemaining--;
+            docNumber = docNumber + readBits(gapBits);
+            count = readBits(countBits);
+            break;
+        }
+        return true;
+      }
+
+      /**
+       * Decode the variable-byte integer at the current position
+       */
+      int readVByte() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = data.get(position++);
+          value = value | (b & 0x7F) << shift;
+          shift = shift + 7;
+        }
+        while (b < 0);
+        return value;
+      }
+
+      /**
+       * Decode the next value of the given number of bits in the current block
+       */
+      int readBits(int width) {
+        while (numBits < width) {
+          bits = bits | (data.get(position++) & 0xFFL) << numBits;
+          numBits = numBits + 8;
+        }
+        int value = (int) (bits & ((1L << width) - 1));
+        bits = bits >>> width;
+        numBits = numBits - width;
+        return value;
+      }
+
+      public int docId() {
+        return docNumber;
+      }
+
+      public DocumentReference docRef() {
+        return docRefs.get(docNumber);
+      }
+
+      public int count() {
+        return count;
+      }
+
+      public boolean advance(int target) {
+        if (codec != RAW || docNumber >= target)
+          return super.advance(target);
+        // RAW postings have a fixed size, so binary search for the first one at or past
+        // the target, between the current one, which is before it, and the end
+        int low = (position - offset) / 8 - 1;
+        int high = numPostings;
+        while (high - low > 1) {
+          int middle = (low + high) >>> 1;
+          if (data.getInt(offset + 8 * middle) < target)
+            low = middle;
+          else
+            high = middle;
+        }
+        position = offset + 8 * high;
+        remaining = numPostings - high;
+        return next();
+      }
+    };
+  }
+
+}
@@ -0,0 +1,53 @@
+package ir.vsr;
+
+/**
+ * An iterator over the postings of a token in an inverted index, giving the
+ * document and occurrence count of each posting in turn without requiring a
+ * TokenOccurrence object for each.  Call next() to move to the first posting.
+ *
+ * @author Ray Mooney
+ */
+public abstract class PostingsCursor {
+
+  /**
+   * Move to the next posting.
+   *
+   * @return false if there are no more postings.
+   */
+  public abstract boolean next();
+
+  /**
+   * Return the id of the document of the current posting
+   *
+   * @see DocumentReference#id
+   */
+  public abstract int docId();
+
+  /**
+   * Return a reference to the document of the current posting
+   */
+  public abstract DocumentReference docRef();
+
+  /**
+   * Return the number of times the token occurs in the document of the current posting
+   */
+  public abstract int count();
+
+  /**
+   * Move forward to the first posting whose document id is at least target,
+   * staying put if the current posting already is.  The cursor must be on a
+   * posting, i.e. next() must have returned true.  Postings are in order of
+   * increasing document id, so subclasses may skip ahead without visiting
+   * every posting in between.
+   *
+   * @return false if there is no such posting.
+   */
+  public boolean advance(int target) {
+    while (docId() < target) {
+      if (!next())
+        return false;
+    }
+    return true;
+  }
+
+}
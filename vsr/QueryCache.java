@@ -0,0 +1,265 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A bounded cache of the ranked retrievals for query vectors, for use in front
+ * of InvertedIndex.retrieve when the same queries come up again and again.
+ * <p/>
+ * Queries are keyed on their normalized vector: the tokens with non-zero weight,
+ * in order of term id, with their weights divided by the largest absolute
+ * weight.  Since cosine similarity does not change when a query is scaled, a
+ * query and a multiple of it share an entry.  Each entry holds the top k
+ * retrievals for the k asked for, and also answers a request for fewer, or for
+ * any number if fewer than k documents matched.
+ * <p/>
+ * The cache is limited both in entries and in the total number of retrievals
+ * they hold, and evicts the least recently used entries to stay within both.
+ * All its methods are synchronized, so threads can share it.  An index clears
+ * its cache whenever its documents change; a ranking computed before such a
+ * change is not cached, since the generation it was computed in is then stale.
+ * The retrievals returned share their Retrieval objects with the cache, so they
+ * should not be modified.
+ *
+ * @author Ray Mooney
+ */
+public class QueryCache {
+
+  /**
+   * The default maximum number of queries in the cache
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  /**
+   * The default maximum total number of retrievals in the cache
+   */
+  public static final int DEFAULT_MAX_RETRIEVALS = 1000000;
+
+  /**
+   * A normalized query vector, usable as a hash key
+   */
+  protected static class Key {
+    final int[] termIds;
+    final double[] weights;
+    final int hashCode;
+
+    Key(HashMapVector vector) {
+      // Sort the tokens with non-zero weight by term id
+      int[] ids = new int[vector.size()];
+      int size = 0;
+      double maxWeight = 0;
+      for (int i = 0; i < vector.size(); i++) {
+        if (vector.weight(i) != 0) {
+          ids[size++] = vector.termId(i);
+          maxWeight = Math.max(maxWeight, Math.abs(vector.weight(i)));
+        }
+      }
+      termIds = Arrays.copyOf(ids, size);
+      Arrays.sort(termIds);
+      weights = new double[size];
+      for (int i = 0; i < size; i++)
+        weights[i] = vector.getWeight(termIds[i]) / maxWeight;
+      hashCode = 31 * Arrays.hashCode(termIds) + Arrays.hashCode(weights);
+    }
+
+    public int hashCode() {
+      return hashCode;
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key key = (Key) obj;
+      return hashCode == key.hashCode && Arrays.equals(termIds, key.termIds) && Arrays.equals(weights, key.weights);
+    }
+  }
+
+  /**
+   * The top retrievals cached for a query
+   */
+  protected static class Entry {
+    /**
+     * The number of retrievals asked for
+     */
+    final int k;
+    /**
+     * The top k retrievals, or all of them if fewer than k documents matched
+     */
+    final Retrieval[] retrievals;
+
+    Entry(int k, Retrieval[] retrievals) {
+      this.k = k;
+      this.retrievals = retrievals;
+    }
+
+    /**
+     * Can this entry give the top k retrievals?
+     */
+    boolean covers(int k) {
+      return k <= this.k || retrievals.length < this.k;
+    }
+  }
+
+  /**
+   * The entries from least to most recently used
+   */
+  protected final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+  /**
+   * The maximum number of entries
+   */
+  protected final int maxEntries;
+
+  /**
+   * The maximum total number of retrievals in the entries
+   */
+  protected final long maxRetrievals;
+
+  /**
+   * The total number of retrievals in the entries
+   */
+  protected long numRetrievals = 0;
+
+  /**
+   * The number of times the cache has been cleared, which stamps the rankings
+   * computed between clears
+   */
+  protected long generation = 0;
+
+  /**
+   * The number of lookups answered from the cache
+   */
+  protected long hits = 0;
+
+  /**
+   * The number of lookups not answered from the cache
+   */
+  protected long misses = 0;
+
+  /**
+   * The number of entries evicted to make room for others
+   */
+  protected long evictions = 0;
+
+  /**
+   * Create a cache holding at most the given number of queries and total
+   * number of retrievals.
+   */
+  public QueryCache(int maxEntries, long maxRetrievals) {
+    if (maxEntries < 1 || maxRetrievals < 1)
+      throw new IllegalArgumentException("QueryCache limits must be positive: " + maxEntries + ", " + maxRetrievals);
+    this.maxEntries = maxEntries;
+    this.maxRetrievals = maxRetrievals;
+  }
+
+  /**
+   * Create a cache with the default limits.
+   */
+  public QueryCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_RETRIEVALS);
+  }
+
+  /**
+   * Return the normalized key of a query vector
+   */
+  public static Object key(HashMapVector vector) {
+    return new Key(vector);
+  }
+
+  /**
+   * Return the top k cached retrievals for the query with the given key, or null
+   * if they are not in the cache.
+   */
+  public synchronized Retrieval[] get(Object key, int k) {
+    Entry entry = entries.get(key);
+    if (entry == null || !entry.covers(k)) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return Arrays.copyOf(entry.retrievals, Math.min(k, entry.retrievals.length));
+  }
+
+  /**
+   * Return the current generation, to be passed to put with the retrievals
+   * computed from now on.
+   */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Cache the top k retrievals for the query with the given key, unless the cache
+   * has been cleared since the given generation, evicting the least recently used
+   * entries as needed.  The array is kept, so it must not be modified later.
+   */
+  public synchronized void put(Object key, int k, Retrieval[] retrievals, long generation) {
+    if (generation != this.generation || retrievals.length > maxRetrievals)
+      return;
+    Entry old = entries.put((Key) key, new Entry(k, retrievals));
+    if (old != null)
+      numRetrievals -= old.retrievals.length;
+    numRetrievals += retrievals.length;
+    // Evict from the least recently used end until within both limits
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (entries.size() > maxEntries || numRetrievals > maxRetrievals) {
+      Entry eldest = iterator.next();
+      numRetrievals -= eldest.retrievals.length;
+      iterator.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Remove every entry, since the rankings they hold are out of date
+   */
+  public synchronized void clear() {
+    entries.clear();
+    numRetrievals = 0;
+    generation++;
+  }
+
+  /**
+   * Return the number of queries in the cache
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Return the number of lookups answered from the cache
+   */
+  public synchronized long hits() {
+    return hits;
+  }
+
+  /**
+   * Return the number of lookups not answered from the cache
+   */
+  public synchronized long misses() {
+    return misses;
+  }
+
+  /**
+   * Return the number of entries evicted to make room for others
+   */
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  /**
+   * Return the fraction of lookups answered from the cache
+   */
+  public synchronized double hitRate() {
+    return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+  }
+
+  /**
+   * Return a summary of the size and use of the cache
+   */
+  public synchronized String toString() {
+    return "QueryCache: " + entries.size() + " queries, " + numRetrievals + " retrievals, " +
+        hits + " hits, " + misses + " misses, " + evictions + " evictions, " + generation + " clears";
+  }
+
+}
@@ -0,0 +1,244 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * Answers queries concurrently on a fixed pool of threads over a read-only
+ * snapshot of an InvertedIndex (see InvertedIndex.snapshot).  Retrieval from a
+ * snapshot only reads shared data, and each pool thread keeps its own
+ * ScoreAccumulator for the snapshot, reused from query to query, so the threads
+ * never wait for each other and throughput grows with the number of cores.
+ * <p/>
+ * Queries wait in a bounded queue; when it is full, the thread submitting a
+ * query runs it itself, which slows down submitters instead of letting the
+ * queue grow without limit.  A new snapshot can be published at any time with
+ * setIndex, and queries submitted afterwards are answered from it.
+ *
+ * @author Ray Mooney
+ */
+public class QueryExecutor {
+
+  /**
+   * The default number of queries that can wait for a thread, per thread
+   */
+  public static final int QUEUE_SIZE_PER_THREAD = 64;
+
+  /**
+   * The snapshot queries are answered from
+   */
+  protected volatile InvertedIndex index;
+
+  /**
+   * The threads that answer queries
+   */
+  protected ThreadPoolExecutor workers;
+
+  /**
+   * Create an executor answering queries from the given read-only index with the
+   * given number of threads, queueing at most queueSize waiting queries.
+   */
+  public QueryExecutor(InvertedIndex index, int numThreads, int queueSize) {
+    if (numThreads < 1 || queueSize < 1)
+      throw new IllegalArgumentException("Number of threads and queue size must be positive: " +
+          numThreads + ", " + queueSize);
+    setIndex(index);
+    workers = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+      int numCreated = 0;
+
+      public synchronized Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "QueryExecutor " + (++numCreated));
+        // Do not keep the program alive just to answer queries
+        thread.setDaemon(true);
+        return thread;
+      }
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * Create an executor answering queries from the given read-only index with one
+   * thread per processor.
+   */
+  public QueryExecutor(InvertedIndex index) {
+    this(index, Runtime.getRuntime().availableProcessors(),
+        QUEUE_SIZE_PER_THREAD * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Answer queries submitted from now on from the given read-only index
+   */
+  public void setIndex(InvertedIndex index) {
+    if (!index.readOnly)
+      throw new IllegalArgumentException("QueryExecutor needs a read-only index; use InvertedIndex.snapshot()");
+    this.index = index;
+  }
+
+  /**
+   * Return the index queries are answered from
+   */
+  public InvertedIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Submit a query for its top k retrievals, which the returned Future gives
+   * when they are ready.
+   */
+  public Future<Retrieval[]> submit(final HashMapVector vector, final int k) {
+    final InvertedIndex index = this.index;
+    return workers.submit(new Callable<Retrieval[]>() {
+      public Retrieval[] call() {
+        return index.retrieve(vector, k);
+      }
+    });
+  }
+
+  /**
+   * Return the top k retrievals for a query, answered by one of the threads
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k) {
+    return get(submit(vector, k));
+  }
+
+  /**
+   * Return the top k retrievals for each of a list of queries, answered
+   * concurrently, in the order of the queries.
+   */
+  public List<Retrieval[]> retrieveAll(List<HashMapVector> vectors, int k) {
+    List<Future<Retrieval[]>> futures = new ArrayList<Future<Retrieval[]>>(vectors.size());
+    for (HashMapVector vector : vectors)
+      futures.add(submit(vector, k));
+    List<Retrieval[]> results = new ArrayList<Retrieval[]>(vectors.size());
+    for (Future<Retrieval[]> future : futures)
+      results.add(get(future));
+    return results;
+  }
+
+  /**
+   * Wait for and return the retrievals of a submitted query
+   */
+  protected static Retrieval[] get(Future<Retrieval[]> future) {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a query", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException("Could not answer a query", e.getCause());
+    }
+  }
+
+  /**
+   * Return the number of threads answering queries
+   */
+  public int numThreads() {
+    return workers.getMaximumPoolSize();
+  }
+
+  /**
+   * Stop the threads, after the queries already submitted are answered
+   */
+  public void shutdown() {
+    workers.shutdown();
+  }
+
+  /**
+   * Measure the throughput of answering queries with 1, 2, 4, ... threads, up
+   * to the number of processors.  Command format: "QueryExecutor [OPTION]* [DIR]"
+   * where DIR is the directory of documents to index, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-queries FILE" to replay the queries in FILE, one per line, instead of
+   * queries made of random words of the documents.
+   * "-k K" to retrieve the top K documents for each query.
+   * "-scoring N" to score queries with many postings on N threads.
+   * "-min N" to score queries in parallel from N postings on, instead of
+   * the default minParallelPostings.
+   */
+  public static void main(String[] args) {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    File queryFile = null;
+    int k = InvertedIndex.MAX_RETRIEVALS, scoringThreads = 0, minParallelPostings = -1;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-queries"))
+        queryFile = new File(args[++i]);
+      else if (flag.equals("-k"))
+        k = Integer.parseInt(args[++i]);
+      else if (flag.equals("-scoring"))
+        scoringThreads = Integer.parseInt(args[++i]);
+      else if (flag.equals("-min"))
+        minParallelPostings = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, false,
+        Runtime.getRuntime().availableProcessors());
+    if (scoringThreads > 0)
+      index.scoringPool = new ForkJoinPool(scoringThreads);
+    if (minParallelPostings >= 0)
+      index.minParallelPostings = minParallelPostings;
+    index = index.snapshot();
+    // The queries to replay
+    List<HashMapVector> queries = new ArrayList<HashMapVector>();
+    if (queryFile != null) {
+      try {
+        BufferedReader in = new BufferedReader(new FileReader(queryFile));
+        String line;
+        while ((line = in.readLine()) != null)
+          queries.add(new TextStringDocument(line, stem, true).hashMapVector());
+        in.close();
+      }
+      catch (IOException e) {
+        System.out.println("\nCould not read queries from " + queryFile);
+        System.exit(1);
+      }
+    } else {
+      // Make queries of 2 to 4 tokens taken from random documents
+      Random random = new Random(1);
+      for (int i = 0; i < 20000; i++) {
+        HashMapVector doc = index.documentVector(index.docRefs.get(random.nextInt(index.docRefs.size())));
+        HashMapVector query = new HashMapVector();
+        for (int j = 2 + random.nextInt(3); j > 0; j--)
+          query.increment(doc.termId(random.nextInt(doc.size())), 1);
+        queries.add(query);
+      }
+    }
+    int numProcessors = Runtime.getRuntime().availableProcessors();
+    double serialRate = 0;
+    for (int numThreads = 1; numThreads <= numProcessors; numThreads = numThreads * 2) {
+      QueryExecutor executor = new QueryExecutor(index, numThreads, QUEUE_SIZE_PER_THREAD * numThreads);
+      // Warm up, then take the best of several replays
+      executor.retrieveAll(queries, k);
+      long best = Long.MAX_VALUE;
+      for (int round = 0; round < 3; round++) {
+        long start = System.nanoTime();
+        executor.retrieveAll(queries, k);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      executor.shutdown();
+      double rate = queries.size() / (best / 1e9);
+      if (numThreads == 1)
+        serialRate = rate;
+      System.out.println(numThreads + " threads: " + Math.round(rate) + " queries/s, speedup " +
+          MoreMath.roundTo(rate / serialRate, 2));
+      if (numThreads < numProcessors && numThreads * 2 > numProcessors)
+        numThreads = numProcessors / 2;
+    }
+  }
+
+}
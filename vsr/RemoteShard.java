@@ -0,0 +1,141 @@
+package ir.vsr;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A shard of a collection served by a ShardServer in another process.  Each
+ * call is one HTTP request; a failed request throws an IllegalStateException.
+ * <p/>
+ * Query tokens are sent as strings rather than term ids, since term ids are
+ * only meaningful within one process.  The retrievals returned refer to new
+ * DocumentReferences holding the document's id in the shard and its file, but
+ * not its length.
+ *
+ * @author Ray Mooney
+ */
+public class RemoteShard extends IndexShard {
+
+  /**
+   * The time in milliseconds to wait to connect to the server
+   */
+  public static final int CONNECT_TIMEOUT = 5000;
+
+  /**
+   * The URL of the server, such as "http://localhost:8090/"
+   */
+  protected String baseUrl;
+
+  /**
+   * The number of documents in the shard, as of the last call to statistics
+   */
+  protected int numDocuments = 0;
+
+  /**
+   * Create a shard served at the given URL
+   */
+  public RemoteShard(String baseUrl) {
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+  }
+
+  /**
+   * Return the statistics of the documents in this shard
+   */
+  public CollectionStatistics statistics() {
+    try {
+      HttpURLConnection connection = connect("statistics", "GET");
+      CollectionStatistics statistics =
+          CollectionStatistics.read(new InputStreamReader(response(connection), StandardCharsets.UTF_8));
+      numDocuments = statistics.numDocuments;
+      return statistics;
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Could not get statistics from shard " + baseUrl, e);
+    }
+  }
+
+  /**
+   * Compute IDF factors and document lengths from the statistics of the whole
+   * collection from now on.
+   */
+  public void setCollectionStatistics(CollectionStatistics statistics) {
+    try {
+      HttpURLConnection connection = connect("statistics", "POST");
+      statistics.write(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+      response(connection).close();
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Could not set statistics of shard " + baseUrl, e);
+    }
+  }
+
+  /**
+   * Return the top k retrievals in this shard for a query vector, with their
+   * scores normalized by the given length of the query in the whole collection.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k, double queryLength) {
+    try {
+      HttpURLConnection connection = connect("search?k=" + k + "&length=" + queryLength, "POST");
+      Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+      for (int i = 0; i < vector.size(); i++)
+        out.write(vector.term(i) + "\t" + vector.weight(i) + "\n");
+      out.close();
+      BufferedReader in = new BufferedReader(new InputStreamReader(response(connection), StandardCharsets.UTF_8));
+      List<Retrieval> retrievals = new ArrayList<Retrieval>();
+      String line;
+      while ((line = in.readLine()) != null) {
+        int tab1 = line.indexOf('\t');
+        int tab2 = line.indexOf('\t', tab1 + 1);
+        DocumentReference docRef = new DocumentReference(new File(line.substring(tab2 + 1)), 0.0);
+        docRef.id = Integer.parseInt(line.substring(0, tab1));
+        retrievals.add(new Retrieval(docRef, Double.parseDouble(line.substring(tab1 + 1, tab2))));
+      }
+      in.close();
+      return retrievals.toArray(new Retrieval[retrievals.size()]);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Could not search shard " + baseUrl, e);
+    }
+  }
+
+  /**
+   * Return the number of documents in this shard, as of the last call to
+   * statistics
+   */
+  public int numDocuments() {
+    return numDocuments;
+  }
+
+  /**
+   * Open a connection for a request to the given path of the server
+   */
+  protected HttpURLConnection connect(String path, String method) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setRequestMethod(method);
+    if (method.equals("POST"))
+      connection.setDoOutput(true);
+    return connection;
+  }
+
+  /**
+   * Return the body of the response to a request, throwing an IOException
+   * holding the server's message if it failed.
+   */
+  protected static InputStream response(HttpURLConnection connection) throws IOException {
+    int status = connection.getResponseCode();
+    if (status != HttpURLConnection.HTTP_OK) {
+      String message = "";
+      InputStream error = connection.getErrorStream();
+      if (error != null) {
+        message = new String(error.readAllBytes(), StandardCharsets.UTF_8).trim();
+        error.close();
+      }
+      throw new IOException("Status " + status + " from " + connection.getURL() + ": " + message);
+    }
+    return connection.getInputStream();
+  }
+
+}
@@ -5,7 +5,7 @@ package ir.vsr;
  *
  * @author Ray Mooney
  */
-public class Retrieval implements Comparable {
+public class Retrieval implements Comparable<Retrieval> {
 
   /**
    * A reference to the Document being retrieved
@@ -16,30 +16,59 @@ public class Retrieval implements Comparable {
    * mean it is more relevant to the query
    */
   public double score;
+  /**
+   * The number that orders this document among others with the same score.
+   * It must be unique among all the retrievals ranked together.  It is the
+   * document's id by default, which is only unique within one InvertedIndex.
+   * Retrievals from several indexes need a number that is global to them,
+   * such as a document's number across all the segments of a SegmentedIndex.
+   */
+  public int docNumber;
 
   /**
-   * Create a retrieval with these values
+   * Create a retrieval with these values, ordered among equal scores by the
+   * document's id in its index
    */
   public Retrieval(DocumentReference docRef, double score) {
+    this(docRef, score, docRef.id);
+  }
+
+  /**
+   * Create a retrieval with these values, ordered among equal scores by the
+   * given document number
+   */
+  public Retrieval(DocumentReference docRef, double score, int docNumber) {
     this.docRef = docRef;
     this.score = score;
+    this.docNumber = docNumber;
   }
 
   /**
    * Compares this Retrieval to another for sorting from best to worst.
+   * Retrievals with the same score are ordered by docNumber so that
+   * rankings are always the same.
    *
-   * @param obj The Retrieval to compare with.
-   * @return -1 if better than obj, 0 if same, 1 if worse than obj
+   * @param retrieval The Retrieval to compare with.
+   * @return -1 if better than retrieval, 0 if same, 1 if worse than retrieval
    *         since this will produce a descending sort from best to worst.
    * @see java.util.Arrays#sort
    */
-  public int compareTo(Object obj) {
-    Retrieval retrieval = (Retrieval) obj;
+  public int compareTo(Retrieval retrieval) {
     if (score == retrieval.score)
-      return 0;
+      return isBetterThan(retrieval.score, retrieval.docNumber) ? -1 :
+          (docNumber == retrieval.docNumber ? 0 : 1);
     else if (score > retrieval.score)
       return -1;
     else return 1;
   }
 
+  /**
+   * Is this Retrieval ranked before a retrieval of the document with the given
+   * number and score?  Lets a retrieval be compared to a candidate without
+   * creating a Retrieval for the candidate.
+   */
+  public boolean isBetterThan(double score, int docNumber) {
+    return this.score > score || (this.score == score && this.docNumber < docNumber);
+  }
+
 }
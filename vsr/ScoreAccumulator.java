@@ -0,0 +1,73 @@
+package ir.vsr;
+
+/**
+ * Accumulates the partial retrieval scores of documents, indexed by document id,
+ * in a plain array instead of a HashMap of DoubleValue's.  Also remembers which
+ * documents have been scored so far so that they can be listed, and the
+ * accumulator cleared for reuse, in time proportional to their number rather
+ * than the size of the collection.
+ *
+ * @author Ray Mooney
+ */
+public class ScoreAccumulator {
+
+  /**
+   * The score accumulated for each document, by document id
+   */
+  public double[] scores;
+
+  /**
+   * The ids of the documents scored so far, in the order they were first scored
+   */
+  public int[] scoredIds;
+
+  /**
+   * The number of documents scored so far
+   */
+  public int numScored = 0;
+
+  /**
+   * Whether each document has been scored so far, by document id
+   */
+  protected boolean[] scored;
+
+  /**
+   * Create an empty accumulator for documents with ids up to numDocs - 1
+   */
+  public ScoreAccumulator(int numDocs) {
+    scores = new double[numDocs];
+    scoredIds = new int[numDocs];
+    scored = new boolean[numDocs];
+  }
+
+  /**
+   * Return the number of documents this accumulator can hold
+   */
+  public int capacity() {
+    return scores.length;
+  }
+
+  /**
+   * Add to the score of a document
+   */
+  public void add(int docId, double score) {
+    if (!scored[docId]) {
+      scored[docId] = true;
+      scoredIds[numScored++] = docId;
+    }
+    scores[docId] = scores[docId] + score;
+  }
+
+  /**
+   * Reset the scores of all the documents scored so far
+   */
+  public void clear() {
+    for (int i = 0; i < numScored; i++) {
+      int docId = scoredIds[i];
+      scores[docId] = 0.0;
+      scored[docId] = false;
+    }
+    numScored = 0;
+  }
+
+}
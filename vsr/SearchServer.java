@@ -0,0 +1,315 @@
+package ir.vsr;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.*;
+
+import ir.utilities.*;
+
+/**
+ * An HTTP search service over a read-only InvertedIndex, using the JDK's
+ * built-in HTTP server.  It listens only on the loopback address, so it can be
+ * load tested locally without being exposed, and answers:
+ * <pre>
+ *   GET /search?q=QUERY&k=K   the top K (default 10) retrievals for QUERY as JSON
+ *   GET /stats                the latency percentiles of the searches so far as JSON
+ * </pre>
+ * A search answers with an object holding the query, k, the time taken in
+ * milliseconds, and an array of results in ranked order, each with its rank,
+ * document id, file name and score.  Bad requests get status 400 and an
+ * object with an error message, as do failed searches with status 500.
+ * <p/>
+ * Requests are handled on a fixed pool of threads that share the index, which
+ * should be a snapshot (see InvertedIndex.snapshot), and the time each search
+ * takes, from receiving the request to sending the response, is recorded in a
+ * LatencyHistogram.
+ *
+ * @author Ray Mooney
+ */
+public class SearchServer {
+
+  /**
+   * The default port to listen on
+   */
+  public static final int DEFAULT_PORT = 8080;
+
+  /**
+   * The largest number of retrievals a search can ask for
+   */
+  public static final int MAX_K = 1000;
+
+  /**
+   * The index searched
+   */
+  protected InvertedIndex index;
+
+  /**
+   * The HTTP server
+   */
+  protected HttpServer server;
+
+  /**
+   * The threads that handle requests
+   */
+  protected ExecutorService workers;
+
+  /**
+   * The latency of each search answered
+   */
+  public final LatencyHistogram latencies = new LatencyHistogram();
+
+  /**
+   * Create a server for the given read-only index listening on the given
+   * port of the loopback address, or any free port if it is 0, and handling
+   * requests with the given number of threads.  Call start to begin serving.
+   */
+  public SearchServer(InvertedIndex index, int port, int numThreads) throws IOException {
+    if (!index.readOnly)
+      throw new IllegalArgumentException("SearchServer needs a read-only index; use InvertedIndex.snapshot()");
+    if (numThreads < 1)
+      throw new IllegalArgumentException("Number of threads must be positive: " + numThreads);
+    this.index = index;
+    // Make sure the stopwords are loaded before several threads create query Documents
+    if (Document.stopWords == null)
+      Document.loadStopWords();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    workers = Executors.newFixedThreadPool(numThreads);
+    server.setExecutor(workers);
+    server.createContext("/search", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          search(exchange);
+        }
+        catch (RuntimeException e) {
+          send(exchange, 500, error("Could not answer search: " + e));
+        }
+      }
+    });
+    server.createContext("/stats", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        stats(exchange);
+      }
+    });
+  }
+
+  /**
+   * Start answering requests
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stop answering requests, waiting at most the given number of seconds for
+   * those being handled to finish.
+   */
+  public void stop(int delay) {
+    server.stop(delay);
+    workers.shutdown();
+  }
+
+  /**
+   * Return the port the server listens on
+   */
+  public int port() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Answer a search request with the top retrievals for its query
+   */
+  protected void search(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    Map<String, String> parameters = parameters(exchange.getRequestURI());
+    String query = parameters.get("q");
+    if (query == null || query.trim().length() == 0) {
+      send(exchange, 400, error("Missing query parameter q"));
+      return;
+    }
+    int k = InvertedIndex.MAX_RETRIEVALS;
+    if (parameters.containsKey("k")) {
+      try {
+        k = Integer.parseInt(parameters.get("k"));
+      }
+      catch (NumberFormatException e) {
+        k = 0;
+      }
+      if (k < 1 || k > MAX_K) {
+        send(exchange, 400, error("Parameter k must be from 1 to " + MAX_K));
+        return;
+      }
+    }
+    Retrieval[] retrievals = index.retrieve(new TextStringDocument(query, index.stem, true).hashMapVector(), k);
+    StringBuilder json = new StringBuilder();
+    json.append("{\"query\":").append(quote(query)).append(",\"k\":").append(k);
+    json.append(",\"took_ms\":").append(MoreMath.roundTo((System.nanoTime() - start) / 1e6, 3));
+    json.append(",\"results\":[");
+    for (int i = 0; i < retrievals.length; i++) {
+      if (i > 0)
+        json.append(',');
+      json.append("{\"rank\":").append(i + 1).append(",\"id\":").append(retrievals[i].docRef.id);
+      json.append(",\"file\":").append(quote(retrievals[i].docRef.file.getName()));
+      json.append(",\"score\":").append(retrievals[i].score).append('}');
+    }
+    json.append("]}");
+    send(exchange, 200, json.toString());
+    latencies.record(System.nanoTime() - start);
+  }
+
+  /**
+   * Answer a stats request with the number of searches and their latency
+   * percentiles in milliseconds
+   */
+  protected void stats(HttpExchange exchange) throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"searches\":").append(latencies.count());
+    json.append(",\"mean_ms\":").append(MoreMath.roundTo(latencies.mean() / 1e6, 3));
+    double[] percents = {50, 90, 99, 99.9};
+    String[] names = {"p50", "p90", "p99", "p999"};
+    for (int i = 0; i < percents.length; i++) {
+      json.append(",\"").append(names[i]).append("_ms\":");
+      json.append(MoreMath.roundTo(latencies.percentile(percents[i]) / 1e6, 3));
+    }
+    json.append(",\"max_ms\":").append(MoreMath.roundTo(latencies.max() / 1e6, 3));
+    QueryCache queryCache = index.queryCache;
+    if (queryCache != null) {
+      json.append(",\"cache_hits\":").append(queryCache.hits());
+      json.append(",\"cache_misses\":").append(queryCache.misses());
+    }
+    json.append('}');
+    send(exchange, 200, json.toString());
+  }
+
+  /**
+   * Send a JSON response with the given status
+   */
+  protected static void send(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  /**
+   * Return a JSON object holding an error message
+   */
+  protected static String error(String message) {
+    return "{\"error\":" + quote(message) + "}";
+  }
+
+  /**
+   * Return the decoded parameters of the query string of a request URI
+   */
+  protected static Map<String, String> parameters(URI uri) {
+    Map<String, String> parameters = new HashMap<String, String>();
+    String queryString = uri.getRawQuery();
+    if (queryString == null)
+      return parameters;
+    for (String parameter : MoreString.segment(queryString, '&')) {
+      int equals = parameter.indexOf('=');
+      if (equals > 0)
+        parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+            URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+    }
+    return parameters;
+  }
+
+  /**
+   * Return a string as a quoted JSON string
+   */
+  protected static String quote(String string) {
+    StringBuilder quoted = new StringBuilder(string.length() + 2);
+    quoted.append('"');
+    for (int i = 0; i < string.length(); i++) {
+      char ch = string.charAt(i);
+      if (ch == '"' || ch == '\\')
+        quoted.append('\\').append(ch);
+      else if (ch < ' ')
+        quoted.append(String.format("\\u%04x", (int) ch));
+      else
+        quoted.append(ch);
+    }
+    return quoted.append('"').toString();
+  }
+
+  /**
+   * Index a directory of files, or load a saved index, and serve searches of it
+   * until the program is stopped.  Command format: "SearchServer [OPTION]* [DIR]"
+   * where DIR is the name of the directory whose files should be indexed, and
+   * OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-index FILE" to load the index from FILE if it exists, else to index DIR and save the index to FILE.
+   * "-mapped" to memory-map the postings of an index loaded with "-index" instead of reading them.
+   * "-port N" to listen on port N of localhost instead of DEFAULT_PORT.
+   * "-threads N" to index and handle requests with N threads instead of one per processor.
+   * "-cache N" to cache the retrievals of the last N distinct queries.
+   * "-scoring N" to score queries with many postings on N threads.
+   */
+  public static void main(String[] args) {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false, mapped = false;
+    int port = DEFAULT_PORT, numThreads = Runtime.getRuntime().availableProcessors(), cacheSize = 0;
+    int scoringThreads = 0;
+    File indexFile = null;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-mapped"))
+        mapped = true;
+      else if (flag.equals("-port"))
+        port = Integer.parseInt(args[++i]);
+      else if (flag.equals("-threads"))
+        numThreads = Integer.parseInt(args[++i]);
+      else if (flag.equals("-cache"))
+        cacheSize = Integer.parseInt(args[++i]);
+      else if (flag.equals("-scoring"))
+        scoringThreads = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index = null;
+    try {
+      if (indexFile != null && indexFile.exists()) {
+        System.out.println("Loading index from " + indexFile);
+        index = mapped ? InvertedIndex.loadMapped(indexFile) : InvertedIndex.load(indexFile);
+      } else {
+        index = new InvertedIndex(new File(dirName), docType, stem, false, numThreads);
+        if (indexFile != null)
+          index.save(indexFile);
+      }
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not load or save index file: " + indexFile);
+      System.exit(1);
+    }
+    if (scoringThreads > 0)
+      index.scoringPool = new ForkJoinPool(scoringThreads);
+    index = index.snapshot();
+    if (cacheSize > 0)
+      index.queryCache = new QueryCache(cacheSize, QueryCache.DEFAULT_MAX_RETRIEVALS);
+    try {
+      SearchServer server = new SearchServer(index, port, numThreads);
+      server.start();
+      System.out.println("Serving " + index.numDocuments() + " documents at http://localhost:" +
+          server.port() + "/search?q=...&k=...");
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not listen on port " + port);
+      System.exit(1);
+    }
+  }
+
+}
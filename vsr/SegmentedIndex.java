@@ -0,0 +1,747 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * An inverted index split into segments so that documents can keep being
+ * added and deleted while it is being queried.  Each segment is an InvertedIndex
+ * with its own token dictionary, postings and table of documents, which is
+ * never changed once it is built except for marking documents deleted.
+ * <p/>
+ * Added documents are indexed into an in-memory buffer, which becomes a new
+ * segment visible to queries once it holds maxBufferedDocuments documents or
+ * when flush is called.  Segments are grouped into tiers by size, each tier
+ * holding segments up to mergeFactor times larger than the one below, and
+ * whenever a tier has mergeFactor segments a background thread merges them into
+ * one segment of the next tier, dropping deleted documents.  So the number of
+ * segments only grows with the logarithm of the number of documents.
+ * <p/>
+ * Queries fan out over all the segments using the IDF factors and document
+ * lengths of the whole collection, so documents are scored just as by a single
+ * InvertedIndex.  Documents with equal scores are ranked by their number across
+ * the segments, which is the order they were added in, so the ranking is the
+ * same as that of an InvertedIndex of the same documents in the same order.
+ * <p/>
+ * The number of documents each token occurs in is counted once per segment,
+ * when it is added (or, after deletes, on the next flush), and the totals over
+ * all segments are kept up to date by adding and subtracting those counts, so a
+ * flush only reads the postings of the segments that changed to get the IDF
+ * factors.  These global statistics are published with the list of segments in
+ * an immutable Snapshot.  Every IDF factor changes with the number of
+ * documents, so the document lengths take a pass over all the postings; a
+ * snapshot computes them when it is first queried, outside the lock that adding
+ * documents takes, so that flushing does not grow with the collection and
+ * flushes with no query in between cost one pass at most.  A query runs without
+ * locking against the snapshot current when it starts, while new segments and
+ * merges replace it, so query latency does not depend on indexing going on.
+ *
+ * @author Ray Mooney
+ */
+public class SegmentedIndex {
+
+  /**
+   * The default number of documents buffered before they become a segment
+   */
+  public static final int MAX_BUFFERED_DOCUMENTS = 1000;
+
+  /**
+   * The default number of segments in a tier that are merged together
+   */
+  public static final int MERGE_FACTOR = 10;
+
+  /**
+   * The type of Document (TYPE_TEXT or TYPE_HTML) of files added by name.
+   * See docType in DocumentIterator.
+   */
+  public short docType = DocumentIterator.TYPE_TEXT;
+
+  /**
+   * Whether tokens are stemmed with Porter stemmer
+   */
+  public boolean stem = false;
+
+  /**
+   * The number of documents buffered before they become a segment
+   */
+  public int maxBufferedDocuments = MAX_BUFFERED_DOCUMENTS;
+
+  /**
+   * The number of segments in a tier that are merged together
+   */
+  public int mergeFactor = MERGE_FACTOR;
+
+  /**
+   * The segments visible to queries, and their global statistics
+   */
+  protected static class Snapshot {
+    /**
+     * The segments, in the order their documents were added
+     */
+    List<InvertedIndex> segments;
+    /**
+     * The number of the first document of each segment when the documents of
+     * all the segments are numbered in order
+     */
+    int[] bases;
+    /**
+     * The documents of all the segments, by number, including deleted ones
+     */
+    DocumentReference[] docRefs;
+    /**
+     * The length of the vector of each document under the global IDF factors,
+     * by number, or null until it is first needed (see lengths())
+     */
+    volatile double[] lengths;
+    /**
+     * The global IDF factor of each token by term id, leaving out tokens with an IDF of 0
+     */
+    TermMap<Double> idf;
+    /**
+     * The number of documents in the segments, not counting deleted ones
+     */
+    int numDocuments;
+
+    /**
+     * Return the length of the vector of each document by number, computing
+     * them the first time.  The segments do not change, so this only locks the
+     * snapshot, not the index.
+     */
+    double[] lengths() {
+      double[] lengths = this.lengths;
+      if (lengths == null) {
+        synchronized (this) {
+          lengths = this.lengths;
+          if (lengths == null) {
+            lengths = computeLengths();
+            this.lengths = lengths;
+          }
+        }
+      }
+      return lengths;
+    }
+
+    /**
+     * Sum the squares of the weights (IDF * occurrence count) of each
+     * document's tokens, and take the square-root to get its length.
+     */
+    double[] computeLengths() {
+      double[] lengths = new double[docRefs.length];
+      for (int i = 0; i < segments.size(); i++) {
+        TermMap<TokenInfo> tokenInfos = segments.get(i).tokenInfos;
+        // In order of term id, as a single InvertedIndex sums them
+        int[] termIds = tokenInfos.termIds();
+        Arrays.sort(termIds);
+        for (int termId : termIds) {
+          Double idf = this.idf.get(termId);
+          if (idf == null)
+            continue;
+          for (TokenOccurrence occ : tokenInfos.get(termId).occList) {
+            int number = bases[i] + occ.docRef.id;
+            lengths[number] = lengths[number] + Math.pow(idf * occ.count, 2);
+          }
+        }
+      }
+      for (int i = 0; i < lengths.length; i++)
+        lengths[i] = Math.sqrt(lengths[i]);
+      return lengths;
+    }
+  }
+
+  /**
+   * The number of documents not deleted, and the number of them each token
+   * occurs in, in one or more segments
+   */
+  protected static class DocumentCounts {
+    /**
+     * The number of documents not deleted
+     */
+    int numDocuments = 0;
+    /**
+     * The number of documents not deleted that each token occurs in by term id,
+     * leaving out tokens in none
+     */
+    TermMap<Integer> numDocsWithToken = new TermMap<Integer>();
+  }
+
+  /**
+   * The current Snapshot, replaced whenever the segments or statistics change
+   */
+  protected volatile Snapshot snapshot;
+
+  /**
+   * The index of the added documents not yet in a segment
+   */
+  protected InvertedIndex buffer = new InvertedIndex();
+
+  /**
+   * The document counts of each segment in the current snapshot, as of the last flush
+   */
+  protected Map<InvertedIndex, DocumentCounts> segmentCounts = new IdentityHashMap<InvertedIndex, DocumentCounts>();
+
+  /**
+   * The sum of the document counts of all the segments in the current snapshot
+   */
+  protected DocumentCounts totalCounts = new DocumentCounts();
+
+  /**
+   * The segments with documents deleted since their document counts were taken
+   */
+  protected Set<InvertedIndex> staleSegments = Collections.newSetFromMap(new IdentityHashMap<InvertedIndex, Boolean>());
+
+  /**
+   * The first document not deleted stored in each file, in the segments or the buffer
+   */
+  protected Map<File, DocumentReference> docRefsByFile = new HashMap<File, DocumentReference>();
+
+  /**
+   * Whether more than one document not deleted was added from the same file
+   */
+  protected boolean duplicateFiles = false;
+
+  /**
+   * Whether a merge is running in the background
+   */
+  protected boolean merging = false;
+
+  /**
+   * The single background thread that merges segments
+   */
+  protected ExecutorService merger;
+
+  /**
+   * The accumulator of each thread for the scores of the documents, by number
+   */
+  protected ThreadLocal<ScoreAccumulator> accumulators = new ThreadLocal<ScoreAccumulator>();
+
+  /**
+   * Create an empty segmented index.
+   *
+   * @param docType The type of documents added by file name (See docType in DocumentIterator)
+   * @param stem    Whether tokens should be stemmed with Porter stemmer.
+   */
+  public SegmentedIndex(short docType, boolean stem) {
+    this.docType = docType;
+    this.stem = stem;
+    snapshot = computeSnapshot(new ArrayList<InvertedIndex>());
+    merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "SegmentedIndex merger");
+        // Do not keep the program alive just to merge
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Add a document to the index.  It becomes visible to queries when the buffer
+   * it is added to is flushed to a new segment.
+   *
+   * @return The reference to the document in the buffer.
+   */
+  public DocumentReference addDocument(FileDocument doc) {
+    // Tokenize the document before locking so adds from several threads overlap
+    HashMapVector vector = doc.hashMapVector();
+    synchronized (this) {
+      buffer.indexDocument(doc, vector);
+      DocumentReference docRef = buffer.docRefs.get(buffer.docRefs.size() - 1);
+      if (docRefsByFile.putIfAbsent(docRef.file, docRef) != null)
+        duplicateFiles = true;
+      if (buffer.docRefs.size() >= maxBufferedDocuments)
+        flush();
+      return docRef;
+    }
+  }
+
+  /**
+   * Add the document in the given file to the index, reading it as this
+   * index's docType (see addDocument(FileDocument)).
+   *
+   * @return The reference to the document in the buffer.
+   */
+  public DocumentReference addDocument(File file) {
+    if (docType == DocumentIterator.TYPE_HTML)
+      return addDocument(new HTMLFileDocument(file, stem));
+    else
+      return addDocument(new TextFileDocument(file, stem));
+  }
+
+  /**
+   * Delete the document stored in the given file, if any, from the index.
+   * It is no longer retrieved right away, but the global statistics only
+   * reflect the delete after the next flush, and its postings are only dropped
+   * when its segment is merged.
+   *
+   * @return false if no document in the index is stored in the file.
+   */
+  public synchronized boolean deleteDocument(File file) {
+    DocumentReference docRef = docRefsByFile.remove(file);
+    if (docRef == null)
+      return false;
+    docRef.deleted = true;
+    // Find the segment holding the document, by the document's id in it; the
+    // buffer is only counted when it is flushed
+    for (InvertedIndex segment : snapshot.segments) {
+      if (docRef.id < segment.docRefs.size() && segment.docRefs.get(docRef.id) == docRef) {
+        staleSegments.add(segment);
+        break;
+      }
+    }
+    if (duplicateFiles) {
+      // Only when files have been added more than once is there a need to
+      // search for another document stored in the same file
+      List<InvertedIndex> indexes = new ArrayList<InvertedIndex>(snapshot.segments);
+      indexes.add(buffer);
+      for (InvertedIndex index : indexes) {
+        for (DocumentReference other : index.docRefs) {
+          if (!other.deleted && other.file.equals(file) && !docRefsByFile.containsKey(file))
+            docRefsByFile.put(file, other);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Make all the documents added so far visible to queries as a new segment,
+   * update the global statistics for it and for documents deleted since the
+   * last flush, and start merging segments if there are enough of the same size.
+   */
+  public synchronized void flush() {
+    if (buffer.docRefs.isEmpty() && staleSegments.isEmpty())
+      return;
+    List<InvertedIndex> segments = new ArrayList<InvertedIndex>(snapshot.segments);
+    for (InvertedIndex segment : staleSegments)
+      recount(segment);
+    staleSegments.clear();
+    if (!buffer.docRefs.isEmpty()) {
+      segments.add(buffer);
+      recount(buffer);
+      buffer = new InvertedIndex();
+    }
+    snapshot = computeSnapshot(segments);
+    maybeMerge();
+  }
+
+  /**
+   * Wait for any merges in the background to finish.
+   */
+  public synchronized void waitForMerges() {
+    try {
+      while (merging)
+        wait();
+    }
+    catch (InterruptedException e) {
+      throw new IllegalStateException("Interrupted while waiting for merges", e);
+    }
+  }
+
+  /**
+   * Stop the background merging, after waiting for the current merge to finish.
+   */
+  public void close() {
+    waitForMerges();
+    merger.shutdown();
+  }
+
+  /**
+   * Return the number of segments visible to queries
+   */
+  public int numSegments() {
+    return snapshot.segments.size();
+  }
+
+  /**
+   * Return the number of documents visible to queries, not counting deleted ones
+   */
+  public int numDocuments() {
+    return snapshot.numDocuments;
+  }
+
+  /**
+   * Count the documents not deleted in a segment, and the number each token
+   * occurs in, and replace its previous counts, if any, in the totals.
+   */
+  protected void recount(InvertedIndex segment) {
+    DocumentCounts counts = new DocumentCounts();
+    for (DocumentReference docRef : segment.docRefs) {
+      if (!docRef.deleted)
+        counts.numDocuments++;
+    }
+    for (int termId : segment.tokenInfos.termIds()) {
+      int count = 0;
+      for (TokenOccurrence occ : segment.tokenInfos.get(termId).occList) {
+        if (!occ.docRef.deleted)
+          count++;
+      }
+      if (count > 0)
+        counts.numDocsWithToken.put(termId, count);
+    }
+    DocumentCounts previous = segmentCounts.put(segment, counts);
+    if (previous != null)
+      addCounts(totalCounts, previous, -1);
+    addCounts(totalCounts, counts, 1);
+  }
+
+  /**
+   * Add the given multiple (1 or -1) of some document counts to others,
+   * dropping tokens whose count falls to 0.
+   */
+  protected static void addCounts(DocumentCounts sum, DocumentCounts counts, int multiple) {
+    sum.numDocuments = sum.numDocuments + multiple * counts.numDocuments;
+    for (int termId : counts.numDocsWithToken.termIds()) {
+      Integer previous = sum.numDocsWithToken.get(termId);
+      int count = (previous == null ? 0 : previous) + multiple * counts.numDocsWithToken.get(termId);
+      if (count == 0)
+        sum.numDocsWithToken.remove(termId);
+      else
+        sum.numDocsWithToken.put(termId, count);
+    }
+  }
+
+  /**
+   * Compute a snapshot of the given segments with their global statistics:
+   * the IDF factor of each token, from the total document counts of the
+   * segments.  The length of each document vector under those factors is left
+   * for the snapshot to compute when it is first queried.  Deleted documents
+   * are ignored.
+   */
+  protected Snapshot computeSnapshot(List<InvertedIndex> segments) {
+    Snapshot snapshot = new Snapshot();
+    snapshot.segments = Collections.unmodifiableList(segments);
+    snapshot.bases = new int[segments.size()];
+    int numDocRefs = 0;
+    for (int i = 0; i < segments.size(); i++) {
+      snapshot.bases[i] = numDocRefs;
+      numDocRefs = numDocRefs + segments.get(i).docRefs.size();
+    }
+    snapshot.docRefs = new DocumentReference[numDocRefs];
+    for (int i = 0; i < segments.size(); i++) {
+      for (DocumentReference docRef : segments.get(i).docRefs)
+        snapshot.docRefs[snapshot.bases[i] + docRef.id] = docRef;
+    }
+    snapshot.numDocuments = totalCounts.numDocuments;
+    TermMap<Integer> numDocsWithToken = totalCounts.numDocsWithToken;
+    double N = snapshot.numDocuments;
+    snapshot.idf = new TermMap<Double>(numDocsWithToken.size());
+    for (int termId : numDocsWithToken.termIds()) {
+      double idf = Math.log(N / numDocsWithToken.get(termId));
+      if (idf != 0.0)
+        snapshot.idf.put(termId, idf);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Start merging the first mergeFactor segments of the smallest tier that has
+   * that many, unless a merge is already running.
+   */
+  protected synchronized void maybeMerge() {
+    if (merging || mergeFactor < 2)
+      return;
+    // Group the segments into tiers by their number of documents
+    SortedMap<Integer, List<InvertedIndex>> tiers = new TreeMap<Integer, List<InvertedIndex>>();
+    for (InvertedIndex segment : snapshot.segments) {
+      int tier = tier(segment);
+      if (!tiers.containsKey(tier))
+        tiers.put(tier, new ArrayList<InvertedIndex>());
+      tiers.get(tier).add(segment);
+    }
+    for (List<InvertedIndex> tierSegments : tiers.values()) {
+      if (tierSegments.size() >= mergeFactor) {
+        final List<InvertedIndex> toMerge = new ArrayList<InvertedIndex>(tierSegments.subList(0, mergeFactor));
+        merging = true;
+        merger.execute(new Runnable() {
+          public void run() {
+            try {
+              merge(toMerge);
+            }
+            finally {
+              synchronized (SegmentedIndex.this) {
+                merging = false;
+                SegmentedIndex.this.notifyAll();
+                // Merging may have filled up the next tier
+                maybeMerge();
+              }
+            }
+          }
+        });
+        return;
+      }
+    }
+  }
+
+  /**
+   * Return the tier of a segment: 0 if it holds at most maxBufferedDocuments
+   * live documents, 1 if at most mergeFactor times as many, and so on.
+   */
+  protected int tier(InvertedIndex segment) {
+    int numDocs = 0;
+    for (DocumentReference docRef : segment.docRefs) {
+      if (!docRef.deleted)
+        numDocs++;
+    }
+    int tier = 0;
+    for (long size = maxBufferedDocuments; numDocs > size; size = size * mergeFactor)
+      tier++;
+    return tier;
+  }
+
+  /**
+   * Merge segments into a new segment holding their documents that are not
+   * deleted, in order, and replace them with it in the current snapshot.
+   * Runs in the background without locking since the segments do not change.
+   */
+  protected void merge(List<InvertedIndex> segments) {
+    InvertedIndex merged = new InvertedIndex();
+    // Copy the references to the documents kept, since their ids change, and
+    // remember the new id of each document in each segment
+    int[][] newIds = new int[segments.size()][];
+    for (int i = 0; i < segments.size(); i++) {
+      List<DocumentReference> docRefs = segments.get(i).docRefs;
+      newIds[i] = new int[docRefs.size()];
+      for (DocumentReference docRef : docRefs) {
+        if (docRef.deleted)
+          newIds[i][docRef.id] = -1;
+        else {
+          DocumentReference copy = new DocumentReference(docRef.file, 0.0);
+          copy.id = merged.docRefs.size();
+          merged.docRefs.add(copy);
+          newIds[i][docRef.id] = copy.id;
+        }
+      }
+    }
+    // Append the postings of each segment in turn, which keeps them in order of id
+    for (int i = 0; i < segments.size(); i++) {
+      TermMap<TokenInfo> tokenInfos = segments.get(i).tokenInfos;
+      for (int termId : tokenInfos.termIds()) {
+        for (TokenOccurrence occ : tokenInfos.get(termId).occList) {
+          int newId = newIds[i][occ.docRef.id];
+          if (newId >= 0)
+            merged.indexToken(termId, occ.count, merged.docRefs.get(newId));
+        }
+      }
+    }
+    commitMerge(segments, merged, newIds);
+  }
+
+  /**
+   * Replace merged segments with the segment they were merged into in a new
+   * snapshot.  The global statistics do not change, so the document lengths
+   * are just carried over if the current snapshot has computed them, and the document counts of the merged segment are
+   * the sum of theirs.  If documents of theirs were deleted since they were
+   * counted, the merged segment is counted again on the next flush.
+   */
+  protected synchronized void commitMerge(List<InvertedIndex> segments, InvertedIndex merged, int[][] newIds) {
+    Snapshot current = snapshot;
+    List<InvertedIndex> newSegments = new ArrayList<InvertedIndex>();
+    for (InvertedIndex segment : current.segments) {
+      if (segment == segments.get(0))
+        // Put the merged segment where the first of its segments was
+        newSegments.add(merged);
+      else if (!segments.contains(segment))
+        newSegments.add(segment);
+    }
+    Snapshot next = new Snapshot();
+    next.segments = Collections.unmodifiableList(newSegments);
+    next.bases = new int[newSegments.size()];
+    int numDocRefs = 0;
+    for (int i = 0; i < newSegments.size(); i++) {
+      next.bases[i] = numDocRefs;
+      numDocRefs = numDocRefs + newSegments.get(i).docRefs.size();
+    }
+    next.docRefs = new DocumentReference[numDocRefs];
+    // Carry over the lengths if they have been computed, else leave them to the next snapshot too
+    double[] oldLengths = current.lengths;
+    double[] lengths = oldLengths == null ? null : new double[numDocRefs];
+    int oldSegment = 0;
+    for (int i = 0; i < newSegments.size(); i++) {
+      InvertedIndex segment = newSegments.get(i);
+      if (segment != merged) {
+        // Advance to this segment in the current snapshot and copy its documents
+        while (current.segments.get(oldSegment) != segment)
+          oldSegment++;
+        int oldBase = current.bases[oldSegment];
+        for (int id = 0; id < segment.docRefs.size(); id++) {
+          next.docRefs[next.bases[i] + id] = current.docRefs[oldBase + id];
+          if (lengths != null)
+            lengths[next.bases[i] + id] = oldLengths[oldBase + id];
+        }
+      }
+    }
+    // Carry over the documents of the merged segments to their new numbers
+    int mergedBase = next.bases[newSegments.indexOf(merged)];
+    for (int i = 0; i < segments.size(); i++) {
+      InvertedIndex segment = segments.get(i);
+      int oldBase = current.bases[current.segments.indexOf(segment)];
+      for (DocumentReference docRef : segment.docRefs) {
+        int newId = newIds[i][docRef.id];
+        if (newId >= 0) {
+          DocumentReference copy = merged.docRefs.get(newId);
+          // Keep deletes made while merging
+          copy.deleted = docRef.deleted;
+          docRefsByFile.replace(docRef.file, docRef, copy);
+          next.docRefs[mergedBase + newId] = copy;
+          if (lengths != null)
+            lengths[mergedBase + newId] = oldLengths[oldBase + docRef.id];
+        }
+      }
+    }
+    DocumentCounts mergedCounts = new DocumentCounts();
+    for (InvertedIndex segment : segments) {
+      addCounts(mergedCounts, segmentCounts.remove(segment), 1);
+      if (staleSegments.remove(segment))
+        staleSegments.add(merged);
+    }
+    segmentCounts.put(merged, mergedCounts);
+    next.lengths = lengths;
+    next.idf = current.idf;
+    next.numDocuments = current.numDocuments;
+    snapshot = next;
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, returning the top k ranked
+   * retrievals from all the segments.
+   */
+  public Retrieval[] retrieve(String input, int k) {
+    return retrieve(new TextStringDocument(input, stem, true).hashMapVector(), k);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning
+   * the top k ranked retrievals from all the segments.  The scores under each
+   * query token are accumulated from the postings of each segment in turn, using
+   * the global IDF factors of the current snapshot.
+   *
+   * @param vector The query vector.
+   * @param k      The maximum number of retrievals to return.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k) {
+    if (k < 1)
+      throw new IllegalArgumentException("Number of retrievals must be positive: " + k);
+    Snapshot snapshot = this.snapshot;
+    ScoreAccumulator accumulator = accumulators.get();
+    if (accumulator == null || accumulator.capacity() < snapshot.docRefs.length) {
+      accumulator = new ScoreAccumulator(snapshot.docRefs.length);
+      accumulators.set(accumulator);
+    }
+    double queryLength = 0.0;
+    for (int j = 0; j < vector.size(); j++) {
+      int termId = vector.termId(j);
+      Double idf = snapshot.idf.get(termId);
+      // Tokens in no document, or with an IDF of 0, add nothing
+      if (idf == null)
+        continue;
+      // The weight of the token in the query is its IDF times its count
+      double weight = idf * vector.weight(j);
+      queryLength = queryLength + weight * weight;
+      // Add the product of its weight in the query and its weight in each
+      // document it occurs in, in any segment, to the document's score
+      for (int i = 0; i < snapshot.segments.size(); i++) {
+        TokenInfo tokenInfo = snapshot.segments.get(i).getTokenInfo(termId);
+        if (tokenInfo == null)
+          continue;
+        PostingsCursor postings = tokenInfo.postings();
+        while (postings.next())
+          accumulator.add(snapshot.bases[i] + postings.docId(), weight * idf * postings.count());
+      }
+    }
+    queryLength = Math.sqrt(queryLength);
+    double[] lengths = snapshot.lengths();
+    // Keep the best k documents that are not deleted in a heap with the worst at the root
+    PriorityQueue<Retrieval> topRetrievals =
+        new PriorityQueue<Retrieval>(Math.min(k, accumulator.numScored) + 1, Collections.reverseOrder());
+    for (int i = 0; i < accumulator.numScored; i++) {
+      int number = accumulator.scoredIds[i];
+      DocumentReference docRef = snapshot.docRefs[number];
+      if (docRef.deleted)
+        continue;
+      double score = accumulator.scores[number] / (queryLength * lengths[number]);
+      // Break ties on the document's number across the segments, since ids
+      // repeat from segment to segment
+      if (topRetrievals.size() < k)
+        topRetrievals.add(new Retrieval(docRef, score, number));
+      else if (!topRetrievals.peek().isBetterThan(score, number)) {
+        topRetrievals.poll();
+        topRetrievals.add(new Retrieval(docRef, score, number));
+      }
+    }
+    accumulator.clear();
+    // Empty the heap from worst to best into the end of the ranked array
+    Retrieval[] retrievals = new Retrieval[topRetrievals.size()];
+    for (int i = retrievals.length - 1; i >= 0; i--)
+      retrievals[i] = topRetrievals.poll();
+    return retrievals;
+  }
+
+  /**
+   * Index a directory of files one document at a time, as if they were
+   * arriving, and then interactively accept retrieval queries.
+   * Command format: "SegmentedIndex [OPTION]* [DIR]" where DIR is the name of
+   * the directory whose files should be indexed, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-buffer N" to make a segment of every N documents added.
+   * "-merge N" to merge N segments of the same tier.
+   */
+  public static void main(String[] args) {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    int maxBufferedDocuments = MAX_BUFFERED_DOCUMENTS, mergeFactor = MERGE_FACTOR;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        // Create HTMLFileDocuments to filter HTML tags
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        // Stem tokens with Porter stemmer
+        stem = true;
+      else if (flag.equals("-buffer"))
+        // Make a segment of every N documents
+        maxBufferedDocuments = Integer.parseInt(args[++i]);
+      else if (flag.equals("-merge"))
+        // Merge N segments at a time
+        mergeFactor = Integer.parseInt(args[++i]);
+      else {
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+      }
+    }
+    SegmentedIndex index = new SegmentedIndex(docType, stem);
+    index.maxBufferedDocuments = maxBufferedDocuments;
+    index.mergeFactor = mergeFactor;
+    DocumentIterator docIter = new DocumentIterator(new File(dirName), docType, stem);
+    System.out.println("Indexing documents in " + dirName);
+    while (docIter.hasMoreDocuments())
+      index.addDocument(docIter.nextDocument());
+    index.flush();
+    index.waitForMerges();
+    System.out.println("Indexed " + index.numDocuments() + " documents in " + index.numSegments() + " segments.");
+    System.out.println("Now able to process queries. When done, enter an empty query to exit.");
+    do {
+      String query = UserInput.prompt("\nEnter query:  ");
+      if (query.equals(""))
+        break;
+      Retrieval[] retrievals = index.retrieve(query, InvertedIndex.MAX_RETRIEVALS);
+      if (retrievals.length == 0)
+        System.out.println("\nNo matching documents found.");
+      else {
+        System.out.println("\nTop " + InvertedIndex.MAX_RETRIEVALS + " matching Documents from most to least relevant:\n");
+        for (int i = 0; i < retrievals.length; i++) {
+          System.out.println(MoreString.padTo((i + 1) + ". ", 4) +
+              MoreString.padTo(retrievals[i].docRef.file.getName(), 20) +
+              " Score: " +
+              MoreMath.roundTo(retrievals[i].score, 5));
+        }
+      }
+    }
+    while (true);
+    index.close();
+  }
+
+}
@@ -0,0 +1,236 @@
+package ir.vsr;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Serves one shard of a collection over HTTP to a ShardedIndex in another
+ * process, which reaches it through a RemoteShard.  Like SearchServer, it
+ * listens only on the loopback address, and stands in for a shard on another
+ * machine.  It answers:
+ * <pre>
+ *   GET  /statistics                     the statistics of the shard's documents
+ *   POST /statistics                     set the statistics of the whole collection
+ *   POST /search?k=K&length=LENGTH       the top K retrievals for a query vector
+ * </pre>
+ * Statistics are in the text format of CollectionStatistics.  A query vector is
+ * posted as a line for each token with the token and its weight separated by a
+ * tab, and the retrievals are returned as a line each with the document id in
+ * the shard, the score and the path of the document separated by tabs.  Scores
+ * and weights are written with Double.toString, so they are read back exactly.
+ * Errors get status 400 or 500 and a one-line message.
+ *
+ * @author Ray Mooney
+ */
+public class ShardServer {
+
+  /**
+   * The default port to listen on
+   */
+  public static final int DEFAULT_PORT = 8090;
+
+  /**
+   * The shard served
+   */
+  protected IndexShard shard;
+
+  /**
+   * The HTTP server
+   */
+  protected HttpServer server;
+
+  /**
+   * The threads that handle requests
+   */
+  protected ExecutorService workers;
+
+  /**
+   * Create a server for a shard listening on the given port of the loopback
+   * address, or any free port if it is 0, and handling requests with the given
+   * number of threads.  Call start to begin serving.
+   */
+  public ShardServer(IndexShard shard, int port, int numThreads) throws IOException {
+    if (numThreads < 1)
+      throw new IllegalArgumentException("Number of threads must be positive: " + numThreads);
+    this.shard = shard;
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    workers = Executors.newFixedThreadPool(numThreads);
+    server.setExecutor(workers);
+    server.createContext("/statistics", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          statistics(exchange);
+        }
+        catch (RuntimeException e) {
+          send(exchange, 500, "Could not handle statistics: " + e + "\n");
+        }
+      }
+    });
+    server.createContext("/search", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          search(exchange);
+        }
+        catch (RuntimeException e) {
+          send(exchange, 500, "Could not answer search: " + e + "\n");
+        }
+      }
+    });
+  }
+
+  /**
+   * Start answering requests
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stop answering requests, waiting at most the given number of seconds for
+   * those being handled to finish.
+   */
+  public void stop(int delay) {
+    server.stop(delay);
+    workers.shutdown();
+  }
+
+  /**
+   * Return the port the server listens on
+   */
+  public int port() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Answer with the statistics of the shard, or set those of the collection
+   */
+  protected void statistics(HttpExchange exchange) throws IOException {
+    if (exchange.getRequestMethod().equals("POST")) {
+      CollectionStatistics statistics;
+      try {
+        statistics = CollectionStatistics.read(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+      }
+      catch (IOException | NumberFormatException e) {
+        send(exchange, 400, "Bad collection statistics: " + e.getMessage() + "\n");
+        return;
+      }
+      shard.setCollectionStatistics(statistics);
+      send(exchange, 200, "");
+    } else {
+      StringWriter writer = new StringWriter();
+      shard.statistics().write(writer);
+      send(exchange, 200, writer.toString());
+    }
+  }
+
+  /**
+   * Answer a search request with the top retrievals in the shard for the
+   * posted query vector
+   */
+  protected void search(HttpExchange exchange) throws IOException {
+    Map<String, String> parameters = SearchServer.parameters(exchange.getRequestURI());
+    int k;
+    double queryLength;
+    HashMapVector vector = new HashMapVector();
+    try {
+      k = Integer.parseInt(parameters.get("k"));
+      queryLength = Double.parseDouble(parameters.get("length"));
+      BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+      String line;
+      while ((line = in.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab < 0)
+          throw new NumberFormatException("Bad line in query vector: " + line);
+        double weight = Double.parseDouble(line.substring(tab + 1));
+        // Look the token up rather than adding it to the dictionary, which never
+        // removes terms; a token not in it is in no document of the shard
+        int termId = TermDictionary.global.lookup(line.substring(0, tab));
+        if (termId >= 0)
+          vector.increment(termId, weight);
+      }
+    }
+    catch (NullPointerException | NumberFormatException e) {
+      send(exchange, 400, "Bad search request: " + e.getMessage() + "\n");
+      return;
+    }
+    Retrieval[] retrievals = shard.retrieve(vector, k, queryLength);
+    StringBuilder response = new StringBuilder();
+    for (Retrieval retrieval : retrievals) {
+      response.append(retrieval.docRef.id).append('\t').append(retrieval.score).append('\t');
+      response.append(retrieval.docRef.file.getPath()).append('\n');
+    }
+    send(exchange, 200, response.toString());
+  }
+
+  /**
+   * Send a plain text response with the given status
+   */
+  protected static void send(HttpExchange exchange, int status, String text) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  /**
+   * Index one shard of a directory of files and serve it until the program is
+   * stopped.  Command format: "ShardServer [OPTION]* [DIR]" where DIR is the
+   * name of the directory whose files are split into shards, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-shard I" to serve shard I, counting from 0 (required).
+   * "-shards N" to split the files into N shards (required).
+   * "-range" to split the files into ranges of their sorted names instead of by hash.
+   * "-port N" to listen on port N of localhost instead of DEFAULT_PORT.
+   * "-threads N" to index and handle requests with N threads instead of one per processor.
+   */
+  public static void main(String[] args) {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false, byRange = false;
+    int shardNumber = -1, numShards = 0, port = DEFAULT_PORT;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-shard"))
+        shardNumber = Integer.parseInt(args[++i]);
+      else if (flag.equals("-shards"))
+        numShards = Integer.parseInt(args[++i]);
+      else if (flag.equals("-range"))
+        byRange = true;
+      else if (flag.equals("-port"))
+        port = Integer.parseInt(args[++i]);
+      else if (flag.equals("-threads"))
+        numThreads = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    if (shardNumber < 0 || shardNumber >= numShards)
+      throw new IllegalArgumentException("Need -shard I and -shards N with 0 <= I < N");
+    File dirFile = new File(dirName);
+    InvertedIndex index = new InvertedIndex(dirFile, docType, stem, false, numThreads, null,
+        ShardedIndex.shardFilter(dirFile, shardNumber, numShards, byRange));
+    try {
+      ShardServer server = new ShardServer(new LocalShard(index), port, numThreads);
+      server.start();
+      System.out.println("Serving shard " + shardNumber + " of " + numShards + " with " +
+          index.numDocuments() + " documents at http://localhost:" + server.port() + "/");
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not listen on port " + port);
+      System.exit(1);
+    }
+  }
+
+}
@@ -0,0 +1,322 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * A collection of documents partitioned into shards, each indexed separately,
+ * and searched by scattering each query to every shard and gathering their
+ * top retrievals.  Files are assigned to shards either by a hash of their name,
+ * which spreads them evenly, or by ranges of their sorted names.  Shards may be
+ * indexes in this process (LocalShard) or ShardServers in other processes
+ * (RemoteShard), standing in for shards on other machines.
+ * <p/>
+ * So that a sharded collection ranks documents just as a single InvertedIndex
+ * of all of it would, the statistics of the shards are added up into those of
+ * the whole collection, which are given back to every shard to compute its IDF
+ * factors and document lengths from, and each query is normalized by its length
+ * in the whole collection.  Each shard then returns its top k retrievals, and
+ * the overall top k are among them.  Documents with equal scores are ranked by
+ * shard, then by their id in the shard.
+ *
+ * @author Ray Mooney
+ */
+public class ShardedIndex {
+
+  /**
+   * The shards of the collection
+   */
+  protected List<IndexShard> shards;
+
+  /**
+   * The statistics of the whole collection
+   */
+  protected CollectionStatistics statistics;
+
+  /**
+   * The threads that send queries to the shards
+   */
+  protected ExecutorService scatter;
+
+  /**
+   * Whether tokens of query strings are stemmed with Porter stemmer
+   */
+  public boolean stem = false;
+
+  /**
+   * Create an index searching the given shards, first giving them all the
+   * statistics of the whole collection.
+   */
+  public ShardedIndex(List<IndexShard> shards) {
+    if (shards.isEmpty())
+      throw new IllegalArgumentException("ShardedIndex needs at least one shard");
+    this.shards = new ArrayList<IndexShard>(shards);
+    scatter = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+      int numCreated = 0;
+
+      public synchronized Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ShardedIndex " + (++numCreated));
+        // Do not keep the program alive just to send queries
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    updateStatistics();
+  }
+
+  /**
+   * Add up the statistics of the shards and give the totals to every shard.
+   * Call again after documents are added to or deleted from any shard.
+   */
+  public synchronized void updateStatistics() {
+    CollectionStatistics statistics = new CollectionStatistics();
+    for (IndexShard shard : shards)
+      statistics.add(shard.statistics());
+    // Give every token of the collection a term id in this process, since the
+    // tokens of queries are only looked up, and the shards may all be remote
+    for (String token : statistics.documentFrequencies.keySet())
+      TermDictionary.global.id(token);
+    for (IndexShard shard : shards)
+      shard.setCollectionStatistics(statistics);
+    this.statistics = statistics;
+  }
+
+  /**
+   * Return a filter accepting the files of one shard of a directory of files
+   * split into the given number of shards.  Files are split by a hash of their
+   * name, or else into ranges of their sorted names of as nearly equal size as
+   * possible.
+   *
+   * @param dirFile   The directory of files.
+   * @param shard     The number of the shard, from 0 to numShards - 1.
+   * @param numShards The number of shards.
+   * @param byRange   Whether to split by ranges of names instead of by hash.
+   */
+  public static FilenameFilter shardFilter(File dirFile, final int shard, final int numShards, boolean byRange) {
+    if (shard < 0 || shard >= numShards)
+      throw new IllegalArgumentException("No shard " + shard + " of " + numShards);
+    if (!byRange) {
+      return new FilenameFilter() {
+        public boolean accept(File dir, String name) {
+          return (name.hashCode() & 0x7fffffff) % numShards == shard;
+        }
+      };
+    }
+    String[] names = dirFile.list();
+    if (names == null)
+      throw new IllegalArgumentException("Not a directory: " + dirFile);
+    Arrays.sort(names);
+    // The shard takes the names from position start up to end in sorted order
+    int start = (int) ((long) names.length * shard / numShards);
+    int end = (int) ((long) names.length * (shard + 1) / numShards);
+    final Set<String> range = new HashSet<String>(Arrays.asList(names).subList(start, end));
+    return new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return range.contains(name);
+      }
+    };
+  }
+
+  /**
+   * Index a directory of files split into the given number of shards in this
+   * process, indexing the shards at the same time on the given number of threads.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param numShards  The number of shards.
+   * @param byRange    Whether to split by ranges of names instead of by hash.
+   * @param numThreads The number of shards to index at the same time.
+   */
+  public static List<IndexShard> indexShards(final File dirFile, final short docType, final boolean stem,
+                                             final int numShards, final boolean byRange, int numThreads) {
+    if (numShards < 1 || numThreads < 1)
+      throw new IllegalArgumentException("Number of shards and threads must be positive: " +
+          numShards + ", " + numThreads);
+    ExecutorService indexers = Executors.newFixedThreadPool(Math.min(numShards, numThreads));
+    List<Future<InvertedIndex>> futures = new ArrayList<Future<InvertedIndex>>(numShards);
+    for (int i = 0; i < numShards; i++) {
+      final FilenameFilter filter = shardFilter(dirFile, i, numShards, byRange);
+      futures.add(indexers.submit(new Callable<InvertedIndex>() {
+        public InvertedIndex call() {
+          return new InvertedIndex(dirFile, docType, stem, false, 1, null, filter);
+        }
+      }));
+    }
+    indexers.shutdown();
+    List<IndexShard> shards = new ArrayList<IndexShard>(numShards);
+    for (Future<InvertedIndex> future : futures)
+      shards.add(new LocalShard(get(future)));
+    return shards;
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, returning the top k ranked
+   * retrievals from all the shards.
+   */
+  public Retrieval[] retrieve(String input, int k) {
+    return retrieve(new TextStringDocument(input, stem, true).hashMapVector(), k);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning
+   * the top k ranked retrievals from all the shards.  The query goes to every
+   * shard at once, normalized by its length in the whole collection, and their
+   * retrievals are merged by score.
+   *
+   * @param vector The query vector.
+   * @param k      The maximum number of retrievals to return.
+   */
+  public Retrieval[] retrieve(final HashMapVector vector, final int k) {
+    if (k < 1)
+      throw new IllegalArgumentException("Number of retrievals must be positive: " + k);
+    final double queryLength = statistics.queryLength(vector);
+    // If no query token has any weight in the collection, nothing matches
+    if (queryLength == 0.0)
+      return new Retrieval[0];
+    List<Future<Retrieval[]>> futures = new ArrayList<Future<Retrieval[]>>(shards.size());
+    for (final IndexShard shard : shards) {
+      futures.add(scatter.submit(new Callable<Retrieval[]>() {
+        public Retrieval[] call() {
+          return shard.retrieve(vector, k, queryLength);
+        }
+      }));
+    }
+    // Gather the retrievals of the shards in order of shard, each already
+    // ranked, and number them in that order, since their document ids are only
+    // unique within a shard.  The shards return new Retrievals, so they can be
+    // renumbered.
+    List<Retrieval> retrievals = new ArrayList<Retrieval>();
+    for (Future<Retrieval[]> future : futures) {
+      for (Retrieval retrieval : get(future)) {
+        retrieval.docNumber = retrievals.size();
+        retrievals.add(retrieval);
+      }
+    }
+    // Sort by score, and equal scores in order of shard and of rank within the shard
+    Collections.sort(retrievals);
+    return retrievals.subList(0, Math.min(k, retrievals.size())).toArray(new Retrieval[0]);
+  }
+
+  /**
+   * Wait for and return the result of a task, rethrowing its exception
+   */
+  protected static <T> T get(Future<T> future) {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a shard", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException("Shard failed", e.getCause());
+    }
+  }
+
+  /**
+   * Return the number of shards
+   */
+  public int numShards() {
+    return shards.size();
+  }
+
+  /**
+   * Return the number of documents in the whole collection
+   */
+  public int numDocuments() {
+    return statistics.numDocuments;
+  }
+
+  /**
+   * Stop the threads sending queries to the shards
+   */
+  public void close() {
+    scatter.shutdown();
+  }
+
+  /**
+   * Index a directory of files split into shards, or connect to shards served
+   * by ShardServers, and then interactively accept retrieval queries.
+   * Command format: "ShardedIndex [OPTION]* [DIR]" where DIR is the name of
+   * the directory whose files should be indexed, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-shards N" to split the files into N shards (default 4).
+   * "-range" to split the files into ranges of their sorted names instead of by hash.
+   * "-threads N" to index N shards at a time instead of one per processor.
+   * "-remote URL,URL,..." to search the shards served at the given URLs instead
+   * of indexing DIR, which is then ignored.
+   */
+  public static void main(String[] args) {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false, byRange = false;
+    int numShards = 4, numThreads = Runtime.getRuntime().availableProcessors();
+    String remote = null;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        // Create HTMLFileDocuments to filter HTML tags
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        // Stem tokens with Porter stemmer
+        stem = true;
+      else if (flag.equals("-shards"))
+        numShards = Integer.parseInt(args[++i]);
+      else if (flag.equals("-range"))
+        byRange = true;
+      else if (flag.equals("-threads"))
+        numThreads = Integer.parseInt(args[++i]);
+      else if (flag.equals("-remote"))
+        remote = args[++i];
+      else {
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+      }
+    }
+    List<IndexShard> shards;
+    if (remote != null) {
+      shards = new ArrayList<IndexShard>();
+      for (String url : MoreString.segment(remote, ','))
+        shards.add(new RemoteShard(url));
+    } else
+      shards = indexShards(new File(dirName), docType, stem, numShards, byRange, numThreads);
+    ShardedIndex index;
+    try {
+      index = new ShardedIndex(shards);
+    }
+    catch (IllegalStateException e) {
+      System.out.println("\nCould not reach shards: " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+    index.stem = stem;
+    System.out.println("Searching " + index.numDocuments() + " documents in " + index.numShards() + " shards.");
+    System.out.println("Now able to process queries. When done, enter an empty query to exit.");
+    do {
+      String query = UserInput.prompt("\nEnter query:  ");
+      if (query.equals(""))
+        break;
+      Retrieval[] retrievals = index.retrieve(query, InvertedIndex.MAX_RETRIEVALS);
+      if (retrievals.length == 0)
+        System.out.println("\nNo matching documents found.");
+      else {
+        System.out.println("\nTop " + InvertedIndex.MAX_RETRIEVALS + " matching Documents from most to least relevant:\n");
+        for (int i = 0; i < retrievals.length; i++) {
+          System.out.println(MoreString.padTo((i + 1) + ". ", 4) +
+              MoreString.padTo(retrievals[i].docRef.file.getName(), 20) +
+              " Score: " +
+              MoreMath.roundTo(retrievals[i].score, 5));
+        }
+      }
+    }
+    while (true);
+    index.close();
+  }
+
+}
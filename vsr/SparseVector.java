@@ -0,0 +1,396 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A compact, immutable term vector stored as parallel arrays of term ids
+ * (see TermDictionary), in increasing order, and their weights.  It takes
+ * 12 bytes per token and no hashtable, and two vectors are combined by merging
+ * their sorted ids in one pass, so dot products, sums and cosines touch each
+ * entry once and hash nothing.  The Euclidian length is computed once when
+ * the vector is made.
+ * <p/>
+ * Vectors are built up in a HashMapVector and converted once they are
+ * complete, e.g. to be stored or compared many times.
+ *
+ * @author Ray Mooney
+ */
+public class SparseVector {
+
+  /**
+   * The vector with no tokens
+   */
+  public static final SparseVector EMPTY = new SparseVector(new int[0], new double[0]);
+
+  /**
+   * The term id of each token, in increasing order
+   */
+  protected final int[] termIds;
+
+  /**
+   * The weight of each token, in the same order as termIds
+   */
+  protected final double[] weights;
+
+  /**
+   * The Euclidian length of the vector
+   */
+  protected final double length;
+
+  /**
+   * Create a vector from arrays of distinct term ids in increasing order and
+   * their weights, which it keeps and which must not be changed.
+   */
+  public SparseVector(int[] termIds, double[] weights) {
+    if (termIds.length != weights.length)
+      throw new IllegalArgumentException("Different numbers of term ids and weights: " +
+          termIds.length + " and " + weights.length);
+    this.termIds = termIds;
+    this.weights = weights;
+    length = Math.sqrt(VectorKernels.kernels.sumOfSquares(weights, weights.length));
+  }
+
+  /**
+   * Create a vector from sorted arrays whose length is already known.
+   */
+  protected SparseVector(int[] termIds, double[] weights, double length) {
+    this.termIds = termIds;
+    this.weights = weights;
+    this.length = length;
+  }
+
+  /**
+   * Create a vector with the same tokens and weights as a HashMapVector.
+   */
+  public SparseVector(HashMapVector vector) {
+    this(sortedTermIds(vector), vector);
+  }
+
+  /**
+   * Create a vector with the weights in a HashMapVector of its sorted term ids.
+   */
+  private SparseVector(int[] termIds, HashMapVector vector) {
+    this(termIds, weightsOf(termIds, vector));
+  }
+
+  /**
+   * Return the term ids of a HashMapVector in increasing order
+   */
+  protected static int[] sortedTermIds(HashMapVector vector) {
+    int[] termIds = Arrays.copyOf(vector.termIds, vector.size());
+    Arrays.sort(termIds);
+    return termIds;
+  }
+
+  /**
+   * Return the weights in a HashMapVector of the given term ids
+   */
+  protected static double[] weightsOf(int[] termIds, HashMapVector vector) {
+    double[] weights = new double[termIds.length];
+    for (int i = 0; i < termIds.length; i++)
+      weights[i] = vector.getWeight(termIds[i]);
+    return weights;
+  }
+
+  /**
+   * Return a HashMapVector with the same tokens and weights as this vector.
+   */
+  public HashMapVector hashMapVector() {
+    HashMapVector vector = new HashMapVector();
+    for (int i = 0; i < termIds.length; i++)
+      vector.increment(termIds[i], weights[i]);
+    return vector;
+  }
+
+  /**
+   * Returns the number of tokens in the vector.
+   */
+  public int size() {
+    return termIds.length;
+  }
+
+  /**
+   * Return the term id of the i'th token in the vector, for 0 <= i < size()
+   */
+  public int termId(int i) {
+    return termIds[i];
+  }
+
+  /**
+   * Return the weight of the i'th token in the vector, for 0 <= i < size()
+   */
+  public double weight(int i) {
+    return weights[i];
+  }
+
+  /**
+   * Return the i'th token in the vector, for 0 <= i < size()
+   */
+  public String term(int i) {
+    return TermDictionary.global.term(termIds[i]);
+  }
+
+  /**
+   * Return the weight of the token with the given term id in the vector,
+   * found by binary search
+   */
+  public double getWeight(int termId) {
+    int i = Arrays.binarySearch(termIds, termId);
+    return i < 0 ? 0.0 : weights[i];
+  }
+
+  /**
+   * Return the weight of the given token in the vector
+   */
+  public double getWeight(String token) {
+    int termId = TermDictionary.global.lookup(token);
+    return termId < 0 ? 0.0 : getWeight(termId);
+  }
+
+  /**
+   * Return the Euclidian length (sqrt of sum of squares) of the vector
+   */
+  public double length() {
+    return length;
+  }
+
+  /**
+   * Returns the maximum weight of any token in the vector.
+   */
+  public double maxWeight() {
+    double maxWeight = Double.NEGATIVE_INFINITY;
+    for (double weight : weights) {
+      if (weight > maxWeight)
+        maxWeight = weight;
+    }
+    return maxWeight;
+  }
+
+  /**
+   * Return the dot product of this vector and another.  The sorted term ids
+   * of the two are merged, unless one vector is much shorter, in which case
+   * each of its tokens is found in the other by binary search.
+   */
+  public double dot(SparseVector other) {
+    if (termIds.length * 16 < other.termIds.length)
+      return searchDot(other);
+    if (other.termIds.length * 16 < termIds.length)
+      return other.searchDot(this);
+    int[] otherIds = other.termIds;
+    // Stores running sum for dot product of two vectors
+    double dotProd = 0;
+    int j = 0;
+    for (int i = 0; i < termIds.length; i++) {
+      int termId = termIds[i];
+      // Skip the other vector's smaller ids in a tight loop
+      while (j < otherIds.length && otherIds[j] < termId)
+        j++;
+      if (j == otherIds.length)
+        break;
+      if (otherIds[j] == termId)
+        dotProd += weights[i] * other.weights[j];
+    }
+    return dotProd;
+  }
+
+  /**
+   * Return the dot product of this vector and a much longer one, by looking
+   * up each of this vector's tokens in the rest of the other vector.
+   */
+  protected double searchDot(SparseVector other) {
+    double dotProd = 0;
+    int from = 0;
+    for (int i = 0; i < termIds.length && from < other.termIds.length; i++) {
+      int j = Arrays.binarySearch(other.termIds, from, other.termIds.length, termIds[i]);
+      if (j >= 0) {
+        dotProd += weights[i] * other.weights[j];
+        from = j + 1;
+      } else
+        from = -j - 1;
+    }
+    return dotProd;
+  }
+
+  /**
+   * Return the dot product of this vector and a dense vector of weights
+   * indexed by term id, e.g. one made by toDense.  Tokens whose ids are past
+   * the end of the dense vector have no weight in it.
+   *
+   * @see VectorKernels#sparseDot
+   */
+  public double dot(double[] dense) {
+    // Only the tokens before the first id past the end of dense count, since ids are sorted
+    int length = termIds.length;
+    if (length > 0 && termIds[length - 1] >= dense.length) {
+      length = Arrays.binarySearch(termIds, dense.length);
+      if (length < 0)
+        length = -length - 1;
+    }
+    return VectorKernels.kernels.sparseDot(termIds, weights, length, dense);
+  }
+
+  /**
+   * Return this vector as a dense array of weights indexed by term id, with
+   * room for the ids of all the terms in the global TermDictionary.  Comparing
+   * many vectors to one, e.g. to re-rank documents by their full cosine to a
+   * query, is fastest with the one made dense.
+   */
+  public double[] toDense() {
+    double[] dense = new double[Math.max(TermDictionary.global.size(),
+        termIds.length == 0 ? 0 : termIds[termIds.length - 1] + 1)];
+    for (int i = 0; i < termIds.length; i++)
+      dense[termIds[i]] = weights[i];
+    return dense;
+  }
+
+  /**
+   * Computes cosine of angle to otherVector.
+   */
+  public double cosineTo(SparseVector otherVector) {
+    // cosine is dot product over product of lengths
+    return dot(otherVector) / (length * otherVector.length);
+  }
+
+  /**
+   * Return a new vector that is this vector scaled by a constant
+   */
+  public SparseVector multiply(double factor) {
+    double[] scaled = new double[weights.length];
+    for (int i = 0; i < weights.length; i++)
+      scaled[i] = factor * weights[i];
+    return new SparseVector(termIds, scaled, Math.abs(factor) * length);
+  }
+
+  /**
+   * Return a new vector that is the sum of this vector and another
+   */
+  public SparseVector add(SparseVector other) {
+    return addScaled(other, 1.0);
+  }
+
+  /**
+   * Return a new vector that is this vector minus another
+   */
+  public SparseVector subtract(SparseVector other) {
+    return addScaled(other, -1.0);
+  }
+
+  /**
+   * Return a new vector that is the sum of this vector and a scaled version
+   * of another, merging their sorted term ids.  Tokens whose weights cancel
+   * out are kept with a weight of 0, as HashMapVector keeps them.
+   */
+  public SparseVector addScaled(SparseVector other, double scalingFactor) {
+    int[] otherIds = other.termIds;
+    int[] sumIds = new int[termIds.length + otherIds.length];
+    double[] sumWeights = new double[sumIds.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < termIds.length || j < otherIds.length) {
+      if (j == otherIds.length || (i < termIds.length && termIds[i] < otherIds[j])) {
+        sumIds[n] = termIds[i];
+        sumWeights[n++] = weights[i++];
+      } else if (i == termIds.length || otherIds[j] < termIds[i]) {
+        sumIds[n] = otherIds[j];
+        sumWeights[n++] = scalingFactor * other.weights[j++];
+      } else {
+        sumIds[n] = termIds[i];
+        sumWeights[n++] = weights[i++] + scalingFactor * other.weights[j++];
+      }
+    }
+    if (n < sumIds.length) {
+      sumIds = Arrays.copyOf(sumIds, n);
+      sumWeights = Arrays.copyOf(sumWeights, n);
+    }
+    return new SparseVector(sumIds, sumWeights);
+  }
+
+  /**
+   * Return the approximate number of bytes of memory the vector uses
+   */
+  public long memoryBytes() {
+    // Object headers and fields of the vector and its two arrays, and 12 bytes per token
+    return 24 + 2 * 16 + 12L * termIds.length;
+  }
+
+  /**
+   * Print out the vector showing the tokens and their weights
+   */
+  public void print() {
+    for (int i = 0; i < termIds.length; i++)
+      System.out.println(term(i) + ":" + weights[i]);
+  }
+
+  /**
+   * Return String of the vector showing the tokens and their weights
+   */
+  public String toString() {
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < termIds.length; i++)
+      ret.append(term(i)).append(": ").append(weights[i]).append(" ");
+    return ret.toString();
+  }
+
+  /**
+   * Compare the memory used by HashMapVector's and SparseVector's of the
+   * documents in a directory, and the time taken to compute the cosine of
+   * every pair of them with each.
+   * <p/>
+   * Command line: java ir.vsr.SparseVector [-html] [-stem] DIR
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    List<HashMapVector> hashMapVectors = new ArrayList<HashMapVector>();
+    List<SparseVector> sparseVectors = new ArrayList<SparseVector>();
+    DocumentIterator docIter = new DocumentIterator(new File(dirName), docType, stem);
+    while (docIter.hasMoreDocuments()) {
+      HashMapVector vector = docIter.nextDocument().hashMapVector();
+      hashMapVectors.add(vector);
+      sparseVectors.add(new SparseVector(vector));
+    }
+    long hashMapBytes = 0;
+    long sparseBytes = 0;
+    for (int i = 0; i < hashMapVectors.size(); i++) {
+      hashMapBytes = hashMapBytes + hashMapVectors.get(i).memoryBytes();
+      sparseBytes = sparseBytes + sparseVectors.get(i).memoryBytes();
+    }
+    System.out.println(hashMapVectors.size() + " documents: HashMapVector's use " + hashMapBytes +
+        " bytes, SparseVector's use " + sparseBytes + " bytes");
+    // Time a few rounds of all pairs, the first of which just warms up
+    for (int round = 0; round < 3; round++) {
+      double hashMapSum = 0;
+      long start = System.nanoTime();
+      for (HashMapVector vector : hashMapVectors) {
+        double length = vector.length();
+        for (HashMapVector other : hashMapVectors)
+          hashMapSum += other.cosineTo(vector, length);
+      }
+      long hashMapTime = System.nanoTime() - start;
+      double sparseSum = 0;
+      start = System.nanoTime();
+      for (SparseVector vector : sparseVectors) {
+        for (SparseVector other : sparseVectors)
+          sparseSum += other.cosineTo(vector);
+      }
+      long sparseTime = System.nanoTime() - start;
+      System.out.println("All-pairs cosine: HashMapVector " + hashMapTime / 1000000 + " ms, SparseVector " +
+          sparseTime / 1000000 + " ms (sums " + hashMapSum + " and " + sparseSum + ")");
+    }
+  }
+
+}
@@ -0,0 +1,322 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Builds an index file for a directory of documents without holding the whole
+ * inverted index in memory, by single-pass in-memory indexing (SPIMI).
+ * Documents are inverted into an in-memory block of postings, keyed by the term
+ * ids their tokens already have from tokenizing (see TermDictionary), until the
+ * block reaches the memory budget; the block's tokens are then sorted and it is
+ * written to a temporary run file and emptied.  Once all
+ * the documents are indexed the runs are merged, token by token in sorted order,
+ * and the complete postings of each token are written out along with its IDF,
+ * which is known as soon as all its postings have been read.  Only the table of
+ * documents and the postings of one token at a time are kept in memory during
+ * the merge, so much larger collections can be indexed than fit in the heap.
+ * <p/>
+ * The result is an ordinary index file (see IndexFile), which can be loaded,
+ * or memory-mapped, as an InvertedIndex.
+ *
+ * @author Ray Mooney
+ */
+public class SpimiIndexer {
+
+  /**
+   * The estimated number of bytes of memory used by each posting in a block
+   */
+  public static final int POSTING_BYTES = 12;
+
+  /**
+   * The estimated number of bytes of memory used by each token in a block,
+   * besides its characters and postings
+   */
+  public static final int TOKEN_BYTES = 120;
+
+  /**
+   * The directory of documents to index
+   */
+  public File dirFile = null;
+
+  /**
+   * The type of Document (TYPE_TEXT or TYPE_HTML). See docType in DocumentIterator.
+   */
+  public short docType = DocumentIterator.TYPE_TEXT;
+
+  /**
+   * Whether tokens are stemmed with Porter stemmer
+   */
+  public boolean stem = false;
+
+  /**
+   * The estimated number of bytes of memory a block may use before it is
+   * written out as a run, by default a quarter of the maximum heap size
+   */
+  public long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+  /**
+   * The directory for the temporary run files, or null for the default
+   * temporary-file directory
+   */
+  public File tempDir = null;
+
+  /**
+   * The number of runs written by the last build
+   */
+  public int numRuns = 0;
+
+  /**
+   * The postings of a token in a block, in order of document id
+   */
+  protected static class Postings {
+    int[] docIds = new int[2];
+    int[] counts = new int[2];
+    int size = 0;
+
+    void add(int docId, int count) {
+      if (size == docIds.length) {
+        docIds = Arrays.copyOf(docIds, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      docIds[size] = docId;
+      counts[size] = count;
+      size++;
+    }
+  }
+
+  /**
+   * A run file being merged, positioned at its next token.  A run starts with
+   * its number of tokens, followed by each token in sorted order with its number
+   * of postings and its (document id, count) pairs.
+   */
+  protected static class Run implements Comparable<Run> {
+    /**
+     * The position of the run in the order runs were written
+     */
+    int number;
+    DataInputStream in;
+    /**
+     * The number of tokens not yet read
+     */
+    int remaining;
+    /**
+     * The current token
+     */
+    String token;
+
+    Run(int number, File file, int bufferSize) throws IOException {
+      this.number = number;
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+      remaining = in.readInt();
+    }
+
+    /**
+     * Move to the next token, returning false, and closing the run, if there is none.
+     */
+    boolean nextToken() throws IOException {
+      if (remaining == 0) {
+        in.close();
+        return false;
+      }
+      remaining--;
+      token = in.readUTF();
+      return true;
+    }
+
+    /**
+     * Append the postings of the current token to the given postings.
+     */
+    void readPostings(Postings postings) throws IOException {
+      int numPostings = in.readInt();
+      for (int i = 0; i < numPostings; i++)
+        postings.add(in.readInt(), in.readInt());
+    }
+
+    /**
+     * Order runs by current token and then by the order they were written,
+     * which is the order of their document ids
+     */
+    public int compareTo(Run run) {
+      int result = token.compareTo(run.token);
+      return result != 0 ? result : number - run.number;
+    }
+  }
+
+  /**
+   * Create an indexer for the documents in a directory.
+   *
+   * @param dirFile The directory of files to index.
+   * @param docType The type of documents to index (See docType in DocumentIterator)
+   * @param stem    Whether tokens should be stemmed with Porter stemmer.
+   */
+  public SpimiIndexer(File dirFile, short docType, boolean stem) {
+    this.dirFile = dirFile;
+    this.docType = docType;
+    this.stem = stem;
+  }
+
+  /**
+   * Index the documents and write the index to the given file, encoding the
+   * postings with the given codec.
+   *
+   * @see PostingsCodec
+   */
+  public void build(File indexFile, int codec) throws IOException {
+    // An index holding just the documents, for their ids and lengths
+    InvertedIndex index = new InvertedIndex();
+    index.dirFile = dirFile;
+    index.docType = docType;
+    index.stem = stem;
+    List<File> runFiles = new ArrayList<File>();
+    try {
+      invertBlocks(index, runFiles);
+      numRuns = runFiles.size();
+      mergeRuns(index, runFiles, indexFile, codec);
+    }
+    finally {
+      for (File runFile : runFiles)
+        runFile.delete();
+    }
+  }
+
+  /**
+   * Index the documents into blocks that fit in the memory budget, writing each
+   * block to a new run file.
+   */
+  protected void invertBlocks(InvertedIndex index, List<File> runFiles) throws IOException {
+    TermMap<Postings> block = new TermMap<Postings>();
+    long blockBytes = 0;
+    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem);
+    System.out.println("Indexing documents in " + dirFile);
+    while (docIter.hasMoreDocuments()) {
+      FileDocument doc = docIter.nextDocument();
+      System.out.print(doc.file.getName() + ",");
+      // Add the document to the table of documents, using its position as its id
+      DocumentReference docRef = new DocumentReference(doc);
+      docRef.id = index.docRefs.size();
+      index.docRefs.add(docRef);
+      HashMapVector vector = doc.hashMapVector();
+      for (int i = 0; i < vector.size(); i++) {
+        int termId = vector.termId(i);
+        Postings postings = block.get(termId);
+        if (postings == null) {
+          postings = new Postings();
+          block.put(termId, postings);
+          blockBytes = blockBytes + TOKEN_BYTES + 2 * TermDictionary.global.term(termId).length();
+        }
+        postings.add(docRef.id, (int) vector.weight(i));
+        blockBytes = blockBytes + POSTING_BYTES;
+      }
+      if (blockBytes >= memoryBudget) {
+        writeRun(block, runFiles);
+        block = new TermMap<Postings>();
+        blockBytes = 0;
+      }
+    }
+    if (block.size() > 0 || runFiles.isEmpty())
+      writeRun(block, runFiles);
+    System.out.println("\nWrote " + runFiles.size() + " runs for " + index.docRefs.size() + " documents.");
+  }
+
+  /**
+   * Write a block to a new temporary run file, in sorted order of its tokens,
+   * and add the file to the list of runs, as soon as it is created so that the
+   * caller deletes it even if writing it fails.
+   */
+  protected void writeRun(TermMap<Postings> block, List<File> runFiles) throws IOException {
+    File runFile = File.createTempFile("spimi", ".run", tempDir);
+    runFiles.add(runFile);
+    int[] termIds = block.termIds();
+    String[] tokens = new String[termIds.length];
+    for (int i = 0; i < termIds.length; i++)
+      tokens[i] = TermDictionary.global.term(termIds[i]);
+    Arrays.sort(tokens);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 16));
+    try {
+      out.writeInt(tokens.length);
+      for (String token : tokens) {
+        Postings postings = block.get(TermDictionary.global.lookup(token));
+        out.writeUTF(token);
+        out.writeInt(postings.size);
+        for (int i = 0; i < postings.size; i++) {
+          out.writeInt(postings.docIds[i]);
+          out.writeInt(postings.counts[i]);
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Merge the runs into the final index file.  The dictionary and postings
+   * are written to temporary files as the tokens are merged, while the document
+   * lengths are summed in memory, and then the index file is assembled from them.
+   */
+  protected void mergeRuns(InvertedIndex index, List<File> runFiles, File indexFile, int codec)
+      throws IOException {
+    File dictionaryFile = File.createTempFile("spimi", ".dict", tempDir);
+    File postingsFile = null;
+    try {
+      postingsFile = File.createTempFile("spimi", ".post", tempDir);
+      // Share the memory budget between the input buffers of the runs
+      int bufferSize = (int) Math.max(1 << 12, Math.min(1 << 16, memoryBudget / runFiles.size()));
+      PriorityQueue<Run> runs = new PriorityQueue<Run>(runFiles.size());
+      for (int i = 0; i < runFiles.size(); i++) {
+        Run run = new Run(i, runFiles.get(i), bufferSize);
+        if (run.nextToken())
+          runs.add(run);
+      }
+      double N = index.docRefs.size();
+      double[] lengths = new double[index.docRefs.size()];
+      int numTokens = 0;
+      Postings postings = new Postings();
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+      DataOutputStream dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dictionaryFile), 1 << 16));
+      OutputStream postingsOut = new BufferedOutputStream(new FileOutputStream(postingsFile), 1 << 16);
+      try {
+        while (!runs.isEmpty()) {
+          // Gather the postings of the smallest token from every run that has it, in run order
+          String token = runs.peek().token;
+          postings.size = 0;
+          while (!runs.isEmpty() && runs.peek().token.equals(token)) {
+            Run run = runs.poll();
+            run.readPostings(postings);
+            if (run.nextToken())
+              runs.add(run);
+          }
+          // Now that its postings are complete, compute the IDF of the token and add
+          // the square of its weight (IDF * occurrence count) to each of its document's length
+          double idf = Math.log(N / postings.size);
+          for (int i = 0; i < postings.size; i++)
+            lengths[postings.docIds[i]] = lengths[postings.docIds[i]] + Math.pow(idf * postings.counts[i], 2);
+          encoded.reset();
+          PostingsCodec.encode(codec, postings.docIds, postings.counts, postings.size, encoded);
+          IndexFile.writeDictionaryEntry(dictionary, token, idf, postings.size, encoded.size(), codec);
+          encoded.writeTo(postingsOut);
+          numTokens++;
+        }
+      }
+      finally {
+        dictionary.close();
+        postingsOut.close();
+        for (Run run : runs)
+          run.in.close();
+      }
+      for (DocumentReference docRef : index.docRefs)
+        docRef.length = Math.sqrt(lengths[docRef.id]);
+      IndexFile.assemble(indexFile, index, codec, numTokens, dictionaryFile, postingsFile);
+      System.out.println("Indexed " + index.docRefs.size() + " documents with " + numTokens + " unique terms.");
+    }
+    finally {
+      dictionaryFile.delete();
+      if (postingsFile != null)
+        postingsFile.delete();
+    }
+  }
+
+}
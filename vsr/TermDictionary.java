@@ -0,0 +1,227 @@
+package ir.vsr;
+
+/**
+ * A dictionary that assigns each distinct term a dense integer id, 0, 1, 2, ...,
+ * in the order terms are first seen.  Documents look up the id of each token
+ * as it is scanned, straight from the characters in the scanner's buffer, so
+ * that vectors, the index and the classifiers can key everything on small ints
+ * and never hash a token String again.  The global dictionary is shared by
+ * every vector, index and classifier, so that the ids of a query vector are the
+ * ids of the index it is run against.  Ids are never reused or removed, so
+ * only documents being indexed add terms; queries just look terms up (see
+ * Document.query), since a term not in the dictionary is in no index.
+ * <p/>
+ * Lookups do not lock: the terms are kept in an open-addressing table of
+ * immutable Terms that is replaced, never changed in place, when it grows.
+ * Only adding a new term is synchronized, and it checks again for the term
+ * under the lock, so threads indexing in parallel agree on every id.
+ *
+ * @author Ray Mooney
+ */
+public class TermDictionary {
+
+  /**
+   * The dictionary shared by all documents, vectors, indexes and classifiers
+   */
+  public static final TermDictionary global = new TermDictionary();
+
+  /**
+   * A term and its id, which never change once it is in the dictionary
+   */
+  protected static class Term {
+    final String string;
+    final int hash;
+    final int id;
+
+    Term(String string, int hash, int id) {
+      this.string = string;
+      this.hash = hash;
+      this.id = id;
+    }
+  }
+
+  /**
+   * The open-addressing hashtable of the terms, whose size is a power of 2 and
+   * which is kept at most half full
+   */
+  protected volatile Term[] table = new Term[1 << 10];
+
+  /**
+   * The terms indexed by id
+   */
+  protected volatile Term[] terms = new Term[1 << 9];
+
+  /**
+   * The number of terms in the dictionary, which is the id of the next new term
+   */
+  protected volatile int size = 0;
+
+  /**
+   * Return the id of the term in the first length chars of the array, adding
+   * it to the dictionary if it is new.
+   */
+  public int id(char[] chars, int length) {
+    int id = lookup(chars, length);
+    if (id >= 0)
+      return id;
+    return add(new String(chars, 0, length), hash(chars, length));
+  }
+
+  /**
+   * Return the id of the term in the first length chars of the array, or -1 if
+   * it is not in the dictionary.
+   */
+  public int lookup(char[] chars, int length) {
+    int hash = hash(chars, length);
+    Term[] table = this.table;
+    int slot = hash & (table.length - 1);
+    // Probe successive slots until the term or an empty slot is found
+    for (Term term = table[slot]; term != null; term = table[slot]) {
+      if (term.hash == hash && matches(term.string, chars, length))
+        return term.id;
+      slot = (slot + 1) & (table.length - 1);
+    }
+    // The term may have been added to a larger table since this one was read
+    if (table != this.table)
+      return lookup(chars, length);
+    return -1;
+  }
+
+  /**
+   * Return the id of the term, adding it to the dictionary if it is new.
+   */
+  public int id(String string) {
+    int id = lookup(string);
+    if (id >= 0)
+      return id;
+    return add(string, hash(string));
+  }
+
+  /**
+   * Return the id of the term, or -1 if it is not in the dictionary.
+   */
+  public int lookup(String string) {
+    int hash = hash(string);
+    Term[] table = this.table;
+    int slot = hash & (table.length - 1);
+    for (Term term = table[slot]; term != null; term = table[slot]) {
+      if (term.hash == hash && term.string.equals(string))
+        return term.id;
+      slot = (slot + 1) & (table.length - 1);
+    }
+    // The term may have been added to a larger table since this one was read
+    if (table != this.table)
+      return lookup(string);
+    return -1;
+  }
+
+  /**
+   * Return the term with the given id.
+   */
+  public String term(int id) {
+    Term[] terms = this.terms;
+    Term term = id < terms.length ? terms[id] : null;
+    if (term == null) {
+      // The term was added so recently that the array read was not yet
+      // updated, so read it again under the lock it was added under
+      synchronized (this) {
+        if (id < 0 || id >= size)
+          throw new IllegalArgumentException("No term with id " + id);
+        term = this.terms[id];
+      }
+    }
+    return term.string;
+  }
+
+  /**
+   * Return the number of terms in the dictionary.  Every term id is less than this.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Add a term to the dictionary unless another thread has just added it, and
+   * return its id.
+   */
+  protected synchronized int add(String string, int hash) {
+    Term[] table = this.table;
+    int slot = hash & (table.length - 1);
+    for (Term term = table[slot]; term != null; term = table[slot]) {
+      if (term.hash == hash && term.string.equals(string))
+        return term.id;
+      slot = (slot + 1) & (table.length - 1);
+    }
+    Term term = new Term(string, hash, size);
+    if (term.id == terms.length) {
+      Term[] larger = new Term[terms.length * 2];
+      System.arraycopy(terms, 0, larger, 0, terms.length);
+      larger[term.id] = term;
+      terms = larger;
+    } else
+      terms[term.id] = term;
+    if ((size + 1) * 2 > table.length)
+      // Rehash into a new table twice the size, which readers see only once it is full
+      this.table = rehash(table, term);
+    else
+      table[slot] = term;
+    size++;
+    return term.id;
+  }
+
+  /**
+   * Return a table twice the size of the given one, holding its terms and a new term.
+   */
+  protected static Term[] rehash(Term[] table, Term newTerm) {
+    Term[] larger = new Term[table.length * 2];
+    for (Term term : table) {
+      if (term != null)
+        insert(larger, term);
+    }
+    insert(larger, newTerm);
+    return larger;
+  }
+
+  /**
+   * Put a term into the first empty slot for its hash code.
+   */
+  protected static void insert(Term[] table, Term term) {
+    int slot = term.hash & (table.length - 1);
+    while (table[slot] != null)
+      slot = (slot + 1) & (table.length - 1);
+    table[slot] = term;
+  }
+
+  /**
+   * Return true if the string is the first length chars of the array
+   */
+  protected static boolean matches(String string, char[] chars, int length) {
+    if (string.length() != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (string.charAt(i) != chars[i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return a hash code for the first length chars of the array, which is the
+   * same as that of the String of them, spread so that its low bits are well mixed
+   */
+  protected static int hash(char[] chars, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++)
+      hash = 31 * hash + chars[i];
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Return a hash code for a String, using the hash code it caches
+   */
+  protected static int hash(String string) {
+    int hash = string.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+}
@@ -0,0 +1,261 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A map from term ids (see TermDictionary) to values, stored in parallel
+ * arrays of keys and values by open addressing with linear probing, so that
+ * finding the value of a term is a few int comparisons and nothing is boxed.
+ * Removal shifts later entries of a probe sequence back, so no tombstones
+ * are left behind.
+ *
+ * @author Ray Mooney
+ */
+public class TermMap<V> {
+
+  /**
+   * The key of an empty slot
+   */
+  protected static final int EMPTY = -1;
+
+  /**
+   * The term id in each slot, or EMPTY. The number of slots is a power of 2.
+   */
+  protected int[] keys;
+
+  /**
+   * The value in each slot
+   */
+  protected Object[] values;
+
+  /**
+   * The number of entries in the map
+   */
+  protected int size = 0;
+
+  /**
+   * Create an empty map.
+   */
+  public TermMap() {
+    this(16);
+  }
+
+  /**
+   * Create an empty map with room for the given number of entries before it grows.
+   */
+  public TermMap(int expectedSize) {
+    allocate(Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) * 2) * 2));
+  }
+
+  /**
+   * Return the number of entries in the map
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return the value for a term id, or null if there is none
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int termId) {
+    int slot = slot(termId);
+    for (int key = keys[slot]; key != EMPTY; key = keys[slot]) {
+      if (key == termId)
+        return (V) values[slot];
+      slot = (slot + 1) & (keys.length - 1);
+    }
+    return null;
+  }
+
+  /**
+   * Set the value for a term id, returning its previous value or null
+   */
+  @SuppressWarnings("unchecked")
+  public V put(int termId, V value) {
+    if (termId < 0)
+      throw new IllegalArgumentException("Negative term id: " + termId);
+    int slot = slot(termId);
+    for (int key = keys[slot]; key != EMPTY; key = keys[slot]) {
+      if (key == termId) {
+        V previous = (V) values[slot];
+        values[slot] = value;
+        return previous;
+      }
+      slot = (slot + 1) & (keys.length - 1);
+    }
+    keys[slot] = termId;
+    values[slot] = value;
+    size++;
+    // Keep the table at most half full
+    if (size * 2 > keys.length)
+      resize(keys.length * 2);
+    return null;
+  }
+
+  /**
+   * Remove the entry for a term id, returning its value or null if there was none
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(int termId) {
+    int mask = keys.length - 1;
+    int slot = slot(termId);
+    while (keys[slot] != termId) {
+      if (keys[slot] == EMPTY)
+        return null;
+      slot = (slot + 1) & mask;
+    }
+    V value = (V) values[slot];
+    // Move back any later entry of the probe run that would no longer be
+    // reachable across the emptied slot
+    int empty = slot;
+    for (slot = (slot + 1) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+      int home = slot(keys[slot]);
+      // The entry can fill the empty slot unless its home is cyclically after the empty slot
+      if (((slot - home) & mask) >= ((slot - empty) & mask)) {
+        keys[empty] = keys[slot];
+        values[empty] = values[slot];
+        empty = slot;
+      }
+    }
+    keys[empty] = EMPTY;
+    values[empty] = null;
+    size--;
+    return value;
+  }
+
+  /**
+   * Remove all entries
+   */
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  /**
+   * Return the term ids in the map, in no particular order
+   */
+  public int[] termIds() {
+    int[] termIds = new int[size];
+    int i = 0;
+    for (int key : keys) {
+      if (key != EMPTY)
+        termIds[i++] = key;
+    }
+    return termIds;
+  }
+
+  /**
+   * Return the values in the map, in the same order as termIds()
+   */
+  @SuppressWarnings("unchecked")
+  public List<V> values() {
+    List<V> result = new ArrayList<V>(size);
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] != EMPTY)
+        result.add((V) values[slot]);
+    }
+    return result;
+  }
+
+  /**
+   * Return a read-only view of this map keyed by the String of each term in
+   * the global TermDictionary, for callers that look up or list tokens by
+   * String.  Looking up a String that is not in the dictionary finds nothing
+   * without adding it.  The view holds no entries of its own: it reflects every
+   * later change to this map, and attempts to change it through the view throw
+   * UnsupportedOperationException.
+   */
+  public Map<String, V> asTokenMap() {
+    return new AbstractMap<String, V>() {
+      public int size() {
+        return size;
+      }
+
+      public boolean containsKey(Object token) {
+        return get(token) != null;
+      }
+
+      public V get(Object token) {
+        if (!(token instanceof String))
+          return null;
+        int termId = TermDictionary.global.lookup((String) token);
+        return termId < 0 ? null : TermMap.this.get(termId);
+      }
+
+      public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+          public int size() {
+            return size;
+          }
+
+          public Iterator<Map.Entry<String, V>> iterator() {
+            return new Iterator<Map.Entry<String, V>>() {
+              // The arrays as they are now, since the map replaces them when it grows
+              final int[] keys = TermMap.this.keys;
+              final Object[] values = TermMap.this.values;
+              int slot = nextSlot(0);
+
+              int nextSlot(int slot) {
+                while (slot < keys.length && keys[slot] == EMPTY)
+                  slot++;
+                return slot;
+              }
+
+              public boolean hasNext() {
+                return slot < keys.length;
+              }
+
+              @SuppressWarnings("unchecked")
+              public Map.Entry<String, V> next() {
+                if (slot >= keys.length)
+                  throw new NoSuchElementException();
+                Map.Entry<String, V> entry = new AbstractMap.SimpleImmutableEntry<String, V>(
+                    TermDictionary.global.term(keys[slot]), (V) values[slot]);
+                slot = nextSlot(slot + 1);
+                return entry;
+              }
+            };
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Return the home slot of a term id, mixing its bits since ids are dense
+   */
+  protected int slot(int termId) {
+    int hash = termId * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & (keys.length - 1);
+  }
+
+  /**
+   * Make empty arrays of the given size, a power of 2
+   */
+  protected void allocate(int numSlots) {
+    keys = new int[numSlots];
+    Arrays.fill(keys, EMPTY);
+    values = new Object[numSlots];
+  }
+
+  /**
+   * Move the entries into new arrays of the given size, a power of 2
+   */
+  protected void resize(int numSlots) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(numSlots);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int slot = slot(oldKeys[i]);
+        while (keys[slot] != EMPTY)
+          slot = (slot + 1) & (keys.length - 1);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+}
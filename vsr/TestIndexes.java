@@ -0,0 +1,448 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Driver to check that the alternative ways of storing and searching an
+ * inverted index rank documents just as an ordinary InvertedIndex of the same
+ * documents does.  Each check indexes a directory of documents, runs random
+ * queries made up of tokens of its documents, and compares the retrievals.
+ * The first difference found is printed and the driver exits with status 1.
+ *
+ * @author Ray Mooney
+ */
+public class TestIndexes {
+
+  /**
+   * The number of random queries run by each check
+   */
+  public static final int NUM_QUERIES = 300;
+
+  /**
+   * The directory of documents to index
+   */
+  public File dirFile = null;
+
+  /**
+   * The type of Document (TYPE_TEXT or TYPE_HTML). See docType in DocumentIterator.
+   */
+  public short docType = DocumentIterator.TYPE_TEXT;
+
+  /**
+   * Whether tokens are stemmed with Porter stemmer
+   */
+  public boolean stem = false;
+
+  /**
+   * The source of random queries and deletes, seeded so every run is the same
+   */
+  protected Random random = new Random(1);
+
+  /**
+   * The number of comparisons that have passed
+   */
+  protected int numPassed = 0;
+
+  /**
+   * Create a driver checking indexes of the documents in a directory.
+   *
+   * @param dirFile The directory of files to index.
+   * @param docType The type of documents to index (See docType in DocumentIterator)
+   * @param stem    Whether tokens should be stemmed with Porter stemmer.
+   */
+  public TestIndexes(File dirFile, short docType, boolean stem) {
+    this.dirFile = dirFile;
+    this.docType = docType;
+    this.stem = stem;
+  }
+
+  /**
+   * Return an ordinary inverted index of the documents
+   */
+  protected InvertedIndex newIndex() {
+    return new InvertedIndex(dirFile, docType, stem, false);
+  }
+
+  /**
+   * Delete about one in every given number of the documents of an index at
+   * random, returning the files of the deleted documents.
+   */
+  protected Set<File> deleteSome(InvertedIndex index, int every) {
+    Set<File> deleted = new HashSet<File>();
+    for (DocumentReference docRef : index.docRefs) {
+      if (random.nextInt(every) == 0)
+        deleted.add(docRef.file);
+    }
+    for (File file : deleted)
+      index.deleteDocument(file);
+    return deleted;
+  }
+
+  /**
+   * Return random query vectors, each of one to four tokens of a random
+   * document of the index that is not deleted, occurring once or twice.
+   */
+  protected List<HashMapVector> randomQueries(InvertedIndex index) {
+    List<HashMapVector> queries = new ArrayList<HashMapVector>();
+    while (queries.size() < NUM_QUERIES) {
+      DocumentReference docRef = index.docRefs.get(random.nextInt(index.docRefs.size()));
+      if (docRef.deleted)
+        continue;
+      HashMapVector docVector = index.documentVector(docRef);
+      if (docVector.size() == 0)
+        continue;
+      HashMapVector query = new HashMapVector();
+      for (int i = 1 + random.nextInt(4); i > 0; i--)
+        query.increment(docVector.termId(random.nextInt(docVector.size())), 1 + random.nextInt(2));
+      queries.add(query);
+    }
+    return queries;
+  }
+
+  /**
+   * Check that two rankings of the same query retrieve the same documents,
+   * identified by their files, in the same order with exactly the same scores.
+   */
+  protected void compareExactly(String what, HashMapVector query, Retrieval[] expected, Retrieval[] actual) {
+    if (actual.length != expected.length)
+      fail(what + " retrieved " + actual.length + " documents instead of " + expected.length +
+          " for query " + query);
+    for (int i = 0; i < expected.length; i++) {
+      if (!actual[i].docRef.file.equals(expected[i].docRef.file) || actual[i].score != expected[i].score)
+        fail(what + " ranked " + actual[i].docRef + " (" + actual[i].score + ") at " + (i + 1) +
+            " instead of " + expected[i].docRef + " (" + expected[i].score + ") for query " + query);
+    }
+    numPassed++;
+  }
+
+  /**
+   * Check that the top k ranking of a query gives the same scores, at each
+   * rank, as the first k of the complete ranking of it, and that each
+   * document it retrieves has the score the complete ranking gives it, both
+   * to within rounding, so that the two may only differ in the order of
+   * documents with equal scores.
+   */
+  protected void compareScores(String what, HashMapVector query, Retrieval[] ranking, int k, Retrieval[] actual) {
+    int length = Math.min(k, ranking.length);
+    if (actual.length != length)
+      fail(what + " retrieved " + actual.length + " documents instead of " + length +
+          " for query " + query);
+    Map<File, Double> scores = new HashMap<File, Double>();
+    for (Retrieval retrieval : ranking)
+      scores.put(retrieval.docRef.file, retrieval.score);
+    for (int i = 0; i < length; i++) {
+      Double score = scores.get(actual[i].docRef.file);
+      if (!closeTo(actual[i].score, ranking[i].score) || score == null || !closeTo(actual[i].score, score))
+        fail(what + " ranked " + actual[i].docRef + " (" + actual[i].score + ") at " + (i + 1) +
+            " instead of " + ranking[i].docRef + " (" + ranking[i].score + ") for query " + query);
+    }
+    numPassed++;
+  }
+
+  /**
+   * Return whether two scores are equal to within rounding
+   */
+  protected static boolean closeTo(double score, double expected) {
+    return Math.abs(score - expected) <= 1e-12 * Math.abs(expected);
+  }
+
+  /**
+   * Print a failed check and exit with status 1
+   */
+  protected void fail(String message) {
+    System.out.println("\nFAILED: " + message);
+    System.exit(1);
+  }
+
+  /**
+   * Check that an index saved to an index file, with some of its documents
+   * deleted, loads back, both read and memory-mapped, as the same index: the
+   * same documents and lengths, the same tokens and IDF factors, and the same
+   * rankings, for every postings codec.
+   */
+  public void checkIndexFiles() throws IOException {
+    System.out.println("\nChecking index files...");
+    InvertedIndex index = newIndex();
+    deleteSome(index, 10);
+    index.updateStatistics();
+    List<HashMapVector> queries = randomQueries(index);
+    for (String codecName : new String[]{"raw", "vbyte", "packed"}) {
+      File file = File.createTempFile("test", ".idx");
+      try {
+        index.save(file, PostingsCodec.forName(codecName));
+        for (boolean mapped : new boolean[]{false, true}) {
+          InvertedIndex loaded = mapped ? InvertedIndex.loadMapped(file) : InvertedIndex.load(file);
+          String what = (mapped ? "Mapped " : "Loaded ") + codecName + " index file";
+          compareStatistics(what, index, loaded);
+          for (HashMapVector query : queries)
+            compareExactly(what, query, index.retrieve(query), loaded.retrieve(query));
+        }
+      }
+      finally {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Check that postings of many sizes, around the PACKED block size, with
+   * gaps and counts of many widths, decode as they were encoded with every
+   * postings codec, and that skipping ahead in them with advance() lands on
+   * the right postings.  Then check that an index compressed with each codec
+   * has the same postings, and ranks documents the same, as before.
+   */
+  public void checkCodecs() {
+    System.out.println("\nChecking postings codecs...");
+    int[] sizes = {0, 1, 2, PostingsCodec.BLOCK_SIZE - 1, PostingsCodec.BLOCK_SIZE,
+        PostingsCodec.BLOCK_SIZE + 1, 3 * PostingsCodec.BLOCK_SIZE + 5, 5000};
+    for (String codecName : new String[]{"raw", "vbyte", "packed"}) {
+      int codec = PostingsCodec.forName(codecName);
+      for (int size : sizes) {
+        int[] docNumbers = new int[size];
+        int[] counts = new int[size];
+        int docNumber = -1;
+        for (int i = 0; i < size; i++) {
+          // Mostly small gaps and counts, with some that take many more bits
+          int bits = random.nextInt(10) == 0 ? 1 + random.nextInt(20) : 1 + random.nextInt(4);
+          docNumber = docNumber + 1 + random.nextInt(1 << bits);
+          docNumbers[i] = docNumber;
+          counts[i] = 1 + random.nextInt(1 << (random.nextInt(10) == 0 ? 20 : 3));
+        }
+        // Start the postings past some other bytes, as in an index file
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x55);
+        PostingsCodec.encode(codec, docNumbers, counts, size, out);
+        ByteBuffer data = ByteBuffer.wrap(out.toByteArray());
+        String what = codecName + " postings of size " + size;
+        PostingsCursor cursor = PostingsCodec.cursor(codec, data, 1, size, null);
+        for (int i = 0; i < size; i++) {
+          if (!cursor.next() || cursor.docId() != docNumbers[i] || cursor.count() != counts[i])
+            fail(what + " decoded wrongly at posting " + i);
+        }
+        if (cursor.next())
+          fail(what + " decoded too many postings");
+        // Skip ahead to increasing targets, some past the end
+        cursor = PostingsCodec.cursor(codec, data, 1, size, null);
+        if (size > 0 && cursor.next()) {
+          int position = 0;
+          for (int target = 0; position < size; target = target + 1 + random.nextInt(1 << 8)) {
+            while (position < size && docNumbers[position] < target)
+              position++;
+            if (cursor.advance(target) != position < size ||
+                (position < size && (cursor.docId() != docNumbers[position] || cursor.count() != counts[position])))
+              fail(what + " advanced wrongly to " + target);
+          }
+        }
+        numPassed++;
+      }
+    }
+    InvertedIndex index = newIndex();
+    List<HashMapVector> queries = randomQueries(index);
+    for (String codecName : new String[]{"raw", "vbyte", "packed"}) {
+      InvertedIndex compressed = newIndex();
+      compressed.compress(PostingsCodec.forName(codecName));
+      String what = "Index compressed with " + codecName;
+      for (int termId : index.tokenInfos.termIds()) {
+        PostingsCursor expected = index.tokenInfos.get(termId).postings();
+        PostingsCursor actual = compressed.getTokenInfo(termId).postings();
+        while (expected.next()) {
+          if (!actual.next() || actual.docId() != expected.docId() || actual.count() != expected.count())
+            fail(what + " has the wrong postings for " + TermDictionary.global.term(termId));
+        }
+        if (actual.next())
+          fail(what + " has too many postings for " + TermDictionary.global.term(termId));
+      }
+      compareStatistics(what, index, compressed);
+      for (HashMapVector query : queries)
+        compareExactly(what, query, index.retrieve(query), compressed.retrieve(query));
+    }
+  }
+
+  /**
+   * Check that the top k retrievals found with MaxScore pruning are exactly
+   * the first k of the complete ranking, for short queries and for long ones
+   * combining several, for several k, in an index with deletes and in
+   * compressed indexes, where pruning skips through encoded postings.
+   */
+  public void checkPruning() {
+    System.out.println("\nChecking pruned retrieval...");
+    for (String codecName : new String[]{"raw", "vbyte", "packed"}) {
+      InvertedIndex index = newIndex();
+      if (codecName.equals("raw"))
+        deleteSome(index, 10);
+      else
+        index.compress(PostingsCodec.forName(codecName));
+      List<HashMapVector> queries = randomQueries(index);
+      for (int i = 0; i + 3 <= NUM_QUERIES; i = i + 3) {
+        HashMapVector query = queries.get(i).copy();
+        query.add(queries.get(i + 1));
+        query.add(queries.get(i + 2));
+        queries.add(query);
+      }
+      String what = "Pruned retrieval from " + (codecName.equals("raw") ? "index" : codecName + " index");
+      for (HashMapVector query : queries) {
+        index.prune = false;
+        Retrieval[] ranking = index.retrieve(query);
+        index.prune = true;
+        for (int k : new int[]{1, 5, 10, 37, ranking.length + 1}) {
+          Retrieval[] top = index.retrieve(query, k);
+          compareExactly(what + " with k=" + k, query, Arrays.copyOf(ranking, Math.min(k, ranking.length)), top);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check that a SegmentedIndex, to which the documents are added a few at a
+   * time and merged in the background, with some deleted along the way, both
+   * from the buffer and from segments, ranks documents exactly as an ordinary
+   * index of the same documents with the same deletes.
+   */
+  public void checkSegments() {
+    System.out.println("\nChecking segmented index...");
+    InvertedIndex index = newIndex();
+    SegmentedIndex segmented = new SegmentedIndex(docType, stem);
+    segmented.maxBufferedDocuments = Math.max(1, index.docRefs.size() / 20);
+    segmented.mergeFactor = 3;
+    // Add the documents in the order the index added them, so documents with
+    // equal scores are ranked the same
+    List<File> files = new ArrayList<File>();
+    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem);
+    while (docIter.hasMoreDocuments()) {
+      FileDocument doc = docIter.nextDocument();
+      segmented.addDocument(doc);
+      files.add(doc.file);
+      if (random.nextInt(10) == 0) {
+        File file = files.get(random.nextInt(files.size()));
+        if (segmented.deleteDocument(file) != index.deleteDocument(file))
+          fail("Segmented index deleted " + file + " differently");
+      }
+    }
+    segmented.flush();
+    segmented.waitForMerges();
+    try {
+      if (segmented.numDocuments() != index.numDocuments())
+        fail("Segmented index has " + segmented.numDocuments() + " documents instead of " + index.numDocuments());
+      for (HashMapVector query : randomQueries(index)) {
+        Retrieval[] ranking = index.retrieve(query);
+        compareExactly("Segmented index in " + segmented.numSegments() + " segments", query, ranking,
+            segmented.retrieve(query, ranking.length + 1));
+      }
+    }
+    finally {
+      segmented.close();
+    }
+  }
+
+  /**
+   * Check that a ShardedIndex, with its documents split among shards by hash
+   * and by range, and with shards searched in this process and through
+   * ShardServers, ranks documents as an ordinary index of all of them, up to
+   * rounding and the order of documents with equal scores, which are ranked
+   * by shard.
+   */
+  public void checkShards() throws IOException {
+    System.out.println("\nChecking sharded index...");
+    InvertedIndex index = newIndex();
+    List<HashMapVector> queries = randomQueries(index);
+    for (String mode : new String[]{"hash", "range", "remote"}) {
+      List<IndexShard> shards = ShardedIndex.indexShards(dirFile, docType, stem, 3, mode.equals("range"), 1);
+      List<ShardServer> servers = new ArrayList<ShardServer>();
+      if (mode.equals("remote")) {
+        // Serve each shard on a free port of this machine
+        List<IndexShard> remoteShards = new ArrayList<IndexShard>();
+        for (IndexShard shard : shards) {
+          ShardServer server = new ShardServer(shard, 0, 1);
+          server.start();
+          servers.add(server);
+          remoteShards.add(new RemoteShard("http://localhost:" + server.port()));
+        }
+        shards = remoteShards;
+      }
+      ShardedIndex sharded = new ShardedIndex(shards);
+      try {
+        String what = "Sharded index split by " + mode;
+        if (sharded.numDocuments() != index.numDocuments())
+          fail(what + " has " + sharded.numDocuments() + " documents instead of " + index.numDocuments());
+        for (HashMapVector query : queries) {
+          Retrieval[] ranking = index.retrieve(query);
+          for (int k : new int[]{1, 10, ranking.length + 1})
+            compareScores(what + " with k=" + k, query, ranking, k, sharded.retrieve(query, k));
+        }
+      }
+      finally {
+        sharded.close();
+        for (ShardServer server : servers)
+          server.stop(0);
+      }
+    }
+  }
+
+  /**
+   * Check that an index holds the same documents, not counting deleted ones,
+   * with the same lengths, and the same tokens with the same IDF factors and
+   * numbers of documents as the expected index.
+   */
+  protected void compareStatistics(String what, InvertedIndex expected, InvertedIndex actual) {
+    if (actual.numDocuments() != expected.numDocuments())
+      fail(what + " has " + actual.numDocuments() + " documents instead of " + expected.numDocuments());
+    Map<File, DocumentReference> docRefs = new HashMap<File, DocumentReference>();
+    for (DocumentReference docRef : actual.docRefs) {
+      if (!docRef.deleted)
+        docRefs.put(docRef.file, docRef);
+    }
+    for (DocumentReference docRef : expected.docRefs) {
+      if (docRef.deleted)
+        continue;
+      DocumentReference actualDocRef = docRefs.get(docRef.file);
+      if (actualDocRef == null || actualDocRef.length != docRef.length)
+        fail(what + " has the wrong length for " + docRef);
+    }
+    if (actual.size() != expected.size())
+      fail(what + " has " + actual.size() + " tokens instead of " + expected.size());
+    for (int termId : expected.tokenInfos.termIds()) {
+      TokenInfo tokenInfo = expected.tokenInfos.get(termId);
+      TokenInfo actualInfo = actual.getTokenInfo(termId);
+      if (actualInfo == null || actualInfo.idf != tokenInfo.idf ||
+          actualInfo.numOccurrences() != tokenInfo.numOccurrences())
+        fail(what + " has the wrong postings for " + TermDictionary.global.term(termId));
+    }
+    numPassed++;
+  }
+
+  /**
+   * Run the checks on the documents in a directory.
+   *
+   * @param args A list of command-line arguments: flags, then the name of
+   *             the directory of documents to index.
+   *             "-html" to index HTML files, filtering their tags.
+   *             "-stem" to stem tokens with Porter stemmer.
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        // Create HTMLFileDocuments to filter HTML tags
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        // Stem tokens with Porter stemmer
+        stem = true;
+      else {
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+      }
+    }
+    TestIndexes test = new TestIndexes(new File(dirName), docType, stem);
+    test.checkIndexFiles();
+    test.checkCodecs();
+    test.checkPruning();
+    test.checkSegments();
+    test.checkShards();
+    System.out.println("\nAll " + test.numPassed + " checks passed.");
+  }
+
+}
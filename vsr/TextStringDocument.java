@@ -1,41 +1,38 @@
 package ir.vsr;
 
 import java.io.*;
-import java.util.*;
 
 /**
- * A simple document represented by a String
+ * A simple document represented by a String, such as the text of a query.
  *
  * @author Ray Mooney
  */
 public class TextStringDocument extends Document {
 
   /**
-   * StringTokenizer delim for tokenizing only alphabetic strings.
+   * The delimiters for tokenizing only alphabetic strings, the same as
+   * TextFileDocument.tokenizerDelim, which TokenScanner uses for every document.
    */
-  public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+  public static final String tokenizerDelim = TextFileDocument.tokenizerDelim;
 
   /**
-   * The tokenizer for this document.
+   * Create a simple Document for this string, which is either a query, whose
+   * tokens are only looked up in the term dictionary and dropped if they are
+   * not in it, or a document to index, whose tokens are added to it.
    */
-  protected StringTokenizer tokenizer = null;
-
-  /**
-   * Create a simple Document for this string
-   */
-  public TextStringDocument(String string, boolean stem) {
+  public TextStringDocument(String string, boolean stem, boolean query) {
     super(stem);
-    this.tokenizer = new StringTokenizer(string, tokenizerDelim);
+    this.query = query;
+    this.scanner = new TokenScanner(string);
     prepareNextToken();
   }
 
   /**
-   * Get the next token from this string
+   * Create a simple Document for this string, to be indexed or classified
+   * rather than used as a query
    */
-  protected String getNextCandidateToken() {
-    if (tokenizer == null || !tokenizer.hasMoreTokens())
-      return null;
-    return tokenizer.nextToken();
+  public TextStringDocument(String string, boolean stem) {
+    this(string, stem, false);
   }
 
   /**
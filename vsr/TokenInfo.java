@@ -24,6 +24,12 @@ public class TokenInfo {
    */
   public List<TokenOccurrence> occList;
 
+  /**
+   * The largest weight (IDF * occurrence count / document length) this token
+   * has in any of its documents, or NaN if not computed yet
+   */
+  protected volatile double maxWeight = Double.NaN;
+
   /**
    * Create an initially empty data structure
    */
@@ -31,4 +37,79 @@ public class TokenInfo {
     occList = new ArrayList<TokenOccurrence>();
     idf = 0.0;
   }
+
+  /**
+   * Return the number of documents in which this token occurs
+   */
+  public int numOccurrences() {
+    return occList.size();
+  }
+
+  /**
+   * Return the largest weight (IDF * occurrence count / document length) of
+   * this token in any of its documents, an upper bound on how much it can add to
+   * the normalized score of a document.  Computed the first time it is needed,
+   * once the IDF and document lengths are final.
+   */
+  public double maxWeight() {
+    if (Double.isNaN(maxWeight)) {
+      double max = 0.0;
+      PostingsCursor postings = postings();
+      while (postings.next())
+        max = Math.max(max, idf * postings.count() / postings.docRef().length);
+      maxWeight = max;
+    }
+    return maxWeight;
+  }
+
+  /**
+   * Return a cursor over the documents in which this token occurs
+   */
+  public PostingsCursor postings() {
+    return new PostingsCursor() {
+      // Position of the current TokenOccurrence in occList
+      int position = -1;
+
+      public boolean next() {
+        position++;
+        return position < occList.size();
+      }
+
+      public int docId() {
+        return occList.get(position).docRef.id;
+      }
+
+      public DocumentReference docRef() {
+        return occList.get(position).docRef;
+      }
+
+      public int count() {
+        return occList.get(position).count;
+      }
+
+      public boolean advance(int target) {
+        if (occList.get(position).docRef.id >= target)
+          return true;
+        // Gallop forward to bracket the target, then binary search the bracket
+        int low = position, step = 1;
+        int high = position + 1;
+        while (high < occList.size() && occList.get(high).docRef.id < target) {
+          low = high;
+          step = step * 2;
+          high = high + step;
+        }
+        high = Math.min(high, occList.size());
+        // Now occList[low] is before the target and occList[high], if any, is not
+        while (high - low > 1) {
+          int middle = (low + high) >>> 1;
+          if (occList.get(middle).docRef.id < target)
+            low = middle;
+          else
+            high = middle;
+        }
+        position = high;
+        return position < occList.size();
+      }
+    };
+  }
 }
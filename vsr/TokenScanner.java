@@ -0,0 +1,212 @@
+package ir.vsr;
+
+import java.io.*;
+
+/**
+ * Splits a stream of characters into candidate tokens without creating any
+ * objects per token.  Tokens are maximal runs of characters that are not
+ * delimiters, exactly as StringTokenizer splits them with the delimiters of
+ * TextFileDocument.tokenizerDelim, which include all line terminators.  Each token
+ * is copied into a reusable char array, and its characters are classified with a
+ * lookup table as they are copied, so that a Document can lowercase it in place
+ * and discard stopwords and tokens with non-letters before ever making a String.
+ *
+ * @author Ray Mooney
+ */
+public class TokenScanner {
+
+  /**
+   * Lookup table class of a delimiter character
+   */
+  public static final byte DELIMITER = 0;
+
+  /**
+   * Lookup table class of an ASCII letter
+   */
+  public static final byte LETTER = 1;
+
+  /**
+   * Lookup table class of any other ASCII character
+   */
+  public static final byte OTHER = 2;
+
+  /**
+   * The class of each ASCII character.  All delimiters are ASCII.
+   */
+  protected static final byte[] charClass = new byte[128];
+
+  static {
+    for (char c = 0; c < 128; c++)
+      charClass[c] = Character.isLetter(c) ? LETTER : OTHER;
+    for (char c : TextFileDocument.tokenizerDelim.toCharArray())
+      charClass[c] = DELIMITER;
+  }
+
+  /**
+   * The reader of the characters, or null if they are all in the buffer
+   */
+  protected Reader reader;
+
+  /**
+   * The buffer of characters read
+   */
+  protected char[] buffer;
+
+  /**
+   * The position of the next character to scan in the buffer
+   */
+  protected int position = 0;
+
+  /**
+   * The number of characters in the buffer
+   */
+  protected int limit = 0;
+
+  /**
+   * The characters of the current token, in token[0] to token[length-1]
+   */
+  protected char[] token = new char[32];
+
+  /**
+   * The length of the current token
+   */
+  protected int length = 0;
+
+  /**
+   * Whether the current token is all ASCII characters
+   */
+  protected boolean ascii = true;
+
+  /**
+   * Whether the current token is all ASCII letters
+   */
+  protected boolean letters = true;
+
+  /**
+   * Create a scanner for the characters read from a reader.
+   */
+  public TokenScanner(Reader reader) {
+    this.reader = reader;
+    buffer = new char[8192];
+  }
+
+  /**
+   * Create a scanner for the characters of a string.
+   */
+  public TokenScanner(String string) {
+    this(string.toCharArray());
+  }
+
+  /**
+   * Create a scanner for the characters of an array, which it keeps.
+   */
+  public TokenScanner(char[] chars) {
+    buffer = chars;
+    limit = chars.length;
+  }
+
+  /**
+   * Move to the next token.
+   *
+   * @return false if there are no more tokens.
+   */
+  public boolean next() throws IOException {
+    // Skip delimiters
+    while (true) {
+      if (position == limit && !fill())
+        return false;
+      char c = buffer[position];
+      if (c >= 128 || charClass[c] != DELIMITER)
+        break;
+      position++;
+    }
+    // Copy characters up to the next delimiter, classifying them
+    length = 0;
+    ascii = true;
+    letters = true;
+    while (true) {
+      if (position == limit && !fill())
+        break;
+      char c = buffer[position];
+      if (c < 128) {
+        byte type = charClass[c];
+        if (type == DELIMITER)
+          break;
+        if (type != LETTER)
+          letters = false;
+      } else {
+        ascii = false;
+        letters = false;
+      }
+      if (length == token.length) {
+        char[] larger = new char[length * 2];
+        System.arraycopy(token, 0, larger, 0, length);
+        token = larger;
+      }
+      token[length++] = c;
+      position++;
+    }
+    return true;
+  }
+
+  /**
+   * Refill the buffer from the reader.
+   *
+   * @return false if there are no more characters.
+   */
+  protected boolean fill() throws IOException {
+    if (reader == null)
+      return false;
+    int numRead = reader.read(buffer, 0, buffer.length);
+    if (numRead <= 0)
+      return false;
+    position = 0;
+    limit = numRead;
+    return true;
+  }
+
+  /**
+   * Return the array holding the characters of the current token, which is
+   * overwritten by the next token and may be changed in place.
+   */
+  public char[] token() {
+    return token;
+  }
+
+  /**
+   * Return the length of the current token
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Return true if the current token is all ASCII characters
+   */
+  public boolean isAscii() {
+    return ascii;
+  }
+
+  /**
+   * Return true if the current token is all ASCII letters
+   */
+  public boolean isAllLetters() {
+    return letters;
+  }
+
+  /**
+   * Return the current token as a String
+   */
+  public String tokenString() {
+    return new String(token, 0, length);
+  }
+
+  /**
+   * Close the reader, if any.
+   */
+  public void close() throws IOException {
+    if (reader != null)
+      reader.close();
+  }
+
+}
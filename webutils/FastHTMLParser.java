@@ -0,0 +1,677 @@
+package ir.webutils;
+
+import java.io.*;
+import java.util.*;
+import javax.swing.text.*;
+import javax.swing.text.html.*;
+
+import ir.utilities.*;
+
+/**
+ * A fast hand-written HTML parser that streams through a document once and
+ * reports its text, tags and attributes to an HTMLEditorKit.ParserCallback, so
+ * that it can stand in for the Swing HTML parser under an existing callback.  It
+ * builds no DTD and no element stack; it just recognizes markup as it reads it:
+ * <ul>
+ * <li>Text is reported with handleText, with its runs of white space collapsed
+ * to a single space (except inside PRE and TEXTAREA) and its character
+ * entities converted into Java characters, using the same HTML 4 entities as
+ * the Swing parser.  Text that is only white space is not reported.</li>
+ * <li>Known tags are reported with handleStartTag and handleEndTag, except for
+ * those that are always empty, such as BR, IMG, META and FRAME, which are
+ * reported with handleSimpleTag, as are unknown tags (as an HTML.UnknownTag,
+ * with an ENDTAG attribute if it is an end tag).  Attributes are keyed by their
+ * HTML.Attribute where there is one, and by their lowercase name otherwise.</li>
+ * <li>Comments, and the content of SCRIPT elements, are reported with
+ * handleComment.  As in the Swing parser, the content of STYLE elements is
+ * reported as text.  Declarations such as DOCTYPE and processing instructions
+ * are skipped.</li>
+ * </ul>
+ * Unlike the Swing parser it does not add implied tags, such as a missing BODY
+ * or a closing P, or check that tags are properly nested.  So it is only used
+ * where a callback is known not to depend on them, as in HTMLFileDocument,
+ * which just takes the text; HTMLParserMaker.getParser() still returns the
+ * Swing parser, and getFastParser() this one.  A parser keeps the state of the
+ * parse in progress, so each thread should use its own.
+ *
+ * @author Ray Mooney
+ */
+public class FastHTMLParser extends HTMLEditorKit.Parser {
+
+  /**
+   * The names and character codes of the HTML character entities
+   */
+  protected static final String ENTITY_CODES =
+    "quot 34 amp 38 lt 60 gt 62 nbsp 160 iexcl 161 cent 162 pound 163 curren " +
+    "164 yen 165 brvbar 166 sect 167 uml 168 copy 169 ordf 170 laquo 171 not " +
+    "172 shy 173 reg 174 macr 175 deg 176 plusmn 177 sup2 178 sup3 179 acute " +
+    "180 micro 181 para 182 middot 183 cedil 184 sup1 185 ordm 186 raquo 187 " +
+    "frac14 188 frac12 189 frac34 190 iquest 191 Agrave 192 Aacute 193 Acirc " +
+    "194 Atilde 195 Auml 196 Aring 197 AElig 198 Ccedil 199 Egrave 200 " +
+    "Eacute 201 Ecirc 202 Euml 203 Igrave 204 Iacute 205 Icirc 206 Iuml 207 " +
+    "ETH 208 Ntilde 209 Ograve 210 Oacute 211 Ocirc 212 Otilde 213 Ouml 214 " +
+    "times 215 Oslash 216 Ugrave 217 Uacute 218 Ucirc 219 Uuml 220 Yacute " +
+    "221 THORN 222 szlig 223 agrave 224 aacute 225 acirc 226 atilde 227 auml " +
+    "228 aring 229 aelig 230 ccedil 231 egrave 232 eacute 233 ecirc 234 euml " +
+    "235 igrave 236 iacute 237 icirc 238 iuml 239 eth 240 ntilde 241 ograve " +
+    "242 oacute 243 ocirc 244 otilde 245 ouml 246 divide 247 oslash 248 " +
+    "ugrave 249 uacute 250 ucirc 251 uuml 252 yacute 253 thorn 254 yuml 255 " +
+    "OElig 338 oelig 339 Scaron 352 scaron 353 Yuml 376 fnof 402 circ 710 " +
+    "tilde 732 Alpha 913 Beta 914 Gamma 915 Delta 916 Epsilon 917 Zeta 918 " +
+    "Eta 919 Theta 920 Iota 921 Kappa 922 Lambda 923 Mu 924 Nu 925 Xi 926 " +
+    "Omicron 927 Pi 928 Rho 929 Sigma 931 Tau 932 Upsilon 933 Phi 934 Chi " +
+    "935 Psi 936 Omega 937 alpha 945 beta 946 gamma 947 delta 948 epsilon " +
+    "949 zeta 950 eta 951 theta 952 iota 953 kappa 954 lambda 955 mu 956 nu " +
+    "957 xi 958 omicron 959 pi 960 rho 961 sigmaf 962 sigma 963 tau 964 " +
+    "upsilon 965 phi 966 chi 967 psi 968 omega 969 thetasym 977 upsih 978 " +
+    "piv 982 ensp 8194 emsp 8195 thinsp 8201 zwnj 8204 zwj 8205 lrm 8206 rlm " +
+    "8207 ndash 8211 mdash 8212 lsquo 8216 rsquo 8217 sbquo 8218 ldquo 8220 " +
+    "rdquo 8221 bdquo 8222 dagger 8224 Dagger 8225 bull 8226 hellip 8230 " +
+    "permil 8240 prime 8242 Prime 8243 lsaquo 8249 rsaquo 8250 oline 8254 " +
+    "frasl 8260 euro 8364 image 8465 weierp 8472 real 8476 trade 8482 " +
+    "alefsym 8501 larr 8592 uarr 8593 rarr 8594 darr 8595 harr 8596 crarr " +
+    "8629 lArr 8656 uArr 8657 rArr 8658 dArr 8659 hArr 8660 forall 8704 part " +
+    "8706 exist 8707 empty 8709 nabla 8711 isin 8712 notin 8713 ni 8715 prod " +
+    "8719 sum 8721 minus 8722 lowast 8727 radic 8730 prop 8733 infin 8734 " +
+    "ang 8736 and 8743 or 8744 cap 8745 cup 8746 int 8747 there4 8756 sim " +
+    "8764 cong 8773 asymp 8776 ne 8800 equiv 8801 le 8804 ge 8805 sub 8834 " +
+    "sup 8835 nsub 8836 sube 8838 supe 8839 oplus 8853 otimes 8855 perp 8869 " +
+    "sdot 8901 lceil 8968 rceil 8969 lfloor 8970 rfloor 8971 lang 9001 rang " +
+    "9002 loz 9674 spades 9824 clubs 9827 hearts 9829 diams 9830";
+
+  /**
+   * The character for each entity name
+   */
+  protected static final Map<String, Character> entities = new HashMap<String, Character>();
+
+  static {
+    StringTokenizer tokenizer = new StringTokenizer(ENTITY_CODES);
+    while (tokenizer.hasMoreTokens()) {
+      String name = tokenizer.nextToken();
+      entities.put(name, (char) Integer.parseInt(tokenizer.nextToken()));
+    }
+  }
+
+  /**
+   * The longest entity name looked up
+   */
+  protected static final int MAX_ENTITY_LENGTH = 8;
+
+  /**
+   * The tags that never have content or an end tag
+   */
+  protected static final Set<HTML.Tag> emptyTags = new HashSet<HTML.Tag>(Arrays.asList(
+      HTML.Tag.AREA, HTML.Tag.BASE, HTML.Tag.BASEFONT, HTML.Tag.BR, HTML.Tag.FRAME, HTML.Tag.HR,
+      HTML.Tag.IMG, HTML.Tag.INPUT, HTML.Tag.ISINDEX, HTML.Tag.LINK, HTML.Tag.META, HTML.Tag.PARAM));
+
+  /**
+   * The reader of the document being parsed
+   */
+  protected Reader reader;
+
+  /**
+   * The callback being told about the document being parsed
+   */
+  protected HTMLEditorKit.ParserCallback callback;
+
+  /**
+   * The buffer of characters read
+   */
+  protected char[] buffer = new char[8192];
+
+  /**
+   * The position of the next character to read in the buffer
+   */
+  protected int position = 0;
+
+  /**
+   * The number of characters in the buffer
+   */
+  protected int limit = 0;
+
+  /**
+   * The position in the document of the first character in the buffer
+   */
+  protected int offset = 0;
+
+  /**
+   * The text read since the last markup, in text[0] to text[textLength-1]
+   */
+  protected char[] text = new char[1024];
+
+  /**
+   * The length of the text read since the last markup
+   */
+  protected int textLength = 0;
+
+  /**
+   * The position in the document of the start of the text
+   */
+  protected int textPosition = 0;
+
+  /**
+   * The number of PRE and TEXTAREA elements the parser is currently inside
+   */
+  protected int preDepth = 0;
+
+  /**
+   * The tag or attribute name, attribute value or comment being read
+   */
+  protected StringBuilder markup = new StringBuilder();
+
+  /**
+   * The characters of the entity or character reference being read
+   */
+  protected StringBuilder entityName = new StringBuilder();
+
+  /**
+   * The first line terminator found in the document
+   */
+  protected String eol = null;
+
+  /**
+   * Parse an HTML document, calling the callback for its text, tags and
+   * comments.  Character set declarations are always ignored.
+   */
+  public void parse(Reader reader, HTMLEditorKit.ParserCallback callback, boolean ignoreCharSet)
+      throws IOException {
+    this.reader = reader;
+    this.callback = callback;
+    position = 0;
+    limit = 0;
+    offset = 0;
+    textLength = 0;
+    preDepth = 0;
+    eol = null;
+    try {
+      while (position < limit || fill()) {
+        // Copy a run of ordinary characters straight from the buffer
+        int start = position;
+        char c = 0;
+        while (position < limit && (c = buffer[position]) != '<' && c != '&'
+               && (c > ' ' || preDepth > 0 || !isSpace(c)))
+          position++;
+        if (position > start)
+          appendText(buffer, start, position - start, offset + start);
+        if (position == limit)
+          continue;
+        // Then handle the markup, reference or white space that ended it
+        position++;
+        int pos = offset + position - 1;
+        if (c == '<')
+          parseMarkup(pos);
+        else if (c == '&')
+          appendTextReference(pos);
+        else
+          appendText(c, pos);
+      }
+      flushText();
+      callback.handleEndOfLineString(eol == null ? "\n" : eol);
+      callback.flush();
+    }
+    catch (BadLocationException e) {
+      throw new IOException("FastHTMLParser: " + e);
+    }
+    finally {
+      this.reader = null;
+      this.callback = null;
+    }
+  }
+
+  /**
+   * Parse the markup that starts with a '<' read at the given position.  If
+   * it is not the start of a tag, comment or declaration, it is just text.
+   */
+  protected void parseMarkup(int pos) throws IOException {
+    int c = peek();
+    if (isLetter(c))
+      parseTag(pos, false);
+    else if (c == '/') {
+      read();
+      if (isLetter(peek()))
+        parseTag(pos, true);
+      else {
+        appendText('<', pos);
+        appendText('/', pos + 1);
+      }
+    }
+    else if (c == '!') {
+      read();
+      if (peek() == '-') {
+        read();
+        if (peek() == '-') {
+          read();
+          parseComment(pos);
+          return;
+        }
+      }
+      skipTo('>');
+    }
+    else if (c == '?')
+      skipTo('>');
+    else
+      appendText('<', pos);
+  }
+
+  /**
+   * Parse a start or end tag, whose name starts with the next character, and
+   * tell the callback about it.
+   */
+  protected void parseTag(int pos, boolean end) throws IOException {
+    // Read the name of the tag in lower case
+    markup.setLength(0);
+    while (isNameChar(peek()))
+      markup.append(Character.toLowerCase((char) read()));
+    String name = markup.toString();
+    SimpleAttributeSet attributes = new SimpleAttributeSet();
+    boolean selfClosing = parseAttributes(attributes);
+    flushText();
+    HTML.Tag tag = HTML.getTag(name);
+    if (tag == null || tag == HTML.Tag.COMMENT || tag == HTML.Tag.CONTENT || tag == HTML.Tag.IMPLIED) {
+      // Unknown tags, start or end, are simple tags as in the Swing parser
+      if (end)
+        attributes.addAttribute(HTML.Attribute.ENDTAG, "true");
+      callback.handleSimpleTag(new HTML.UnknownTag(name), attributes, pos);
+    }
+    else if (emptyTags.contains(tag)) {
+      // Ignore the end tags of empty elements
+      if (!end)
+        callback.handleSimpleTag(tag, attributes, pos);
+    }
+    else if (end) {
+      if ((tag == HTML.Tag.PRE || tag == HTML.Tag.TEXTAREA) && preDepth > 0)
+        preDepth--;
+      callback.handleEndTag(tag, pos);
+    }
+    else {
+      callback.handleStartTag(tag, attributes, pos);
+      if (selfClosing)
+        callback.handleEndTag(tag, pos);
+      else if (tag == HTML.Tag.SCRIPT || tag == HTML.Tag.STYLE)
+        parseRawText(tag, name);
+      else if (tag == HTML.Tag.PRE || tag == HTML.Tag.TEXTAREA)
+        preDepth++;
+    }
+  }
+
+  /**
+   * Read the attributes of a tag, through the closing '>', into the given set.
+   *
+   * @return true if the tag ends with "/>".
+   */
+  protected boolean parseAttributes(MutableAttributeSet attributes) throws IOException {
+    boolean selfClosing = false;
+    while (true) {
+      int c = read();
+      if (c == -1 || c == '>')
+        return selfClosing;
+      if (c == '/') {
+        selfClosing = true;
+        continue;
+      }
+      if (isSpace(c))
+        continue;
+      selfClosing = false;
+      // Read the attribute name in lower case
+      markup.setLength(0);
+      markup.append(Character.toLowerCase((char) c));
+      while ((c = peek()) != -1 && !isSpace(c) && c != '>' && c != '=' && c != '/')
+        markup.append(Character.toLowerCase((char) read()));
+      String name = markup.toString();
+      // An attribute without a value gets the same default value as in the Swing parser
+      Object value = HTML.NULL_ATTRIBUTE_VALUE;
+      skipSpaces();
+      if (peek() == '=') {
+        read();
+        skipSpaces();
+        value = readValue();
+      }
+      Object key = HTML.getAttributeKey(name);
+      if (key == null)
+        key = name;
+      // The first value of a repeated attribute is kept
+      if (!attributes.isDefined(key))
+        attributes.addAttribute(key, value);
+    }
+  }
+
+  /**
+   * Read an attribute value, quoted or not, converting its character entities.
+   */
+  protected String readValue() throws IOException {
+    markup.setLength(0);
+    int quote = peek();
+    int c;
+    if (quote == '"' || quote == '\'') {
+      read();
+      while ((c = copyUntil((char) quote, '&', markup)) == '&')
+        appendReference(markup);
+    }
+    else {
+      while ((c = peek()) != -1 && !isSpace(c) && c != '>') {
+        read();
+        if (c == '&')
+          appendReference(markup);
+        else
+          markup.append((char) c);
+      }
+    }
+    return markup.toString();
+  }
+
+  /**
+   * Read a comment, whose "<!--" started at the given position, through its
+   * closing "-->", and tell the callback about it.
+   */
+  protected void parseComment(int pos) throws IOException {
+    markup.setLength(0);
+    while (copyUntil('>', '>', markup) != -1) {
+      int length = markup.length();
+      if (length >= 2 && markup.charAt(length - 1) == '-' && markup.charAt(length - 2) == '-') {
+        markup.setLength(length - 2);
+        break;
+      }
+      markup.append('>');
+    }
+    flushText();
+    callback.handleComment(toChars(markup), pos);
+  }
+
+  /**
+   * Read the content of a SCRIPT or STYLE element, which is not parsed for
+   * markup, up through its end tag.  Scripts are reported as comments and
+   * styles as text, as in the Swing parser.
+   */
+  protected void parseRawText(HTML.Tag tag, String name) throws IOException {
+    int pos = offset + position;
+    int endPos = -1;
+    markup.setLength(0);
+    while (endPos == -1 && copyUntil('<', '<', markup) != -1) {
+      if (peek() == '/') {
+        // Check for the end tag, keeping the characters read if it is not
+        int start = markup.length();
+        markup.append('<').append((char) read());
+        int i = 0;
+        while (i < name.length() && Character.toLowerCase(peek()) == name.charAt(i)) {
+          markup.append((char) read());
+          i++;
+        }
+        if (i == name.length() && !isNameChar(peek())) {
+          markup.setLength(start);
+          endPos = offset + position - name.length() - 2;
+          skipTo('>');
+        }
+      }
+      else
+        markup.append('<');
+    }
+    if (markup.length() > 0) {
+      if (tag == HTML.Tag.SCRIPT)
+        callback.handleComment(toChars(markup), pos);
+      else
+        callback.handleText(toChars(markup), pos);
+    }
+    callback.handleEndTag(tag, endPos == -1 ? offset + position : endPos);
+  }
+
+  /**
+   * Read a character entity or numeric character reference whose '&' has just
+   * been read.
+   *
+   * @return The code point of its character, or -1 if it is not a known entity,
+   *         in which case the characters read, starting with the '&', are left in
+   *         entityName to be kept as ordinary characters.
+   */
+  protected int readReference() throws IOException {
+    entityName.setLength(0);
+    entityName.append('&');
+    if (peek() == '#') {
+      entityName.append((char) read());
+      int radix = 10;
+      int x = peek();
+      if (x == 'x' || x == 'X') {
+        entityName.append((char) read());
+        radix = 16;
+      }
+      int code = 0;
+      int numDigits = 0;
+      int digit;
+      while ((digit = Character.digit(peek(), radix)) >= 0) {
+        read();
+        // Cap the code so that it cannot overflow
+        code = Math.min(code * radix + digit, Character.MAX_CODE_POINT + 1);
+        numDigits++;
+      }
+      if (numDigits == 0)
+        return -1;
+      if (peek() == ';')
+        read();
+      return Character.isValidCodePoint(code) ? code : 0xFFFD;
+    }
+    while (entityName.length() <= MAX_ENTITY_LENGTH && (isLetter(peek()) || isDigit(peek())))
+      entityName.append((char) read());
+    Character entity = entities.get(entityName.substring(1));
+    if (entity == null)
+      return -1;
+    if (peek() == ';')
+      read();
+    return entity.charValue();
+  }
+
+  /**
+   * Read a reference whose '&' has just been read and append its character to
+   * the given characters.
+   */
+  protected void appendReference(StringBuilder chars) throws IOException {
+    int code = readReference();
+    if (code == -1)
+      chars.append(entityName);
+    else
+      chars.appendCodePoint(code);
+  }
+
+  /**
+   * Read a reference whose '&' was read at the given position and add its
+   * character to the text.
+   */
+  protected void appendTextReference(int pos) throws IOException {
+    int code = readReference();
+    if (code == -1) {
+      for (int i = 0; i < entityName.length(); i++)
+        appendText(entityName.charAt(i), pos + i);
+    }
+    else {
+      for (char c : Character.toChars(code))
+        appendText(c, pos);
+    }
+  }
+
+  /**
+   * Add a character of text read at the given position, collapsing white space
+   * outside of preformatted elements.
+   */
+  protected void appendText(char c, int pos) throws IOException {
+    if (textLength == 0)
+      textPosition = pos;
+    if (preDepth == 0 && isSpace(c)) {
+      // Note the first line terminator for handleEndOfLineString
+      if (eol == null && (c == '\n' || c == '\r'))
+        eol = (c == '\r' && peek() == '\n') ? "\r\n" : String.valueOf(c);
+      if (textLength > 0 && text[textLength - 1] == ' ')
+        return;
+      c = ' ';
+    }
+    if (textLength == text.length)
+      text = Arrays.copyOf(text, textLength * 2);
+    text[textLength++] = c;
+  }
+
+  /**
+   * Add characters of text, which are not markup or white space, starting at
+   * the given position.
+   */
+  protected void appendText(char[] chars, int start, int length, int pos) {
+    if (textLength == 0)
+      textPosition = pos;
+    if (textLength + length > text.length)
+      text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+    System.arraycopy(chars, start, text, textLength, length);
+    textLength = textLength + length;
+  }
+
+  /**
+   * Tell the callback about the text read since the last markup, if it is
+   * not just white space.
+   */
+  protected void flushText() {
+    if (textLength == 0)
+      return;
+    if (preDepth > 0 || textLength > 1 || text[0] != ' ')
+      callback.handleText(Arrays.copyOf(text, textLength), textPosition);
+    textLength = 0;
+  }
+
+  /**
+   * Copy characters into the given characters up to the next of either of two
+   * given characters, which is read but not copied.
+   *
+   * @return The character that stopped the copy, or -1 at the end of the document.
+   */
+  protected int copyUntil(char stop1, char stop2, StringBuilder chars) throws IOException {
+    while (position < limit || fill()) {
+      int start = position;
+      while (position < limit) {
+        char c = buffer[position];
+        if (c == stop1 || c == stop2) {
+          chars.append(buffer, start, position - start);
+          position++;
+          return c;
+        }
+        position++;
+      }
+      chars.append(buffer, start, position - start);
+    }
+    return -1;
+  }
+
+  /**
+   * Skip characters through the next given character.
+   */
+  protected void skipTo(char end) throws IOException {
+    int c;
+    while ((c = read()) != -1 && c != end)
+      ;
+  }
+
+  /**
+   * Skip any white space characters.
+   */
+  protected void skipSpaces() throws IOException {
+    while (isSpace(peek()))
+      read();
+  }
+
+  /**
+   * Read the next character.
+   *
+   * @return -1 at the end of the document.
+   */
+  protected int read() throws IOException {
+    if (position == limit && !fill())
+      return -1;
+    return buffer[position++];
+  }
+
+  /**
+   * Return the next character without reading it.
+   *
+   * @return -1 at the end of the document.
+   */
+  protected int peek() throws IOException {
+    if (position == limit && !fill())
+      return -1;
+    return buffer[position];
+  }
+
+  /**
+   * Refill the buffer from the reader.
+   *
+   * @return false if there are no more characters.
+   */
+  protected boolean fill() throws IOException {
+    offset = offset + limit;
+    position = 0;
+    limit = 0;
+    int numRead = reader.read(buffer, 0, buffer.length);
+    if (numRead <= 0)
+      return false;
+    limit = numRead;
+    return true;
+  }
+
+  /**
+   * Return the characters of a string builder in an array of their own
+   */
+  protected static char[] toChars(StringBuilder chars) {
+    char[] array = new char[chars.length()];
+    chars.getChars(0, array.length, array, 0);
+    return array;
+  }
+
+  /**
+   * Return true if the character is HTML white space
+   */
+  protected static boolean isSpace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+  }
+
+  /**
+   * Return true if the character is an ASCII letter
+   */
+  protected static boolean isLetter(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * Return true if the character is an ASCII digit
+   */
+  protected static boolean isDigit(int c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Return true if the character can be part of a tag name
+   */
+  protected static boolean isNameChar(int c) {
+    return isLetter(c) || isDigit(c) || c == '-' || c == ':' || c == '_' || c == '.';
+  }
+
+  /**
+   * For testing, extract the text of the given HTML files with this parser and
+   * with the Swing parser, and print the time each takes.  The files are parsed
+   * several times so that the later timings are after the code is compiled.
+   */
+  public static void main(String[] args) throws IOException {
+    List<String> pages = new ArrayList<String>();
+    for (String fileName : args)
+      pages.add(MoreString.fileToString(fileName));
+    HTMLEditorKit.Parser[] parsers = {new FastHTMLParser(), new HTMLParserMaker().getParser()};
+    final int[] numChars = new int[1];
+    HTMLEditorKit.ParserCallback callback = new HTMLEditorKit.ParserCallback() {
+      public void handleText(char[] data, int pos) {
+        numChars[0] = numChars[0] + data.length;
+      }
+    };
+    for (int round = 0; round < 3; round++) {
+      for (HTMLEditorKit.Parser parser : parsers) {
+        numChars[0] = 0;
+        long start = System.currentTimeMillis();
+        for (String page : pages)
+          parser.parse(new StringReader(page), callback, true);
+        System.out.println(parser.getClass().getName() + ": " + numChars[0] + " characters of text in "
+            + (System.currentTimeMillis() - start) + " ms");
+      }
+    }
+  }
+
+}
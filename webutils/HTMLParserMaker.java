@@ -35,5 +35,17 @@ public class HTMLParserMaker extends HTMLEditorKit {
     return super.getParser();
   }
 
+  /**
+   * Returns a new FastHTMLParser, for clients that only need the text,
+   * tags and attributes of a document as it is written and not the
+   * implied tags the Swing parser adds.  Each call returns a new
+   * parser, since it keeps the state of its parse.
+   *
+   * @return Instance of FastHTMLParser
+   */
+  public HTMLEditorKit.Parser getFastParser() {
+    return new FastHTMLParser();
+  }
+
 
 }// HTMLParser